@@ -0,0 +1,242 @@
+package benchmarks;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+import models.Bank;
+import models.BankAccount;
+import models.CheckingAccount;
+import models.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the core banking hot paths. Every benchmark runs in
+ * {@link SingleThread} and in {@link Contended}, where one thread per
+ * processor runs it at once, each on its own accounts; {@link Shared}
+ * makes all threads post to the same ones. Each iteration starts from a
+ * fresh bank, so histories do not grow from one iteration to the next.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar CoreBenchmarks -prof gc
+ * java -jar benchmarks/target/benchmarks.jar "CoreBenchmarks.*transfer" -rf csv -rff baseline.csv
+ * </pre>
+ * {@code -prof gc} adds the bytes allocated per operation
+ * ({@code gc.alloc.rate.norm}); {@code -t} overrides the thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public abstract class CoreBenchmarks {
+    static final long LARGE_BALANCE = 1_000_000_000_000L;
+    private static final int LOOKUP_ACCOUNTS = 10_000;
+    private static final Transaction RECEIPT = new Transaction(
+        TransactionType.TRANSFER_OUT, 2500, "CHK10001", "SAV10002", TransactionStatus.SUCCESS, 97500, 150);
+
+    @Threads(1)
+    public static class SingleThread extends CoreBenchmarks {
+    }
+
+    @Threads(Threads.MAX)
+    public static class Contended extends CoreBenchmarks {
+    }
+
+    /** A bank that is new in every iteration. */
+    @State(Scope.Benchmark)
+    public static class FreshBank {
+        Bank bank;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            bank = new Bank("Benchmark");
+        }
+    }
+
+    /** The accounts of one thread in the fresh bank. */
+    @State(Scope.Thread)
+    public static class OwnAccounts {
+        BankAccount savings;
+        CheckingAccount checking;
+        // Past the free allowance, so every withdrawal is charged
+        BankAccount charged;
+        String[] pair;
+        int postings;
+        long transfers;
+
+        @Setup(Level.Iteration)
+        public void setUp(FreshBank fresh, ThreadParams thread) throws Exception {
+            int index = 4 * thread.getThreadIndex();
+            savings = open(fresh.bank, index, true);
+            checking = (CheckingAccount) open(fresh.bank, index + 1, false);
+            charged = open(fresh.bank, index + 2, false);
+            for (int i = 0; i < 16; i++) {
+                charged.withdraw(1);
+            }
+            pair = new String[] {open(fresh.bank, index + 3, false).getAccountNumber(),
+                                 open(fresh.bank, index + 3, false).getAccountNumber()};
+        }
+    }
+
+    /** Ten thousand accounts looked up at random. */
+    @State(Scope.Benchmark)
+    public static class Directory {
+        Bank bank;
+        String[] numbers;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            bank = new Bank("Benchmark");
+            numbers = new String[LOOKUP_ACCOUNTS];
+            for (int i = 0; i < LOOKUP_ACCOUNTS; i++) {
+                numbers[i] = open(bank, i, i % 2 == 0).getAccountNumber();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        long seed;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams thread) {
+            seed = 0x9E3779B97F4A7C15L * (thread.getThreadIndex() + 1);
+        }
+
+        // xorshift, so picking the key costs next to nothing
+        int next(int bound) {
+            long x = seed;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            seed = x;
+            return (int) ((x >>> 1) % bound);
+        }
+    }
+
+    @Benchmark
+    public long savingsDeposit(OwnAccounts own) throws Exception {
+        return own.savings.deposit(1).getSequence();
+    }
+
+    @Benchmark
+    public long savingsWithdraw(OwnAccounts own) throws Exception {
+        return own.savings.withdraw(1).getSequence();
+    }
+
+    // The fast path: no Transaction is built, only the history row and index entries are stored
+    @Benchmark
+    public int savingsPostDeposit(OwnAccounts own) throws Exception {
+        return own.savings.postDeposit(1);
+    }
+
+    @Benchmark
+    public int savingsPostWithdrawal(OwnAccounts own) throws Exception {
+        return own.savings.postWithdrawal(1);
+    }
+
+    // Resetting the monthly count keeps every withdrawal inside the free allowance
+    @Benchmark
+    public long checkingWithdrawFree(OwnAccounts own) throws Exception {
+        if (++own.postings % 8 == 0) {
+            own.checking.resetTransactionCount();
+        }
+        return own.checking.withdraw(1).getSequence();
+    }
+
+    @Benchmark
+    public long checkingWithdrawFee(OwnAccounts own) throws Exception {
+        return own.charged.withdraw(1).getFee();
+    }
+
+    @Benchmark
+    public long bankTransferFunds(FreshBank fresh, OwnAccounts own) throws Exception {
+        int from = (int) (own.transfers++ & 1);
+        return fresh.bank.transferFunds(own.pair[from], own.pair[1 - from], 1).getSequence();
+    }
+
+    @Benchmark
+    public long bankGetAccount(Directory directory, Cursor cursor) {
+        return directory.bank.getAccount(directory.numbers[cursor.next(LOOKUP_ACCOUNTS)]).getBalance();
+    }
+
+    @Benchmark
+    public long transactionNew() {
+        return new Transaction(TransactionType.TRANSFER_OUT, 2500, "CHK10001", "SAV10002",
+                               TransactionStatus.SUCCESS, 97500, 150).getSequence();
+    }
+
+    @Benchmark
+    public int transactionToReceipt() {
+        return RECEIPT.toReceipt().length();
+    }
+
+    /** All threads on the same accounts. */
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+    @Fork(1)
+    @Threads(Threads.MAX)
+    public static class Shared {
+        @State(Scope.Benchmark)
+        public static class SharedAccounts {
+            Bank bank;
+            BankAccount savings;
+            BankAccount checking;
+            String[] pair;
+
+            @Setup(Level.Iteration)
+            public void setUp() throws Exception {
+                bank = new Bank("Benchmark");
+                savings = open(bank, 0, true);
+                checking = open(bank, 1, false);
+                pair = new String[] {open(bank, 2, false).getAccountNumber(),
+                                     open(bank, 2, false).getAccountNumber()};
+            }
+        }
+
+        @State(Scope.Thread)
+        public static class Direction {
+            long transfers;
+        }
+
+        @Benchmark
+        public long savingsDeposit(SharedAccounts shared) throws Exception {
+            return shared.savings.deposit(1).getSequence();
+        }
+
+        @Benchmark
+        public long checkingWithdraw(SharedAccounts shared) throws Exception {
+            return shared.checking.withdraw(1).getSequence();
+        }
+
+        @Benchmark
+        public long bankTransferFunds(SharedAccounts shared, Direction direction) throws Exception {
+            int from = (int) (direction.transfers++ & 1);
+            return shared.bank.transferFunds(shared.pair[from], shared.pair[1 - from], 1).getSequence();
+        }
+    }
+
+    static BankAccount open(Bank bank, int index, boolean savings) throws Exception {
+        String customerId = "B" + index;
+        if (bank.getCustomer(customerId) == null) {
+            bank.registerCustomer(customerId, "Benchmark", "0000");
+        }
+        return savings ? bank.createSavingsAccount(customerId, LARGE_BALANCE)
+                       : bank.createCheckingAccount(customerId, LARGE_BALANCE);
+    }
+}
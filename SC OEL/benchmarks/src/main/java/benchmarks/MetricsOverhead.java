@@ -0,0 +1,95 @@
+package benchmarks;
+
+import models.Bank;
+import models.BankAccount;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the bank's operation metrics: each metered operation is run
+ * with {@code metrics} false and true, on one thread and on one per
+ * processor. The throughput lost between the two rows is the overhead;
+ * the budget is a few percent.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar MetricsOverhead
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public abstract class MetricsOverhead {
+    @Threads(1)
+    public static class SingleThread extends MetricsOverhead {
+    }
+
+    @Threads(Threads.MAX)
+    public static class Contended extends MetricsOverhead {
+    }
+
+    @State(Scope.Benchmark)
+    public static class MeteredBank {
+        @Param({"false", "true"})
+        public boolean metrics;
+
+        Bank bank;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            bank = new Bank("Benchmark");
+            bank.getMetrics().setEnabled(metrics);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnAccounts {
+        BankAccount savings;
+        String[] pair;
+        long transfers;
+
+        @Setup(Level.Iteration)
+        public void setUp(MeteredBank metered, ThreadParams thread) throws Exception {
+            int index = 2 * thread.getThreadIndex();
+            savings = CoreBenchmarks.open(metered.bank, index, true);
+            pair = new String[] {CoreBenchmarks.open(metered.bank, index + 1, false).getAccountNumber(),
+                                 CoreBenchmarks.open(metered.bank, index + 1, false).getAccountNumber()};
+        }
+    }
+
+    @Benchmark
+    public long deposit(OwnAccounts own) throws Exception {
+        return own.savings.deposit(1).getSequence();
+    }
+
+    @Benchmark
+    public long withdraw(OwnAccounts own) throws Exception {
+        return own.savings.withdraw(1).getSequence();
+    }
+
+    @Benchmark
+    public long transferFunds(MeteredBank metered, OwnAccounts own) throws Exception {
+        int from = (int) (own.transfers++ & 1);
+        return metered.bank.transferFunds(own.pair[from], own.pair[1 - from], 1).getSequence();
+    }
+
+    @Benchmark
+    public int authenticateCustomer(MeteredBank metered, OwnAccounts own) throws Exception {
+        return metered.bank.authenticateCustomer(own.savings.getCustomerId(), "0000").getCustomerId().length();
+    }
+}
@@ -1,17 +1,106 @@
+import enums.ExecutionMode;
+import enums.InterestMode;
 import models.Bank;
+import models.PostingPipeline;
+import net.AtmServer;
+import net.AtmTerminalServer;
+import persistence.GroupCommitter;
+import persistence.Journal;
+import persistence.MappedHistoryStore;
+import persistence.Snapshotter;
 import ui.ATM;
 import ui.BankAdministrator;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 public class Main {
+    private static final Path JOURNAL_PATH = Paths.get("data", "bank.journal");
+    private static final Path HISTORY_DIRECTORY = Paths.get("data", "history");
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 300;
     
     public static void main(String[] args) {
         // Initialize the bank system
         Bank bank = new Bank("Global Trust Bank");
         
-        // Initialize with sample data for testing
-        bank.initializeSampleData();
+        // Transaction history lives off-heap in mapped files
+        MappedHistoryStore historyStore;
+        try {
+            historyStore = MappedHistoryStore.open(HISTORY_DIRECTORY);
+        } catch (IOException e) {
+            System.out.println("Cannot open history store " + HISTORY_DIRECTORY + ": " + e.getMessage());
+            return;
+        }
+        bank.setHistoryStore(historyStore);
+        
+        // Savings interest accrues daily and is settled at period close or on next use
+        bank.setInterestMode(InterestMode.valueOf(
+            System.getProperty("interest.mode", Bank.DEFAULT_INTEREST_MODE.name())));
+        
+        // Rebuild state from the journal; a fresh journal starts from sample data
+        Journal journal;
+        try {
+            journal = Journal.open(JOURNAL_PATH, bank,
+                Integer.getInteger("journal.batchSize", GroupCommitter.DEFAULT_MAX_BATCH_SIZE),
+                Long.getLong("journal.batchDelayMicros", GroupCommitter.DEFAULT_MAX_BATCH_DELAY_MICROS));
+        } catch (IOException e) {
+            System.out.println("Cannot open journal " + JOURNAL_PATH + ": " + e.getMessage());
+            return;
+        }
+        
+        if (journal.getRecoveredBytes() == 0) {
+            // Initialize with sample data for testing
+            bank.initializeSampleData();
+            System.out.println("Sample data initialized successfully.");
+            System.out.println("Sample Customers:");
+            System.out.println("  Customer ID: C001, PIN: 1234 (Alice Johnson)");
+            System.out.println("  Customer ID: C002, PIN: 5678 (Bob Smith)");
+            System.out.println("  Customer ID: C003, PIN: 9012 (Charlie Brown)");
+        } else {
+            printRecoveryStats(journal);
+        }
+        
+        // Periodic snapshots keep the journal tail, and so startup, short
+        Snapshotter snapshotter = new Snapshotter(journal);
+        snapshotter.start(Long.getLong("snapshot.intervalSeconds", SNAPSHOT_INTERVAL_SECONDS));
+        
+        // In PIPELINE mode ATM postings go to one owner thread per account partition
+        PostingPipeline pipeline = null;
+        if (ExecutionMode.valueOf(System.getProperty("execution.mode", "LOCKING")) == ExecutionMode.PIPELINE) {
+            pipeline = new PostingPipeline(bank,
+                Integer.getInteger("pipeline.partitions", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("pipeline.queueCapacity", PostingPipeline.DEFAULT_QUEUE_CAPACITY));
+        }
+        
+        // Network terminals speak the ATM line protocol on -Datm.port
+        AtmServer atmServer = null;
+        Integer atmPort = Integer.getInteger("atm.port");
+        if (atmPort != null) {
+            try {
+                atmServer = new AtmServer(bank, pipeline, new InetSocketAddress(atmPort),
+                    Integer.getInteger("atm.workers", 16));
+                System.out.println("ATM server listening on port " + atmServer.getPort());
+            } catch (IOException e) {
+                System.out.println("Cannot start ATM server on port " + atmPort + ": " + e.getMessage());
+            }
+        }
+        
+        // Network terminals get the interactive ATM menus on -Datm.terminalPort
+        AtmTerminalServer terminalServer = null;
+        Integer terminalPort = Integer.getInteger("atm.terminalPort");
+        if (terminalPort != null) {
+            try {
+                terminalServer = new AtmTerminalServer(bank, pipeline, new InetSocketAddress(terminalPort));
+                System.out.println("ATM terminal server listening on port " + terminalServer.getPort()
+                                   + (terminalServer.usesVirtualThreads() ? " (virtual threads)" : ""));
+            } catch (IOException e) {
+                System.out.println("Cannot start ATM terminal server on port " + terminalPort + ": "
+                                   + e.getMessage());
+            }
+        }
         
         Scanner scanner = new Scanner(System.in);
         
@@ -23,7 +112,7 @@ public class Main {
             switch (choice) {
                 case "1":
                     // Customer ATM Interface
-                    ATM atm = new ATM(bank);
+                    ATM atm = new ATM(bank, pipeline);
                     atm.start();
                     break;
                     
@@ -38,6 +127,13 @@ public class Main {
                     System.out.println("\nThank you for using Global Trust Bank System!");
                     System.out.println("Goodbye!");
                     scanner.close();
+                    closeAtmServer(atmServer);
+                    closeAtmServer(terminalServer);
+                    if (pipeline != null) {
+                        pipeline.close();
+                    }
+                    closeJournal(journal, snapshotter);
+                    closeHistoryStore(historyStore);
                     System.exit(0);
                     break;
                     
@@ -47,6 +143,50 @@ public class Main {
         }
     }
     
+    private static void printRecoveryStats(Journal journal) {
+        double millis = journal.getRecoveryNanos() / 1_000_000.0;
+        double perSecond = journal.getRecoveredRecords() / Math.max(millis / 1000.0, 1e-9);
+        System.out.println(String.format(
+            "Recovered from snapshot at offset %d plus %d journal records (%d bytes) in %.1f ms (%.0f records/s).",
+            journal.getSnapshotOffset(), journal.getRecoveredRecords(), journal.getRecoveredBytes(),
+            millis, perSecond));
+    }
+    
+    private static void closeAtmServer(AutoCloseable atmServer) {
+        if (atmServer == null) {
+            return;
+        }
+        try {
+            atmServer.close();
+        } catch (Exception e) {
+            System.out.println("Error closing ATM server: " + e.getMessage());
+        }
+    }
+    
+    private static void closeJournal(Journal journal, Snapshotter snapshotter) {
+        snapshotter.close();
+        try {
+            // Flush first so the final snapshot covers every record
+            journal.getCommitter().close();
+            snapshotter.takeSnapshot();
+        } catch (IOException e) {
+            System.out.println("Error writing snapshot: " + e.getMessage());
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        }
+    }
+    
+    private static void closeHistoryStore(MappedHistoryStore historyStore) {
+        try {
+            historyStore.close();
+        } catch (IOException e) {
+            System.out.println("Error closing history store: " + e.getMessage());
+        }
+    }
+    
     private static void displayWelcomeScreen() {
         System.out.println("\n" + "=".repeat(50));
         System.out.println("          GLOBAL TRUST BANK SYSTEM");
@@ -0,0 +1,179 @@
+package benchmarks;
+
+import models.Bank;
+import net.AtmClient;
+import net.AtmServer;
+import net.AtmTerminalServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many concurrent ATM terminals against one bank, reporting the latency of
+ * each deposit or withdrawal as a terminal sees it.
+ *
+ * In {@code terminal} mode every terminal walks the interactive ATM menus
+ * of an {@link AtmTerminalServer}: log in, then alternate deposits and
+ * withdrawals, timing each from sending the menu choice to the next main
+ * menu prompt. In {@code protocol} mode the same work goes through the
+ * {@link AtmServer} line protocol. Every terminal connects before any
+ * starts, so all sessions are open at once.
+ *
+ * {@code java -cp out benchmarks.AtmLoadTest [terminal|protocol] [terminals] [operationsPerTerminal]}
+ */
+public class AtmLoadTest {
+    private static final byte[] MENU_PROMPT = "Select an option: ".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "terminal";
+        int terminals = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Bank bank = new Bank("Load");
+        String[] accounts = new String[terminals];
+        for (int i = 0; i < terminals; i++) {
+            bank.registerCustomer("L" + i, "Load " + i, "1234");
+            accounts[i] = bank.createCheckingAccount("L" + i, 1_000_000).getAccountNumber();
+        }
+
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        long[] latencies = new long[terminals * operations];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch connected = new CountDownLatch(terminals);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(terminals);
+        long elapsed;
+
+        AutoCloseable server;
+        int port;
+        if (mode.equals("protocol")) {
+            AtmServer atmServer = new AtmServer(bank, null, loopback, 16);
+            server = atmServer;
+            port = atmServer.getPort();
+        } else {
+            AtmTerminalServer terminalServer = new AtmTerminalServer(bank, null, loopback);
+            server = terminalServer;
+            port = terminalServer.getPort();
+            System.out.println("Sessions on " + (terminalServer.usesVirtualThreads() ? "virtual" : "platform")
+                               + " threads");
+        }
+        try (server) {
+            for (int t = 0; t < terminals; t++) {
+                int terminal = t;
+                Thread thread = new Thread(null, () -> {
+                    try {
+                        if (mode.equals("protocol")) {
+                            runProtocol(port, terminal, accounts[terminal], operations, latencies, connected, start);
+                        } else {
+                            runTerminal(port, terminal, operations, latencies, connected, start);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        connected.countDown();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "terminal-" + t, 256 * 1024);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            connected.await();
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            elapsed = System.nanoTime() - begin;
+        }
+
+        long[] measured = Arrays.stream(latencies).filter(latency -> latency > 0).sorted().toArray();
+        System.out.printf("%s mode, %,d terminals, %,d operations, %d failed terminals%n",
+                          mode, terminals, measured.length, failures.get());
+        System.out.printf("Throughput: %,.0f operations/s%n", measured.length / (elapsed / 1e9));
+        if (measured.length > 0) {
+            System.out.printf("Latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                              percentile(measured, 50), percentile(measured, 90), percentile(measured, 99),
+                              percentile(measured, 99.9), measured[measured.length - 1] / 1e6);
+        }
+    }
+
+    private static void runTerminal(int port, int terminal, int operations, long[] latencies,
+                                    CountDownLatch connected, CountDownLatch start) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+
+            // One account, so the ATM goes straight to the main menu
+            send(out, "L" + terminal + "\n1234\n");
+            readUntil(in, MENU_PROMPT);
+            connected.countDown();
+            start.await();
+
+            for (int i = 0; i < operations; i++) {
+                long begin = System.nanoTime();
+                send(out, i % 2 == 0 ? "2\n1.00\n" : "3\n1.00\n");
+                readUntil(in, MENU_PROMPT);
+                latencies[terminal * operations + i] = System.nanoTime() - begin;
+            }
+            send(out, "7\n");
+        }
+    }
+
+    private static void runProtocol(int port, int terminal, String account, int operations, long[] latencies,
+                                    CountDownLatch connected, CountDownLatch start) throws Exception {
+        try (AtmClient client = AtmClient.loopback(port)) {
+            client.login("L" + terminal, "1234");
+            connected.countDown();
+            start.await();
+
+            for (int i = 0; i < operations; i++) {
+                long begin = System.nanoTime();
+                if (i % 2 == 0) {
+                    client.deposit(account, 100);
+                } else {
+                    client.withdraw(account, 100);
+                }
+                latencies[terminal * operations + i] = System.nanoTime() - begin;
+            }
+        }
+    }
+
+    private static void send(OutputStream out, String keys) throws IOException {
+        out.write(keys.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** Reads and discards the terminal output up to and including the marker. */
+    private static void readUntil(InputStream in, byte[] marker) throws IOException {
+        byte[] buffer = new byte[4096];
+        int matched = 0;
+        while (true) {
+            int read = in.read(buffer);
+            if (read < 0) {
+                throw new IOException("Session ended");
+            }
+            for (int i = 0; i < read; i++) {
+                // The marker has no repeated prefix, so a mismatch can restart at its first byte
+                matched = buffer[i] == marker[matched] ? matched + 1 : (buffer[i] == marker[0] ? 1 : 0);
+                if (matched == marker.length) {
+                    if (i != read - 1) {
+                        throw new IOException("Output after the menu prompt");
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double percent) {
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
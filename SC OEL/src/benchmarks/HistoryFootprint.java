@@ -0,0 +1,60 @@
+package benchmarks;
+
+import models.Bank;
+import models.BankAccount;
+import models.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the retained heap per history row: the columnar history an
+ * account keeps, against the same rows held as Transaction objects with
+ * their ID, timestamp and account number Strings rendered.
+ *
+ * Run with a fixed heap so GC has room, e.g.
+ * {@code java -Xms2g -Xmx2g -cp out benchmarks.HistoryFootprint 1000000}.
+ */
+public class HistoryFootprint {
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Bank bank = new Bank("Footprint");
+        bank.registerCustomer("F001", "Footprint", "0000");
+        BankAccount account = bank.createCheckingAccount("F001", 0);
+        BankAccount counterparty = bank.createCheckingAccount("F001", 0);
+
+        long before = usedHeap();
+        for (int i = 0; i < rows / 2; i++) {
+            account.deposit(100);
+            bank.transferFunds(account.getAccountNumber(), counterparty.getAccountNumber(), 50);
+        }
+        int recorded = account.getTransactionHistory().size() + counterparty.getTransactionHistory().size();
+        long columnar = usedHeap() - before;
+
+        // The object form: one Transaction plus its rendered fields per row
+        before = usedHeap();
+        List<Object[]> objects = new ArrayList<>(recorded);
+        for (BankAccount a : new BankAccount[] {account, counterparty}) {
+            for (Transaction txn : a.getTransactionHistory()) {
+                objects.add(new Object[] {txn, txn.getTransactionId(), txn.getTimestamp(),
+                    txn.getSourceAccountNumber(), txn.getDestinationAccountNumber()});
+            }
+        }
+        long materialized = usedHeap() - before;
+
+        System.out.printf("Rows:              %,d%n", recorded);
+        System.out.printf("Columnar history:  %.1f bytes/row%n", (double) columnar / recorded);
+        System.out.printf("Transaction objects with rendered fields: %.1f bytes/row%n",
+            (double) materialized / objects.size());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
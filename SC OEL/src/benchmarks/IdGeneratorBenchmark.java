@@ -0,0 +1,73 @@
+package benchmarks;
+
+import models.IdGenerator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Throughput of IdGenerator against a single shared AtomicLong as the
+ * number of threads grows. Each round runs every thread for the same
+ * number of IDs; the best of several rounds is reported.
+ *
+ * {@code java -cp out benchmarks.IdGeneratorBenchmark [idsPerThread] [maxThreads]}
+ */
+public class IdGeneratorBenchmark {
+    private static final int ROUNDS = 5;
+
+    // Keeps the JIT from dropping the generated IDs
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int idsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %18s %18s %18s%n", "Threads", "AtomicLong Mops/s",
+                          "IdGenerator Mops/s", "per thread Mops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            AtomicLong counter = new AtomicLong();
+            IdGenerator generator = new IdGenerator(1, 64, 1 << 16);
+            double shared = best(threads, idsPerThread, counter::incrementAndGet);
+            double blocked = best(threads, idsPerThread, generator::next);
+            System.out.printf("%-8d %18.1f %18.1f %18.1f%n", threads, shared, blocked, blocked / threads);
+        }
+    }
+
+    private static double best(int threads, int idsPerThread, LongSupplier ids) throws Exception {
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            best = Math.max(best, run(threads, idsPerThread, ids));
+        }
+        return best;
+    }
+
+    /** Returns millions of IDs per second over all threads. */
+    private static double run(int threads, int idsPerThread, LongSupplier ids) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long last = 0;
+                for (int i = 0; i < idsPerThread; i++) {
+                    last = ids.getAsLong();
+                }
+                sink = last;
+                done.countDown();
+            });
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * idsPerThread / elapsed * 1000;
+    }
+}
@@ -0,0 +1,359 @@
+package benchmarks;
+
+import enums.TransactionStatus;
+import models.Bank;
+import models.BankAccount;
+import models.Customer;
+import models.HistoryQuery;
+import models.MillisClock;
+import models.Money;
+import models.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a bank at scale with a synthetic, reproducible workload.
+ *
+ * It first opens the customers and accounts: most customers have a
+ * checking account, many a savings account, a few a second checking
+ * account, with balances spread over a wide range. Then each thread runs
+ * its own seeded stream of operations picked from the mix: logins (a few
+ * with a wrong PIN), deposits, withdrawals, transfers between a
+ * customer's own accounts and to other customers, and history views.
+ * A thread's stream depends only on the seed and the thread number; only
+ * the interleaving of threads varies between runs.
+ *
+ * Reports throughput, latency percentiles per operation, postings by
+ * TransactionStatus, and used heap over time. Settings are system
+ * properties:
+ * <pre>
+ * sim.customers       customers to open (10000)
+ * sim.threads         threads driving the bank (4)
+ * sim.operations      operations per thread (200000)
+ * sim.seed            random seed (42)
+ * sim.mix             weights login,deposit,withdraw,own,cross,history (10,25,25,10,20,10)
+ * sim.wrongPinPercent share of logins with a wrong PIN (1)
+ * sim.sampleMillis    heap sampling interval (500)
+ * </pre>
+ * e.g. {@code java -Dsim.customers=100000 -Dsim.threads=8 -cp out benchmarks.LoadSimulator}
+ */
+public class LoadSimulator {
+    private static final String[] OPERATIONS = {"login", "deposit", "withdraw", "own transfer",
+                                                "cross transfer", "history"};
+    private static final int LOGIN = 0;
+    private static final int DEPOSIT = 1;
+    private static final int WITHDRAW = 2;
+    private static final int OWN_TRANSFER = 3;
+    private static final int CROSS_TRANSFER = 4;
+    private static final int HISTORY = 5;
+
+    private final int customerCount = Integer.getInteger("sim.customers", 10_000);
+    private final int threads = Integer.getInteger("sim.threads", 4);
+    private final int operationsPerThread = Integer.getInteger("sim.operations", 200_000);
+    private final long seed = Long.getLong("sim.seed", 42);
+    private final int wrongPinPercent = Integer.getInteger("sim.wrongPinPercent", 1);
+    private final long sampleMillis = Long.getLong("sim.sampleMillis", 500);
+    private final int[] cumulativeMix = cumulative(System.getProperty("sim.mix", "10,25,25,10,20,10"));
+
+    private final Bank bank = new Bank("Simulated Bank");
+    private final ArrayList<Customer> customers = new ArrayList<>();
+    private final ArrayList<String> accountNumbers = new ArrayList<>();
+    private final LongAdder completed = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        new LoadSimulator().run();
+    }
+
+    private void run() throws Exception {
+        long openStart = System.nanoTime();
+        populate();
+        System.out.printf("Opened %,d customers and %,d accounts in %.1f s%n", customers.size(),
+                          accountNumbers.size(), (System.nanoTime() - openStart) / 1e9);
+
+        Driver[] drivers = new Driver[threads];
+        Thread[] workers = new Thread[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            drivers[t] = new Driver(new SplittableRandom(seed * 31 + t));
+            Driver driver = drivers[t];
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    driver.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "sim-" + t);
+            workers[t].start();
+        }
+
+        long runStartMillis = MillisClock.now();  // The clock postings are stamped with
+        List<String> timeline = new ArrayList<>();
+        long begin = System.nanoTime();
+        start.countDown();
+        long lastCompleted = 0;
+        long lastSample = begin;
+        while (anyAlive(workers)) {
+            for (Thread worker : workers) {
+                worker.join(sampleMillis);
+                if (System.nanoTime() - lastSample >= sampleMillis * 1_000_000) {
+                    break;
+                }
+            }
+            long now = System.nanoTime();
+            long done = completed.sum();
+            timeline.add(String.format("%8.1f %14.0f %12.1f", (now - begin) / 1e9,
+                                       (done - lastCompleted) / ((now - lastSample) / 1e9), usedHeapMegabytes()));
+            lastCompleted = done;
+            lastSample = now;
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        report(drivers, seconds, timeline, runStartMillis);
+    }
+
+    private void populate() throws Exception {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < customerCount; i++) {
+            String customerId = "S" + i;
+            customers.add(bank.registerCustomer(customerId, "Customer " + i, pinOf(i)));
+            boolean checking = random.nextInt(100) < 80;
+            boolean savings = !checking || random.nextInt(100) < 50;
+            if (checking) {
+                accountNumbers.add(bank.createCheckingAccount(customerId, dollars(random, 0, 5_000))
+                                       .getAccountNumber());
+            }
+            if (savings) {
+                accountNumbers.add(bank.createSavingsAccount(customerId, dollars(random, 500, 50_000))
+                                       .getAccountNumber());
+            }
+            if (random.nextInt(100) < 10) {
+                accountNumbers.add(bank.createCheckingAccount(customerId, dollars(random, 0, 2_000))
+                                       .getAccountNumber());
+            }
+        }
+    }
+
+    /** One thread's operations and their latencies. */
+    private final class Driver {
+        private final SplittableRandom random;
+        private final long[][] latencies = new long[OPERATIONS.length][];
+        private final int[] counts = new int[OPERATIONS.length];
+        private final int[] failures = new int[OPERATIONS.length];
+
+        Driver(SplittableRandom random) {
+            this.random = random;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                latencies[i] = new long[1024];
+            }
+        }
+
+        void run() {
+            for (int i = 0; i < operationsPerThread; i++) {
+                int customerIndex = random.nextInt(customers.size());
+                Customer customer = customers.get(customerIndex);
+                List<BankAccount> accounts = customer.getAccounts();
+                BankAccount account = accounts.get(random.nextInt(accounts.size()));
+                int operation = pick(random.nextInt(cumulativeMix[cumulativeMix.length - 1]));
+                if (operation == OWN_TRANSFER && accounts.size() < 2) {
+                    operation = DEPOSIT;
+                }
+
+                long begin = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = execute(operation, customerIndex, accounts, account);
+                } catch (Exception e) {
+                    ok = false;
+                }
+                record(operation, System.nanoTime() - begin, ok);
+                completed.increment();
+            }
+        }
+
+        private boolean execute(int operation, int customerIndex, List<BankAccount> accounts, BankAccount account)
+                throws Exception {
+            switch (operation) {
+                case LOGIN: {
+                    boolean wrongPin = random.nextInt(100) < wrongPinPercent;
+                    String customerId = customers.get(customerIndex).getCustomerId();
+                    return bank.authenticateCustomer(customerId, wrongPin ? "0000" : pinOf(customerIndex)) != null;
+                }
+                case DEPOSIT:
+                    account.postDeposit(dollars(random, 1, 500));
+                    return true;
+                case WITHDRAW:
+                    account.postWithdrawal(dollars(random, 1, 300));
+                    return true;
+                case OWN_TRANSFER: {
+                    BankAccount destination = accounts.get(random.nextInt(accounts.size()));
+                    if (destination == account) {
+                        destination = accounts.get((accounts.indexOf(account) + 1) % accounts.size());
+                    }
+                    bank.transferFunds(account.getAccountNumber(), destination.getAccountNumber(),
+                                       dollars(random, 1, 1_000));
+                    return true;
+                }
+                case CROSS_TRANSFER: {
+                    String destination = accountNumbers.get(random.nextInt(accountNumbers.size()));
+                    if (destination.equals(account.getAccountNumber())) {
+                        return true;
+                    }
+                    bank.transferFunds(account.getAccountNumber(), destination, dollars(random, 1, 1_000));
+                    return true;
+                }
+                default:
+                    return !account.queryHistory(new HistoryQuery().newestFirst().limit(10))
+                                   .getTransactions().isEmpty();
+            }
+        }
+
+        private void record(int operation, long nanos, boolean ok) {
+            int count = counts[operation];
+            if (count == latencies[operation].length) {
+                latencies[operation] = Arrays.copyOf(latencies[operation], count * 2);
+            }
+            latencies[operation][count] = nanos;
+            counts[operation] = count + 1;
+            if (!ok) {
+                failures[operation]++;
+            }
+        }
+    }
+
+    private void report(Driver[] drivers, double seconds, List<String> timeline, long runStartMillis) {
+        long total = completed.sum();
+        System.out.printf("%n%,d operations on %d threads in %.1f s: %,.0f operations/s%n",
+                          total, threads, seconds, total / seconds);
+
+        System.out.printf("%n%-15s %10s %8s %9s %9s %9s %9s %9s%n", "Operation", "count", "failed",
+                          "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        long[] all = new long[0];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            int count = 0;
+            int failed = 0;
+            for (Driver driver : drivers) {
+                count += driver.counts[op];
+                failed += driver.failures[op];
+            }
+            long[] merged = new long[count];
+            int at = 0;
+            for (Driver driver : drivers) {
+                System.arraycopy(driver.latencies[op], 0, merged, at, driver.counts[op]);
+                at += driver.counts[op];
+            }
+            Arrays.sort(merged);
+            printLatencies(OPERATIONS[op], merged, failed);
+            all = merge(all, merged);
+        }
+        printLatencies("all", all, -1);
+
+        // Postings made during the run, read back from the histories
+        EnumMap<TransactionStatus, Long> byStatus = new EnumMap<>(TransactionStatus.class);
+        long postings = 0;
+        for (String accountNumber : accountNumbers) {
+            BankAccount account = bank.getAccount(accountNumber);
+            for (Transaction txn : (Iterable<Transaction>) account.streamHistory(
+                    new HistoryQuery().between(runStartMillis, Long.MAX_VALUE))::iterator) {
+                byStatus.merge(txn.getStatus(), 1L, Long::sum);
+                postings++;
+            }
+        }
+        System.out.printf("%n%-34s %12s %8s%n", "Posting status", "count", "share");
+        for (Map.Entry<TransactionStatus, Long> entry : byStatus.entrySet()) {
+            System.out.printf("%-34s %,12d %7.2f%%%n", entry.getKey(), entry.getValue(),
+                              100.0 * entry.getValue() / Math.max(1, postings));
+        }
+
+        System.out.printf("%n%8s %14s %12s%n", "seconds", "operations/s", "used heap MB");
+        timeline.forEach(System.out::println);
+        System.out.printf("Total balance: $%s%n", Money.format(bank.getStatistics().getTotalBalance()));
+    }
+
+    private static void printLatencies(String name, long[] sorted, int failed) {
+        if (sorted.length == 0) {
+            return;
+        }
+        System.out.printf("%-15s %,10d %8s %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, sorted.length,
+                          failed < 0 ? "" : String.format("%,d", failed), percentile(sorted, 50),
+                          percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                          sorted[sorted.length - 1] / 1e3);
+    }
+
+    private static double percentile(long[] sorted, double percent) {
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e3;
+    }
+
+    private static long[] merge(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < a.length && j < b.length) {
+            merged[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+        }
+        while (i < a.length) {
+            merged[k++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[k++] = b[j++];
+        }
+        return merged;
+    }
+
+    private int pick(int roll) {
+        int operation = 0;
+        while (roll >= cumulativeMix[operation]) {
+            operation++;
+        }
+        return operation;
+    }
+
+    private static int[] cumulative(String mix) {
+        String[] weights = mix.split(",");
+        if (weights.length != OPERATIONS.length) {
+            throw new IllegalArgumentException("sim.mix needs " + OPERATIONS.length + " weights: " + mix);
+        }
+        int[] cumulative = new int[weights.length];
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += Integer.parseInt(weights[i].trim());
+            cumulative[i] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("sim.mix weights must add up to more than 0: " + mix);
+        }
+        return cumulative;
+    }
+
+    private static String pinOf(int customerIndex) {
+        return String.format("%04d", 1000 + customerIndex % 9000);
+    }
+
+    /** A whole-cent amount between the two dollar figures. */
+    private static long dollars(SplittableRandom random, long from, long to) {
+        return Money.dollars(from) + random.nextLong((to - from) * Money.CENTS_PER_DOLLAR + 1);
+    }
+
+    private static boolean anyAlive(Thread[] workers) {
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double usedHeapMegabytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) / (double) (1 << 20);
+    }
+}
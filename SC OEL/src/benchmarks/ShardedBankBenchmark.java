@@ -0,0 +1,108 @@
+package benchmarks;
+
+import models.BankAccount;
+import models.ShardedBank;
+import models.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transfer throughput of a ShardedBank as the number of shards grows. Each
+ * shard gets the same accounts and runs the same number of transfers on
+ * its own executor; a given percentage of them go to an account on another
+ * shard. Scaling needs at least as many cores as shards.
+ *
+ * {@code java -cp out benchmarks.ShardedBankBenchmark [transfersPerShard] [maxShards] [crossShardPercent]}
+ */
+public class ShardedBankBenchmark {
+    private static final int ACCOUNTS_PER_SHARD = 1_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int transfersPerShard = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int maxShards = args.length > 1 ? Integer.parseInt(args[1])
+                                        : Runtime.getRuntime().availableProcessors();
+        int crossShardPercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.printf("%-8s %16s %20s%n", "Shards", "transfers/s", "per shard transfers/s");
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            double best = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                best = Math.max(best, run(shards, transfersPerShard, crossShardPercent));
+            }
+            System.out.printf("%-8d %,16.0f %,20.0f%n", shards, best, best / shards);
+        }
+    }
+
+    private static double run(int shards, int transfersPerShard, int crossShardPercent) throws Exception {
+        try (ShardedBank bank = new ShardedBank("Benchmark", shards, 1)) {
+            // Customer IDs are picked so that every shard gets the same number of accounts
+            List<List<String>> accounts = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                accounts.add(new ArrayList<>());
+            }
+            for (int c = 0; accounts.stream().anyMatch(list -> list.size() < ACCOUNTS_PER_SHARD); c++) {
+                String customerId = "B" + c;
+                List<String> owned = accounts.get(bank.shardOfCustomer(customerId));
+                if (owned.size() < ACCOUNTS_PER_SHARD) {
+                    bank.registerCustomer(customerId, "Benchmark", "0000");
+                    owned.add(bank.createCheckingAccount(customerId, 1_000_000_000L).getAccountNumber());
+                }
+            }
+
+            // Plans are made up front so the timed part only transfers
+            String[][][] plans = new String[shards][transfersPerShard][];
+            SplittableRandom random = new SplittableRandom(42);
+            for (int shard = 0; shard < shards; shard++) {
+                List<String> own = accounts.get(shard);
+                for (int i = 0; i < transfersPerShard; i++) {
+                    int destinationShard = shards > 1 && random.nextInt(100) < crossShardPercent
+                        ? (shard + 1 + random.nextInt(shards - 1)) % shards : shard;
+                    List<String> other = accounts.get(destinationShard);
+                    String source = own.get(random.nextInt(own.size()));
+                    String destination = other.get(random.nextInt(other.size()));
+                    if (destination.equals(source)) {
+                        destination = other.get((other.indexOf(source) + 1) % other.size());
+                    }
+                    plans[shard][i] = new String[] {source, destination};
+                }
+            }
+
+            long totalBefore = total(bank);
+            CompletableFuture<?>[] done = new CompletableFuture<?>[shards];
+            long begin = System.nanoTime();
+            for (int shard = 0; shard < shards; shard++) {
+                String[][] plan = plans[shard];
+                done[shard] = bank.submitToShard(shard, () -> {
+                    for (String[] transfer : plan) {
+                        bank.transferFunds(transfer[0], transfer[1], 100);
+                    }
+                    return null;
+                });
+            }
+            CompletableFuture.allOf(done).join();
+            long elapsed = System.nanoTime() - begin;
+
+            // Checking accounts charge a fee past their free allowance, so compare net of fees
+            long fees = 0;
+            for (BankAccount account : bank.getAllAccounts()) {
+                fees += account.getTransactionHistory().stream().mapToLong(Transaction::getFee).sum();
+            }
+            if (total(bank) + fees != totalBefore) {
+                throw new IllegalStateException("Funds not conserved across shards");
+            }
+            return (double) shards * transfersPerShard / elapsed * 1_000_000_000L;
+        }
+    }
+
+    private static long total(ShardedBank bank) {
+        long total = 0;
+        for (BankAccount account : bank.getAllAccounts()) {
+            total += account.getBalance();
+        }
+        return total;
+    }
+}
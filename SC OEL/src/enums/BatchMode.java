@@ -0,0 +1,6 @@
+package enums;
+
+public enum BatchMode {
+    ALL_OR_NOTHING,  // Any failed item rejects the whole batch
+    BEST_EFFORT      // Failed items are skipped, the rest are applied
+}
@@ -0,0 +1,6 @@
+package enums;
+
+public enum ExecutionMode {
+    LOCKING,  // Callers apply postings themselves, taking account locks for transfers
+    PIPELINE  // Postings are queued to the thread that owns the account's partition
+}
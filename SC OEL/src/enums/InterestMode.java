@@ -0,0 +1,6 @@
+package enums;
+
+public enum InterestMode {
+    CLOSING_BALANCE,  // Each run pays on the balance at the time of the run
+    DAILY_ACCRUAL     // Each run closes a period and pays on its time-weighted average balance
+}
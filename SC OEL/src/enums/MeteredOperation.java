@@ -0,0 +1,8 @@
+package enums;
+
+public enum MeteredOperation {
+    LOGIN,
+    DEPOSIT,
+    WITHDRAWAL,
+    TRANSFER
+}
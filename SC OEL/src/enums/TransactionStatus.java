@@ -6,5 +6,9 @@ public enum TransactionStatus {
     FAILED_INVALID_ACCOUNT,
     FAILED_MINIMUM_BALANCE_VIOLATION,
     FAILED_OVERDRAFT_EXCEEDED,
-    FAILED_ACCOUNT_BLOCKED
+    FAILED_ACCOUNT_BLOCKED,
+    FAILED_INVALID_AMOUNT,
+    FAILED_BATCH_REJECTED,  // Valid item of an all-or-nothing batch that failed elsewhere
+    FAILED_INVALID_PIN,     // Login of a known customer with a wrong PIN; never a posting
+    FAILED_SAME_ACCOUNT     // Transfer to its own source account; never a posting
 }
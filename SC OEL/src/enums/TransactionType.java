@@ -4,5 +4,19 @@ public enum TransactionType {
     DEPOSIT,
     WITHDRAWAL,
     TRANSFER_IN,
-    TRANSFER_OUT
+    TRANSFER_OUT,
+    REFUND;  // Pays back the debit of a transfer whose credit failed; not a new posting for fee counts
+
+    /** Whether the posting adds its amount to the account's balance. */
+    public boolean isCredit() {
+        return this == DEPOSIT || this == TRANSFER_IN || this == REFUND;
+    }
+
+    /**
+     * Whether the money comes from the counterparty, so the posting's
+     * account is its destination rather than its source.
+     */
+    public boolean isFromCounterparty() {
+        return this == TRANSFER_IN || this == REFUND;
+    }
 }
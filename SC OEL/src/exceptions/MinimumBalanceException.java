@@ -1,7 +1,38 @@
 package exceptions;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.function.Supplier;
+
 public class MinimumBalanceException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    // Built on first read; a serialized copy carries the text, not the supplier
+    private transient Supplier<String> message;
+    private String text;
+
     public MinimumBalanceException(String message) {
         super(message);
+        this.message = null;
+    }
+
+    /**
+     * The message is only built if something reads it.
+     */
+    public MinimumBalanceException(Supplier<String> message) {
+        this.message = message;
+    }
+
+    @Override
+    public String getMessage() {
+        if (text == null && message != null) {
+            text = message.get();
+        }
+        return text != null ? text : super.getMessage();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getMessage();
+        out.defaultWriteObject();
     }
 }
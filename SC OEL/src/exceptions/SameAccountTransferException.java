@@ -0,0 +1,14 @@
+package exceptions;
+
+/**
+ * A transfer whose source and destination are the same account. Still an
+ * IllegalArgumentException, as the request itself is malformed, but told
+ * apart from an invalid amount.
+ */
+public class SameAccountTransferException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    public SameAccountTransferException() {
+        super("Cannot transfer to the same account.");
+    }
+}
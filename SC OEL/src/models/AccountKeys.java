@@ -0,0 +1,98 @@
+package models;
+
+/**
+ * Packs account numbers such as "SAV10001" into a {@code long}: the three
+ * prefix letters take 5 bits each above a 48-bit account number. Zero
+ * means "no account", so keys fit in primitive columns without a sentinel
+ * object.
+ */
+public final class AccountKeys {
+    public static final long NONE = 0;
+
+    private static final int NUMBER_BITS = 48;
+    private static final long NUMBER_MASK = (1L << NUMBER_BITS) - 1;
+    private static final int PREFIX_LENGTH = 3;
+    private static final long INVALID = -1;
+
+    private AccountKeys() {
+    }
+
+    /**
+     * Encodes an account number, or returns NONE for null.
+     */
+    public static long encode(String accountNumber) {
+        if (accountNumber == null) {
+            return NONE;
+        }
+        long key = parse(accountNumber);
+        if (key == INVALID) {
+            throw new IllegalArgumentException("Not an account number: " + accountNumber);
+        }
+        return key;
+    }
+
+    /**
+     * Encodes an account number, or returns NONE for null or anything that
+     * is not an account number, such as a mistyped transfer destination.
+     */
+    public static long encodeOrNone(String accountNumber) {
+        if (accountNumber == null) {
+            return NONE;
+        }
+        long key = parse(accountNumber);
+        return key == INVALID ? NONE : key;
+    }
+
+    public static boolean isAccountNumber(String accountNumber) {
+        return accountNumber != null && parse(accountNumber) != INVALID;
+    }
+
+    // Keys use at most 63 bits, so a negative value cannot be a key.
+    private static long parse(String accountNumber) {
+        int length = accountNumber.length();
+        if (length <= PREFIX_LENGTH || length > PREFIX_LENGTH + 15
+                || (accountNumber.charAt(PREFIX_LENGTH) == '0' && length > PREFIX_LENGTH + 1)) {
+            return INVALID;
+        }
+
+        long key = 0;
+        for (int i = 0; i < PREFIX_LENGTH; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return INVALID;
+            }
+            key = (key << 5) | (c - 'A' + 1);
+        }
+
+        long number = 0;
+        for (int i = PREFIX_LENGTH; i < length; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            number = number * 10 + (c - '0');
+        }
+        if (number > NUMBER_MASK) {
+            return INVALID;
+        }
+        return (key << NUMBER_BITS) | number;
+    }
+
+    /**
+     * Decodes a key produced by {@link #encode}, or returns null for NONE.
+     */
+    public static String decode(long key) {
+        if (key == NONE) {
+            return null;
+        }
+        return appendTo(new StringBuilder(PREFIX_LENGTH + 8), key).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder sb, long key) {
+        long prefix = key >>> NUMBER_BITS;
+        for (int shift = 5 * (PREFIX_LENGTH - 1); shift >= 0; shift -= 5) {
+            sb.append((char) ('A' - 1 + ((prefix >>> shift) & 0x1f)));
+        }
+        return sb.append(key & NUMBER_MASK);
+    }
+}
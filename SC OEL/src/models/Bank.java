@@ -1,76 +1,318 @@
 package models;
 
 import enums.AccountStatus;
+import enums.BatchMode;
+import enums.InterestMode;
+import enums.MeteredOperation;
 import enums.TransactionType;
 import enums.TransactionStatus;
 import exceptions.AccountBlockedException;
-import exceptions.InsufficientFundsException;
 import exceptions.InvalidAccountException;
-import exceptions.MinimumBalanceException;
+import exceptions.SameAccountTransferException;
 
-import java.util.HashMap;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
 
 
 public class Bank {
     private String bankName;
-    private HashMap<String, Customer> customers;  // Key: customerId
-    private HashMap<String, BankAccount> accounts;  // Key: accountNumber
-    private static int accountNumberCounter = 10000;
+    private ConcurrentHashMap<String, Customer> customers;  // Key: customerId
+    private ConcurrentHashMap<String, BankAccount> accounts;  // Key: accountNumber
+    // Shared by all banks, so account numbers are unique across them
+    private static final IdGenerator accountNumbers = new IdGenerator(10001, 16, 0);
+    private static final int MAX_SETTLE_ATTEMPTS = 8;
+    
+    /**
+     * How a bank pays interest unless told otherwise: on the time-weighted
+     * average balance of each period, so a deposit made just before a run
+     * does not earn a full period.
+     */
+    public static final InterestMode DEFAULT_INTEREST_MODE = InterestMode.DAILY_ACCRUAL;
+    
+    private volatile BankEventListener listener = BankEventListener.NONE;
+    private volatile TransactionHistoryStore historyStore = TransactionHistoryStore.HEAP;
+    private final InterestPeriods interestPeriods = new InterestPeriods();
+    private final BillingCycles billingCycles = new BillingCycles();
+    private final BankStatistics statistics = new BankStatistics();
+    private final BankMetrics metrics = new BankMetrics();
+    private final TransactionIndex transactionIndex = new TransactionIndex(() -> historyStore.newRefList());
+    private volatile InterestMode interestMode = DEFAULT_INTEREST_MODE;
+    private final LongSupplier accountNumberSource;
+    // Transfers to another shard debited here and not yet resolved, by transaction number
+    private final ConcurrentHashMap<Long, Transaction> preparedTransfers = new ConcurrentHashMap<>();
     
     public Bank(String bankName) {
+        this(bankName, accountNumbers::next);
+    }
+    
+    /**
+     * A bank that takes account numbers from its own source, e.g. the
+     * range of one shard of a {@link ShardedBank}.
+     */
+    Bank(String bankName, LongSupplier accountNumberSource) {
         this.bankName = bankName;
-        this.customers = new HashMap<>();
-        this.accounts = new HashMap<>();
+        this.customers = new ConcurrentHashMap<>();
+        this.accounts = new ConcurrentHashMap<>();
+        this.accountNumberSource = accountNumberSource;
     }
     
     public String getBankName() {
         return bankName;
     }
     
+    /**
+     * The last account number handed out; account numbers are unique across banks.
+     */
+    public static long getAccountNumberCounter() {
+        return accountNumbers.getLastIssued();
+    }
+    
+    /**
+     * Makes account numbers handed out from now on greater than the given value.
+     */
+    public static void advanceAccountNumberCounter(long value) {
+        accountNumbers.advance(value);
+    }
+    
+    /**
+     * Attaches a listener, e.g. the journal, to the bank and all its accounts.
+     */
+    public void setEventListener(BankEventListener listener) {
+        this.listener = listener;
+        Transaction.setIdLeaseListener(listener::transactionIdsLeased);
+        for (BankAccount account : accounts.values()) {
+            account.setEventListener(listener);
+        }
+    }
+    
+    BankEventListener getEventListener() {
+        return listener;
+    }
+    
+    /**
+     * Sets where accounts opened from now on keep their transaction history.
+     */
+    public void setHistoryStore(TransactionHistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+    
+    public InterestPeriods getInterestPeriods() {
+        return interestPeriods;
+    }
+    
+    /**
+     * TRANSFER_OUT postings of cross-shard transfers that are still in
+     * doubt, as left by the journal or a failed resolution.
+     */
+    public List<Transaction> getPreparedTransfers() {
+        return new ArrayList<>(preparedTransfers.values());
+    }
+    
+    /**
+     * Marks a cross-shard transfer as prepared, e.g. while replaying the
+     * journal. The debit itself is restored as a posting.
+     */
+    public void restorePreparedTransfer(Transaction transferOut) {
+        preparedTransfers.put(transferOut.getSequence(), transferOut);
+    }
+    
+    /**
+     * Forgets a prepared transfer once it is committed or refunded.
+     */
+    public void resolvePreparedTransfer(long sequence) {
+        preparedTransfers.remove(sequence);
+    }
+    
+    /**
+     * Running totals for the admin portal, maintained as the bank changes.
+     */
+    public BankStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Latency and outcome of every login, deposit, withdrawal and transfer.
+     */
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Postings of all accounts by counterparty, status and type, for
+     * investigations that would otherwise scan every history.
+     */
+    public TransactionIndex getTransactionIndex() {
+        return transactionIndex;
+    }
+    
+    /**
+     * The transfers between two accounts in both directions, oldest first.
+     */
+    public List<Transaction> findTransfersBetween(String accountNumber, String otherAccountNumber) {
+        return transactionIndex.findByCounterparty(accountNumber, otherAccountNumber);
+    }
+    
+    /**
+     * Postings of all accounts with the status on the given day, oldest first.
+     */
+    public List<Transaction> findTransactions(TransactionStatus status, LocalDate day) {
+        return transactionIndex.findByStatus(status, day);
+    }
+    
+    /**
+     * Postings of all accounts of the type on the given day, oldest first.
+     */
+    public List<Transaction> findTransactions(TransactionType type, LocalDate day) {
+        return transactionIndex.findByType(type, day);
+    }
+    
+    /**
+     * Ends the open interest period and journals the end, so a restart
+     * recovers the same periods. Returns the index of the closed period.
+     */
+    public int closeInterestPeriod() {
+        synchronized (interestPeriods) {
+            long end = interestPeriods.nextEnd();
+            listener.interestPeriodClosed(interestPeriods.current(), end);
+            return interestPeriods.close(end);
+        }
+    }
+    
+    public BillingCycles getBillingCycles() {
+        return billingCycles;
+    }
+    
+    public InterestMode getInterestMode() {
+        return interestMode;
+    }
+    
+    /**
+     * Chooses how {@link InterestEngine} runs pay interest.
+     */
+    public void setInterestMode(InterestMode interestMode) {
+        this.interestMode = interestMode;
+    }
+    
     public Customer registerCustomer(String customerId, String name, String pin) {
-        if (customers.containsKey(customerId)) {
-            System.out.println("Customer with ID " + customerId + " already exists.");
-            return null;
+        return addCustomer(customerId, name, PinHash.hash(pin));
+    }
+    
+    /**
+     * Re-registers a customer with the PIN hash recorded in the journal or
+     * a snapshot. Returns null if the customer already exists.
+     */
+    public Customer restoreCustomer(String customerId, String name, String pinHash) {
+        return addCustomer(customerId, name, pinHash);
+    }
+    
+    private Customer addCustomer(String customerId, String name, String pinHash) {
+        // Registration is rare; serializing it keeps journal order equal to publish order
+        synchronized (customers) {
+            if (customers.containsKey(customerId)) {
+                return null;
+            }
+            
+            Customer customer = new Customer(customerId, name, pinHash);
+            listener.customerRegistered(customer);
+            customer.setStatistics(statistics);
+            customers.put(customerId, customer);
+            return customer;
         }
-        
-        Customer customer = new Customer(customerId, name, pin);
-        customers.put(customerId, customer);
-        return customer;
     }
     
-    public SavingsAccount createSavingsAccount(String customerId, double initialBalance) 
+    public SavingsAccount createSavingsAccount(String customerId, long initialBalance) 
             throws Exception {
         Customer customer = customers.get(customerId);
         if (customer == null) {
             throw new InvalidAccountException("Customer not found: " + customerId);
         }
         
-        String accountNumber = "SAV" + (++accountNumberCounter);
-        SavingsAccount account = new SavingsAccount(accountNumber, customerId, initialBalance);
-        
-        customer.addAccount(account);
-        accounts.put(accountNumber, account);
+        String accountNumber = "SAV" + accountNumberSource.getAsLong();
+        SavingsAccount account = new SavingsAccount(accountNumber, customerId, initialBalance,
+            historyStore.historyFor(accountNumber));
         
+        // Durable before visible, so no posting can reach the journal ahead of it
+        listener.accountOpened(account, initialBalance);
+        openAccount(customer, account);
         return account;
     }
     
-    public CheckingAccount createCheckingAccount(String customerId, double initialBalance) 
+    public CheckingAccount createCheckingAccount(String customerId, long initialBalance) 
             throws Exception {
         Customer customer = customers.get(customerId);
         if (customer == null) {
             throw new InvalidAccountException("Customer not found: " + customerId);
         }
         
-        String accountNumber = "CHK" + (++accountNumberCounter);
-        CheckingAccount account = new CheckingAccount(accountNumber, customerId, initialBalance);
+        String accountNumber = "CHK" + accountNumberSource.getAsLong();
+        CheckingAccount account = new CheckingAccount(accountNumber, customerId, initialBalance,
+            historyStore.historyFor(accountNumber));
         
-        customer.addAccount(account);
-        accounts.put(accountNumber, account);
+        // Durable before visible, so no posting can reach the journal ahead of it
+        listener.accountOpened(account, initialBalance);
+        openAccount(customer, account);
+        return account;
+    }
+    
+    /**
+     * Re-creates an account under its original number while recovering from
+     * the journal or a snapshot. It starts with an empty history, which the
+     * caller restores as recorded. The account number counter is moved past it.
+     */
+    public BankAccount restoreAccount(String accountNumber, String customerId, long balance)
+            throws Exception {
+        return restore(accountNumber, customerId, balance, historyStore.historyFor(accountNumber));
+    }
+    
+    /**
+     * Re-creates an account like {@link #restoreAccount(String, String, long)}
+     * whose earlier postings are kept elsewhere, e.g. by a snapshot. They are
+     * read in place and postings from now on follow them in the bank's
+     * history store.
+     */
+    public BankAccount restoreAccount(String accountNumber, String customerId, long balance,
+                                      TransactionHistory restored) throws Exception {
+        return restore(accountNumber, customerId, balance,
+                       new RestoredTransactionHistory(restored, historyStore.historyFor(accountNumber)));
+    }
+    
+    private BankAccount restore(String accountNumber, String customerId, long balance,
+                                TransactionHistory history) throws Exception {
+        Customer customer = customers.get(customerId);
+        if (customer == null) {
+            throw new InvalidAccountException("Customer not found: " + customerId);
+        }
         
+        BankAccount account;
+        if (accountNumber.startsWith("SAV")) {
+            account = new SavingsAccount(accountNumber, customerId, balance, history, false);
+        } else if (accountNumber.startsWith("CHK")) {
+            account = new CheckingAccount(accountNumber, customerId, balance, history, false);
+        } else {
+            throw new InvalidAccountException("Unknown account type: " + accountNumber);
+        }
+        
+        advanceAccountNumberCounter(Long.parseLong(accountNumber.substring(3)));
+        openAccount(customer, account);
         return account;
     }
     
+    private void openAccount(Customer customer, BankAccount account) {
+        account.setEventListener(listener);
+        account.setInterestPeriods(interestPeriods);
+        account.setBillingCycles(billingCycles);
+        account.setStatistics(statistics);
+        account.setMetrics(metrics);
+        account.setTransactionIndex(transactionIndex);
+        customer.addAccount(account);
+        accounts.put(account.getAccountNumber(), account);
+    }
+    
     public Customer getCustomer(String customerId) {
         return customers.get(customerId);
     }
@@ -79,29 +321,87 @@ public class Bank {
         return accounts.get(accountNumber);
     }
     
+    /**
+     * Returns the customer, or null for an unknown customer or a wrong PIN.
+     * Throws AccountBlockedException, with the message for the ATM, if the
+     * customer is blocked, including by this attempt's wrong PIN.
+     */
     public Customer authenticateCustomer(String customerId, String pin) 
             throws AccountBlockedException {
+        long start = metrics.start();
+        LoginEvent event = FlightRecording.begin(LoginEvent::new);
         Customer customer = customers.get(customerId);
+        TransactionStatus outcome = authenticate(customer, pin);
+        metrics.record(MeteredOperation.LOGIN, start, outcome);
+        LoginEvent.finish(event, customerId, outcome.name());
+        
+        switch (outcome) {
+            case SUCCESS:
+                return customer;
+            case FAILED_ACCOUNT_BLOCKED:
+                throw new AccountBlockedException(
+                    "Your account has been blocked due to multiple failed login attempts. " +
+                    "Please contact bank administrator."
+                );
+            case FAILED_INVALID_PIN:
+                if (customer.getLoginStatus() == AccountStatus.BLOCKED) {
+                    throw new AccountBlockedException(Customer.BLOCKED_MESSAGE);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+    
+    private TransactionStatus authenticate(Customer customer, String pin) {
         if (customer == null) {
-            return null;
+            return TransactionStatus.FAILED_INVALID_ACCOUNT;
         }
-        
         if (customer.getLoginStatus() == AccountStatus.BLOCKED) {
-            throw new AccountBlockedException(
-                "Your account has been blocked due to multiple failed login attempts. " +
-                "Please contact bank administrator."
-            );
+            return TransactionStatus.FAILED_ACCOUNT_BLOCKED;
         }
-        
+        int failedBefore = customer.getFailedLoginAttempts();
         if (customer.validatePin(pin)) {
-            return customer;
+            if (failedBefore > 0) {
+                listener.failedLoginsChanged(customer.getCustomerId(), 0);
+            }
+            return TransactionStatus.SUCCESS;
         }
         
-        return null;
+        listener.failedLoginsChanged(customer.getCustomerId(), customer.getFailedLoginAttempts());
+        if (customer.getLoginStatus() == AccountStatus.BLOCKED) {
+            listener.customerBlocked(customer.getCustomerId());
+        }
+        return TransactionStatus.FAILED_INVALID_PIN;
     }
     
-    public void transferFunds(String sourceAccountNumber, String destinationAccountNumber, 
-                             double amount) throws Exception {
+    /**
+     * Moves funds between two accounts. Both account locks are taken in
+     * account number order so concurrent transfers cannot deadlock, and the
+     * debit and credit are applied as one unit. The amount is in cents.
+     * Returns the TRANSFER_OUT posting of the source account.
+     */
+    public Transaction transferFunds(String sourceAccountNumber, String destinationAccountNumber, 
+                                     long amount) throws Exception {
+        long start = metrics.start();
+        TransferEvent event = FlightRecording.begin(TransferEvent::new);
+        try {
+            Transaction transferOut = transfer(sourceAccountNumber, destinationAccountNumber, amount);
+            metrics.record(MeteredOperation.TRANSFER, start, transferOut.getStatus());
+            PostingEvent.finish(event, sourceAccountNumber, destinationAccountNumber, amount,
+                                transferOut.getFee(), transferOut.getStatus().name());
+            return transferOut;
+        } catch (Exception e) {
+            BankAccount sourceAccount = accounts.get(sourceAccountNumber);
+            metrics.recordFailure(MeteredOperation.TRANSFER, start, sourceAccount, e);
+            PostingEvent.finish(event, sourceAccountNumber, destinationAccountNumber, amount,
+                                0, BankMetrics.outcomeName(sourceAccount, e));
+            throw e;
+        }
+    }
+    
+    private Transaction transfer(String sourceAccountNumber, String destinationAccountNumber, 
+                                 long amount) throws Exception {
         if (amount <= 0) {
             throw new IllegalArgumentException("Transfer amount must be positive.");
         }
@@ -114,56 +414,287 @@ public class Bank {
         }
         
         if (destinationAccount == null) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.TRANSFER_OUT, amount, sourceAccountNumber, 
-                destinationAccountNumber, TransactionStatus.FAILED_INVALID_ACCOUNT, 
-                sourceAccount.getBalance()
-            );
-            sourceAccount.addTransaction(failedTxn);
+            sourceAccount.record(TransactionType.TRANSFER_OUT, amount, destinationAccountNumber,
+                                 TransactionStatus.FAILED_INVALID_ACCOUNT);
             throw new InvalidAccountException("Destination account not found: " + destinationAccountNumber);
         }
         
-        if (destinationAccount.getStatus() != AccountStatus.ACTIVE) {
-            throw new AccountBlockedException("Destination account is not active.");
+        if (sourceAccount == destinationAccount) {
+            throw new SameAccountTransferException();
         }
         
-        // Attempt withdrawal from source account
+        // Fixed global lock order prevents deadlock between opposing transfers
+        BankAccount first = sourceAccountNumber.compareTo(destinationAccountNumber) < 0
+                ? sourceAccount : destinationAccount;
+        BankAccount second = first == sourceAccount ? destinationAccount : sourceAccount;
+        
+        first.lock.lock();
+        second.lock.lock();
         try {
-            sourceAccount.withdraw(amount);
-            
-            // Remove the withdrawal transaction and replace with transfer transaction
-            ArrayList<Transaction> sourceHistory = sourceAccount.getTransactionHistory();
-            sourceHistory.remove(sourceHistory.size() - 1);
+            if (destinationAccount.getStatus() != AccountStatus.ACTIVE) {
+                throw new AccountBlockedException("Destination account is not active.");
+            }
             
-            // Add transfer-out transaction to source
-            Transaction transferOut = new Transaction(
-                TransactionType.TRANSFER_OUT, amount, sourceAccountNumber,
-                destinationAccountNumber, TransactionStatus.SUCCESS, 
-                sourceAccount.getBalance()
-            );
-            sourceAccount.addTransaction(transferOut);
-            
-            // Deposit to destination account
-            destinationAccount.deposit(amount);
-            
-            // Remove the deposit transaction and replace with transfer transaction
-            ArrayList<Transaction> destHistory = destinationAccount.getTransactionHistory();
-            destHistory.remove(destHistory.size() - 1);
+            // Failed debits are recorded as failed transfers by the account itself
+            Transaction transferOut = sourceAccount.debit(
+                amount, TransactionType.TRANSFER_OUT, destinationAccountNumber);
+            Transaction transferIn = destinationAccount.credit(
+                amount, TransactionType.TRANSFER_IN, sourceAccountNumber);
+            try {
+                listener.transferred(transferOut, transferIn);
+            } catch (RuntimeException e) {
+                sourceAccount.revert(transferOut);
+                destinationAccount.revert(transferIn);
+                throw e;
+            }
+            return transferOut;
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a file of transfers as one unit. Every item is validated up
+     * front, opposing flows between accounts are netted, and each account
+     * gets its net movement as a single balance update and history posting
+     * instead of one per item. The batch reference is recorded as the
+     * counterparty of those postings.
+     *
+     * In ALL_OR_NOTHING mode any invalid item, or any account whose final
+     * position would cross its floor, rejects the whole batch. In
+     * BEST_EFFORT mode items are accepted in file order while they keep
+     * every account above its floor; the rest are reported as failed.
+     */
+    public BatchResult transferBatch(TransferBatch batch, BatchMode mode) {
+        int items = batch.size();
+        BatchResult result = new BatchResult("BAT" + Transaction.nextSequence(), mode, items);
+        
+        // Resolve each distinct account once; items refer to positions
+        HashMap<String, Position> byNumber = new HashMap<>();
+        Position[] from = new Position[items];
+        Position[] to = new Position[items];
+        for (int i = 0; i < items; i++) {
+            from[i] = position(batch.getSourceAccountNumber(i), byNumber);
+            to[i] = position(batch.getDestinationAccountNumber(i), byNumber);
+        }
+        
+        Position[] positions = byNumber.values().toArray(new Position[0]);
+        Arrays.sort(positions, (a, b) -> a.account.getAccountNumber().compareTo(b.account.getAccountNumber()));
+        
+        // Same global order as transferFunds, so batches and transfers cannot deadlock
+        for (Position position : positions) {
+            position.account.lock.lock();
+        }
+        try {
+            for (int attempt = 0; attempt < MAX_SETTLE_ATTEMPTS; attempt++) {
+                int accepted = plan(batch, mode, from, to, positions, result);
+                if (accepted == 0) {
+                    return result;
+                }
+                // Single-account postings do not take the lock, so a debit can still lose a race
+                if (apply(positions)) {
+                    settle(positions, accepted, result);
+                    return result;
+                }
+            }
+            for (int i = 0; i < items; i++) {
+                if (result.getStatus(i) == TransactionStatus.SUCCESS) {
+                    result.setItem(i, TransactionStatus.FAILED_BATCH_REJECTED, 0);
+                }
+            }
+            result.setAccepted(0);
+            return result;
+        } finally {
+            for (int i = positions.length - 1; i >= 0; i--) {
+                positions[i].account.lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Running totals of one account while a batch is planned.
+     */
+    private static final class Position {
+        final BankAccount account;
+        long projected;
+        long net;
+        long fees;
+        int postings;
+        long balanceAfter;
+        
+        Position(BankAccount account) {
+            this.account = account;
+        }
+    }
+    
+    private Position position(String accountNumber, HashMap<String, Position> byNumber) {
+        BankAccount account = accountNumber == null ? null : accounts.get(accountNumber);
+        return account == null ? null : byNumber.computeIfAbsent(accountNumber, n -> new Position(account));
+    }
+    
+    /**
+     * Works out every item's status and each account's net movement from
+     * the current balances. Returns the number of accepted items.
+     */
+    private static int plan(TransferBatch batch, BatchMode mode, Position[] from, Position[] to,
+                            Position[] positions, BatchResult result) {
+        for (Position position : positions) {
+            position.projected = position.account.getBalance();
+            position.net = 0;
+            position.fees = 0;
+            position.postings = 0;
+        }
+        
+        int accepted = 0;
+        boolean rejected = false;
+        for (int i = 0; i < batch.size(); i++) {
+            long amount = batch.getAmount(i);
+            Position source = from[i];
+            Position destination = to[i];
+            TransactionStatus status = TransactionStatus.SUCCESS;
+            long fee = 0;
             
-            // Add transfer-in transaction to destination
-            Transaction transferIn = new Transaction(
-                TransactionType.TRANSFER_IN, amount, sourceAccountNumber,
-                destinationAccountNumber, TransactionStatus.SUCCESS, 
-                destinationAccount.getBalance()
-            );
-            destinationAccount.addTransaction(transferIn);
+            if (amount <= 0) {
+                status = TransactionStatus.FAILED_INVALID_AMOUNT;
+            } else if (source == null || destination == null || source == destination) {
+                status = TransactionStatus.FAILED_INVALID_ACCOUNT;
+            } else if (source.account.getStatus() != AccountStatus.ACTIVE
+                       || destination.account.getStatus() != AccountStatus.ACTIVE) {
+                status = TransactionStatus.FAILED_ACCOUNT_BLOCKED;
+            } else {
+                fee = source.account.batchDebitFee(source.postings, source.projected - amount);
+                // All-or-nothing batches are netted, so only final positions are checked
+                if (mode == BatchMode.BEST_EFFORT
+                        && source.projected - amount - fee < source.account.balanceFloor()) {
+                    status = source.account.debitFailure(source.projected, amount);
+                    fee = 0;
+                }
+            }
             
-        } catch (InsufficientFundsException | MinimumBalanceException e) {
-            // Transaction already recorded as failed in the withdraw method
+            result.setItem(i, status, fee);
+            if (status != TransactionStatus.SUCCESS) {
+                rejected = true;
+                continue;
+            }
+            source.projected -= amount + fee;
+            source.net -= amount;
+            source.fees += fee;
+            source.postings++;
+            destination.projected += amount;
+            destination.net += amount;
+            destination.postings++;
+            accepted++;
+        }
+        
+        if (mode == BatchMode.ALL_OR_NOTHING) {
+            for (Position position : positions) {
+                if (position.net - position.fees < 0 && position.projected < position.account.balanceFloor()) {
+                    rejected = true;
+                    markFloorViolations(batch, from, position, result);
+                }
+            }
+            if (rejected) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (result.getStatus(i) == TransactionStatus.SUCCESS) {
+                        result.setItem(i, TransactionStatus.FAILED_BATCH_REJECTED, 0);
+                    }
+                }
+                accepted = 0;
+            }
+        }
+        result.setAccepted(accepted);
+        return accepted;
+    }
+    
+    private static void markFloorViolations(TransferBatch batch, Position[] from, Position position,
+                                            BatchResult result) {
+        long available = position.account.getBalance();
+        for (int i = 0; i < batch.size(); i++) {
+            if (from[i] == position && result.getStatus(i) == TransactionStatus.SUCCESS) {
+                result.setItem(i, position.account.debitFailure(available, batch.getAmount(i)), 0);
+            }
+        }
+    }
+    
+    /**
+     * Applies each account's net movement once: debits first, each checked
+     * against its floor, then credits. Undoes the debits and returns false
+     * if a concurrent posting made one fail.
+     */
+    private static boolean apply(Position[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            Position position = positions[i];
+            long delta = position.net - position.fees;
+            if (delta >= 0) {
+                continue;
+            }
+            long balanceAfter = position.account.tryDebit(-delta, position.account.balanceFloor());
+            if (balanceAfter == BankAccount.REJECTED) {
+                for (int j = 0; j < i; j++) {
+                    long undo = positions[j].net - positions[j].fees;
+                    if (undo < 0) {
+                        positions[j].account.addToBalance(-undo);
+                    }
+                }
+                return false;
+            }
+            position.balanceAfter = balanceAfter;
+        }
+        for (Position position : positions) {
+            long delta = position.net - position.fees;
+            if (delta >= 0 && position.postings > 0) {
+                position.balanceAfter = position.account.addToBalance(delta);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Records one settlement posting per account and journals the batch.
+     */
+    private void settle(Position[] positions, int accepted, BatchResult result) {
+        int settled = 0;
+        for (Position position : positions) {
+            if (position.postings > 0) {
+                settled++;
+            }
+        }
+        String[] numbers = new String[settled];
+        long[] net = new long[settled];
+        long[] fees = new long[settled];
+        int[] postings = new int[settled];
+        Transaction[] settlements = new Transaction[settled];
+        
+        int s = 0;
+        for (Position position : positions) {
+            if (position.postings == 0) {
+                continue;
+            }
+            position.account.countPostings(position.postings);
+            settlements[s] = position.account.recordSettlement(result.getBatchId(), position.net,
+                                                               position.fees, position.balanceAfter);
+            numbers[s] = position.account.getAccountNumber();
+            net[s] = position.net;
+            fees[s] = position.fees;
+            postings[s] = position.postings;
+            s++;
+        }
+        result.setSettlements(numbers, net, fees, postings, settlements);
+        try {
+            listener.batchSettled(result);
+        } catch (RuntimeException e) {
+            s = 0;
+            for (Position position : positions) {
+                if (position.postings > 0) {
+                    position.account.revert(settlements[s], postings[s]);
+                    s++;
+                }
+            }
             throw e;
         }
     }
-
+    
     public ArrayList<Customer> getAllCustomers() {
         return new ArrayList<>(customers.values());
     }
@@ -182,7 +713,7 @@ public class Bank {
         }
         
         customer.resetFailedAttempts();
-        System.out.println("Customer " + customerId + " has been unblocked successfully.");
+        listener.customerUnblocked(customerId);
     }
     
     public void initializeSampleData() {
@@ -193,22 +724,16 @@ public class Bank {
             Customer c3 = registerCustomer("C003", "Charlie Brown", "9012");
             
             // Create accounts for customers
-            createSavingsAccount("C001", 5000.00);
-            createCheckingAccount("C001", 2000.00);
-            
-            createSavingsAccount("C002", 10000.00);
-            createCheckingAccount("C002", 1500.00);
+            createSavingsAccount("C001", Money.dollars(5000));
+            createCheckingAccount("C001", Money.dollars(2000));
             
-            createSavingsAccount("C003", 3000.00);
+            createSavingsAccount("C002", Money.dollars(10000));
+            createCheckingAccount("C002", Money.dollars(1500));
             
-            System.out.println("Sample data initialized successfully.");
-            System.out.println("Sample Customers:");
-            System.out.println("  Customer ID: C001, PIN: 1234 (Alice Johnson)");
-            System.out.println("  Customer ID: C002, PIN: 5678 (Bob Smith)");
-            System.out.println("  Customer ID: C003, PIN: 9012 (Charlie Brown)");
+            createSavingsAccount("C003", Money.dollars(3000));
             
         } catch (Exception e) {
-            System.out.println("Error initializing sample data: " + e.getMessage());
+            throw new IllegalStateException("Cannot initialize sample data: " + e.getMessage(), e);
         }
     }
     
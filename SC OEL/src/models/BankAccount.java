@@ -1,89 +1,515 @@
 package models;
 
 import enums.AccountStatus;
+import enums.MeteredOperation;
 import enums.TransactionType;
 import enums.TransactionStatus;
 
-import java.util.ArrayList;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class BankAccount {
+    // Returned by tryDebit when the debit would cross the floor
+    protected static final long REJECTED = Long.MIN_VALUE;
+
     protected String accountNumber;
     protected String customerId;
-    protected double balance;
-    protected AccountStatus status;
-    protected ArrayList<Transaction> transactionHistory;
-    
-    public BankAccount(String accountNumber, String customerId, double initialBalance) {
+    protected final AtomicLong balance;  // Cents, see Money; updated by CAS
+    protected volatile AccountStatus status;
+    protected final TransactionHistory transactionHistory;
+    private final long accountKey;  // See AccountKeys
+
+    // Serializes transfers and status changes; single-account postings never take it
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected volatile BankEventListener listener = BankEventListener.NONE;
+    protected volatile BankStatistics statistics = BankStatistics.DETACHED;
+    protected volatile BankMetrics metrics = BankMetrics.DETACHED;
+    private volatile TransactionIndex transactionIndex;  // Null until the account joins a bank
+    private int indexOrdinal;
+
+    public BankAccount(String accountNumber, String customerId, long initialBalance) {
+        this(accountNumber, customerId, initialBalance, new ColumnarTransactionHistory());
+    }
+
+    public BankAccount(String accountNumber, String customerId, long initialBalance,
+                       TransactionHistory transactionHistory) {
+        this(accountNumber, customerId, initialBalance, transactionHistory, true);
+    }
+
+    /**
+     * An account whose history is restored by the caller, e.g. from the
+     * journal, records no opening deposit of its own.
+     */
+    BankAccount(String accountNumber, String customerId, long initialBalance,
+                TransactionHistory transactionHistory, boolean recordOpening) {
         this.accountNumber = accountNumber;
         this.customerId = customerId;
-        this.balance = initialBalance;
+        this.balance = new AtomicLong(initialBalance);
         this.status = AccountStatus.ACTIVE;
-        this.transactionHistory = new ArrayList<>();
-        
+        this.transactionHistory = transactionHistory;
+        this.accountKey = AccountKeys.encode(accountNumber);
+
         // Record initial deposit
-        if (initialBalance > 0) {
+        if (recordOpening && initialBalance > 0) {
             Transaction initialTxn = new Transaction(
-                TransactionType.DEPOSIT, 
-                initialBalance, 
+                TransactionType.DEPOSIT,
+                initialBalance,
                 accountNumber,
                 TransactionStatus.SUCCESS,
-                balance
+                initialBalance
             );
             transactionHistory.add(initialTxn);
         }
     }
-    
+
     // Getters
     public String getAccountNumber() {
         return accountNumber;
     }
-    
+
     public String getCustomerId() {
         return customerId;
     }
-    
-    public double getBalance() {
-        return balance;
+
+    /**
+     * Returns the balance in cents.
+     */
+    public long getBalance() {
+        return balance.get();
     }
-    
+
     public AccountStatus getStatus() {
         return status;
     }
-    
+
     public void setStatus(AccountStatus status) {
-        this.status = status;
+        lock.lock();
+        try {
+            this.status = status;
+            listener.accountStatusChanged(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the transaction history, oldest first.
+     * Transactions are materialized as the view is read.
+     */
+    public List<Transaction> getTransactionHistory() {
+        return transactionHistory.view();
+    }
+
+    /**
+     * Returns one page of the postings the query selects.
+     */
+    public HistoryPage queryHistory(HistoryQuery query) {
+        return query.page(transactionHistory);
+    }
+
+    /**
+     * Streams the postings the query selects, materializing each one as it
+     * is consumed.
+     */
+    public Stream<Transaction> streamHistory(HistoryQuery query) {
+        return query.stream(transactionHistory);
+    }
+
+    void setEventListener(BankEventListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Joins the bank's statistics, which count this account and its balance
+     * from now on.
+     */
+    void setStatistics(BankStatistics statistics) {
+        this.statistics = statistics;
+        statistics.accountOpened(this);
+    }
+
+    void setMetrics(BankMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Joins the bank's transaction index, which covers the postings so far
+     * and every later one.
+     */
+    void setTransactionIndex(TransactionIndex transactionIndex) {
+        indexOrdinal = transactionIndex.register(this);
+        this.transactionIndex = transactionIndex;
+    }
+
+    /**
+     * Joins the bank's interest calendar. Only accounts that accrue interest
+     * use it.
+     */
+    void setInterestPeriods(InterestPeriods periods) {
+    }
+
+    /**
+     * Joins the bank's billing cycles. Only accounts with a monthly
+     * allowance use them.
+     */
+    void setBillingCycles(BillingCycles billingCycles) {
+    }
+
+    public Transaction deposit(long amount) throws Exception {
+        return transactionHistory.get(postDeposit(amount));
+    }
+
+    public Transaction withdraw(long amount) throws Exception {
+        return transactionHistory.get(postWithdrawal(amount));
+    }
+
+    /**
+     * Deposits like {@link #deposit} but returns the index of the posting in
+     * the history instead of materializing it, so a successful deposit
+     * allocates nothing unless the bank journals it.
+     */
+    public int postDeposit(long amount) throws Exception {
+        BankMetrics metrics = this.metrics;
+        long start = metrics.start();
+        DepositEvent event = FlightRecording.begin(DepositEvent::new);
+        try {
+            int row = creditRow(amount, TransactionType.DEPOSIT, null, Transaction.nextSequence());
+            posted(row);
+            metrics.record(MeteredOperation.DEPOSIT, start, TransactionStatus.SUCCESS);
+            PostingEvent.finish(event, accountNumber, null, amount, 0, TransactionStatus.SUCCESS.name());
+            return row;
+        } catch (Exception e) {
+            metrics.recordFailure(MeteredOperation.DEPOSIT, start, this, e);
+            PostingEvent.finish(event, accountNumber, null, amount, 0, BankMetrics.outcomeName(this, e));
+            throw e;
+        }
+    }
+
+    /**
+     * Withdraws like {@link #withdraw} but returns the index of the posting
+     * in the history, as {@link #postDeposit} does.
+     */
+    public int postWithdrawal(long amount) throws Exception {
+        BankMetrics metrics = this.metrics;
+        long start = metrics.start();
+        WithdrawalEvent event = FlightRecording.begin(WithdrawalEvent::new);
+        try {
+            int row = debitRow(amount, TransactionType.WITHDRAWAL, null);
+            posted(row);
+            metrics.record(MeteredOperation.WITHDRAWAL, start, TransactionStatus.SUCCESS);
+            PostingEvent.finish(event, accountNumber, null, amount, transactionHistory.feeAt(row),
+                                TransactionStatus.SUCCESS.name());
+            return row;
+        } catch (Exception e) {
+            metrics.recordFailure(MeteredOperation.WITHDRAWAL, start, this, e);
+            PostingEvent.finish(event, accountNumber, null, amount, 0, BankMetrics.outcomeName(this, e));
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a single-account posting to the listener, materializing it only
+     * if there is one. If the listener fails the posting is reverted first.
+     */
+    private void posted(int row) {
+        BankEventListener listener = this.listener;
+        if (listener != BankEventListener.NONE) {
+            Transaction posting = transactionHistory.get(row);
+            try {
+                listener.posted(this, posting);
+            } catch (RuntimeException e) {
+                revert(posting);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Re-applies a posting read back from the journal. The rules were checked
+     * when it was first made, so only the balance delta of a successful
+     * posting is applied; the posting joins the history as it was recorded.
+     */
+    public void replayPosting(Transaction posting) {
+        if (posting.getStatus() == TransactionStatus.SUCCESS) {
+            replayBalanceChange(posting.getType().isCredit() ? posting.getAmount()
+                                                             : -(posting.getAmount() + posting.getFee()),
+                                posting.getTimestampMillis());
+        }
+        restorePosting(posting);
+    }
+
+    /**
+     * Appends a posting to the history as it was recorded, with its
+     * original number and time, without touching the balance.
+     */
+    public void restorePosting(Transaction posting) {
+        append(posting.getSequence(), posting.getTimestampMillis(), posting.getType(), posting.getStatus(),
+               posting.getSourceAccountKey(), posting.getDestinationAccountKey(),
+               posting.getAmount(), posting.getBalanceAfter(), posting.getFee());
+    }
+
+    /**
+     * Adds funds and records the posting. The counterparty is the other
+     * account of a transfer, or null.
+     */
+    protected Transaction credit(long amount, TransactionType type, String counterparty) throws Exception {
+        return transactionHistory.get(creditRow(amount, type, counterparty, Transaction.nextSequence()));
     }
-    
-    public ArrayList<Transaction> getTransactionHistory() {
-        return transactionHistory;
+
+    /**
+     * Credits the other half of a transfer debited on another shard. The
+     * posting takes the transaction number of the debit, which is how
+     * recovery finds out whether the credit was made.
+     */
+    Transaction receive(Transaction transferOut) throws Exception {
+        return transactionHistory.get(creditRow(transferOut.getAmount(), TransactionType.TRANSFER_IN,
+                                                transferOut.getSourceAccountNumber(), transferOut.getSequence()));
+    }
+
+    /**
+     * Whether the history holds a successful posting of the given type and
+     * transaction number. Searches newest first.
+     */
+    boolean hasPosting(long sequence, TransactionType type) {
+        for (int i = transactionHistory.size() - 1; i >= 0; i--) {
+            Transaction posting = transactionHistory.get(i);
+            if (posting.getSequence() == sequence && posting.getType() == type
+                    && posting.getStatus() == TransactionStatus.SUCCESS) {
+                return true;
+            }
+        }
+        return false;
     }
-    
-    public abstract void deposit(double amount) throws Exception;
 
-    public abstract void withdraw(double amount) throws Exception;
-    
+    /**
+     * Removes funds according to the account rules and records the posting.
+     */
+    protected Transaction debit(long amount, TransactionType type, String counterparty) throws Exception {
+        return transactionHistory.get(debitRow(amount, type, counterparty));
+    }
+
+    /**
+     * Does the work of {@link #credit} and returns the history index of the
+     * posting, which is recorded under the given transaction number if it
+     * succeeds.
+     */
+    protected abstract int creditRow(long amount, TransactionType type, String counterparty, long sequence)
+            throws Exception;
+
+    /**
+     * Does the work of {@link #debit} and returns the history index of the
+     * posting.
+     */
+    protected abstract int debitRow(long amount, TransactionType type, String counterparty)
+            throws Exception;
+
     public abstract String getAccountType();
-    
-    protected void addTransaction(Transaction transaction) {
-        transactionHistory.add(transaction);
-    }
-    
-    public void displayTransactionHistory() {
-        if (transactionHistory.isEmpty()) {
-            System.out.println("No transactions found.");
+
+    /**
+     * Lowest balance a debit may leave, in cents.
+     */
+    abstract long balanceFloor();
+
+    /**
+     * Status recorded for a debit that would cross the floor.
+     */
+    abstract TransactionStatus debitFailure(long available, long amount);
+
+    /**
+     * Fee for one debit of a batch, given the postings the batch already
+     * planned on this account and the balance the debit leaves.
+     */
+    long batchDebitFee(int priorPostings, long balanceAfter) {
+        return 0;
+    }
+
+    /**
+     * Counts postings settled by a batch toward any monthly allowance.
+     */
+    void countPostings(int postings) {
+    }
+
+    /**
+     * Counts postings of a batch settlement read back from the journal.
+     */
+    void countReplayedPostings(int postings) {
+    }
+
+    /**
+     * Applies the net result of a batch as one posting. A negative net
+     * amount leaving the balance above the floor is the caller's check.
+     */
+    Transaction settle(String batchId, long net, long fee, int postings) {
+        long balanceAfter = addToBalance(net - fee);
+        countPostings(postings);
+        return recordSettlement(batchId, net, fee, balanceAfter);
+    }
+
+    /**
+     * Re-applies a batch settlement read back from the journal.
+     */
+    public void replaySettlement(Transaction settlement, int postings) {
+        long net = settlement.getType() == TransactionType.TRANSFER_IN ? settlement.getAmount()
+                                                                       : -settlement.getAmount();
+        replayBalanceChange(net - settlement.getFee(), settlement.getTimestampMillis());
+        countReplayedPostings(postings);
+        restorePosting(settlement);
+    }
+
+    /**
+     * Applies a balance change read back from the journal, made at the
+     * given time.
+     */
+    void replayBalanceChange(long delta, long timestampMillis) {
+        addToBalance(delta);
+    }
+
+    /**
+     * Takes back the balance change of a posting whose journal write
+     * failed, so the balance matches what a restart recovers. The row stays
+     * in the history until then.
+     */
+    void revert(Transaction posting) {
+        revert(posting, 1);
+    }
+
+    /**
+     * Reverts a posting that stands for the given number of postings, such
+     * as a batch settlement.
+     */
+    void revert(Transaction posting, int postings) {
+        if (posting.getStatus() == TransactionStatus.SUCCESS) {
+            addToBalance(posting.getType().isCredit() ? posting.getFee() - posting.getAmount()
+                                                      : posting.getAmount() + posting.getFee());
+            uncountPostings(posting, postings);
+        }
+    }
+
+    /**
+     * Takes reverted postings back out of any monthly allowance.
+     */
+    void uncountPostings(Transaction posting, int postings) {
+    }
+
+    /**
+     * Pays back a debit whose transfer could not be completed, without
+     * applying the account rules. The debit already counted toward any
+     * monthly allowance, so the refund does not.
+     */
+    Transaction refund(long amount, String counterparty) {
+        long balanceAfter = addToBalance(amount);
+        return transactionHistory.get(
+            record(TransactionType.REFUND, amount, counterparty, TransactionStatus.SUCCESS, balanceAfter));
+    }
+
+    Transaction recordSettlement(String batchId, long net, long fee, long balanceAfter) {
+        TransactionType type = net >= 0 ? TransactionType.TRANSFER_IN : TransactionType.TRANSFER_OUT;
+        return transactionHistory.get(record(type, Math.abs(net), batchId, TransactionStatus.SUCCESS, balanceAfter, fee));
+    }
+
+    /**
+     * Atomically adds a signed amount and returns the new balance. Every
+     * balance change goes through here or tryDebit, so subclasses can track
+     * it.
+     */
+    protected long addToBalance(long delta) {
+        long balanceAfter = balance.addAndGet(delta);
+        statistics.balanceMoved(delta);
+        return balanceAfter;
+    }
+
+    /**
+     * Atomically subtracts the amount unless the result would fall below
+     * the floor. Returns the new balance, or REJECTED.
+     */
+    protected long tryDebit(long amount, long floor) {
+        while (true) {
+            long current = balance.get();
+            long next = current - amount;
+            if (next < floor) {
+                return REJECTED;
+            }
+            if (balance.compareAndSet(current, next)) {
+                statistics.balanceMoved(-amount);
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Records a posting with the given resulting balance and returns its
+     * history index. Transfers keep the source/destination orientation
+     * regardless of which side this account is. Nothing is allocated; a
+     * Transaction is only built when the posting is read back.
+     *
+     * A failed posting changes nothing but the history, so it is handed to
+     * the listener here; successful ones are reported by the caller once
+     * the whole operation is applied. A counterparty that is not an
+     * account number (a mistyped destination) is recorded as none.
+     */
+    protected int record(TransactionType type, long amount, String counterparty,
+                         TransactionStatus status, long balanceAfter, long fee) {
+        return record(Transaction.nextSequence(), type, amount, counterparty, status, balanceAfter, fee);
+    }
+
+    /**
+     * Records a posting under a transaction number taken beforehand.
+     */
+    protected int record(long sequence, TransactionType type, long amount, String counterparty,
+                         TransactionStatus status, long balanceAfter, long fee) {
+        long counterpartyKey = AccountKeys.encodeOrNone(counterparty);
+        long source = type.isFromCounterparty() ? counterpartyKey : accountKey;
+        long destination = type.isFromCounterparty() ? accountKey : counterpartyKey;
+        int row = append(sequence, MillisClock.now(), type, status,
+                         source, destination, amount, balanceAfter, fee);
+        if (status != TransactionStatus.SUCCESS) {
+            posted(row);
+        }
+        return row;
+    }
+
+    private int append(long sequence, long timestamp, TransactionType type, TransactionStatus status,
+                       long source, long destination, long amount, long balanceAfter, long fee) {
+        int row = transactionHistory.add(sequence, timestamp, type, status,
+                                         source, destination, amount, balanceAfter, fee);
+        TransactionIndex index = transactionIndex;
+        if (index != null) {
+            index.add(indexOrdinal, row, type, status, source, destination, timestamp);
+        }
+        return row;
+    }
+
+    protected int record(TransactionType type, long amount, String counterparty,
+                         TransactionStatus status, long balanceAfter) {
+        return record(type, amount, counterparty, status, balanceAfter, 0);
+    }
+
+    protected int record(TransactionType type, long amount, String counterparty,
+                         TransactionStatus status) {
+        return record(type, amount, counterparty, status, balance.get());
+    }
+
+    public void displayTransactionHistory(PrintStream out) {
+        int size = transactionHistory.size();
+        if (size == 0) {
+            out.println("No transactions found.");
             return;
         }
-        
-        System.out.println("\n===== Transaction History for Account " + accountNumber + " =====");
-        for (Transaction txn : transactionHistory) {
-            System.out.println(txn);
-            System.out.println("------------------------------");
+
+        // One transaction at a time, so rendering never holds the whole history
+        out.println("\n===== Transaction History for Account " + accountNumber + " =====");
+        for (int i = 0; i < size; i++) {
+            out.println(transactionHistory.get(i));
+            out.println("------------------------------");
         }
     }
 
     @Override
     public String toString() {
-        return String.format("%s Account - Number: %s, Balance: $%.2f, Status: %s",
-                           getAccountType(), accountNumber, balance, status);
+        return String.format("%s Account - Number: %s, Balance: $%s, Status: %s",
+                           getAccountType(), accountNumber, Money.format(getBalance()), status);
     }
 }
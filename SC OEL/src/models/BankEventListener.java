@@ -0,0 +1,134 @@
+package models;
+
+/**
+ * Receives every successful state change of a {@link Bank} before the
+ * operation returns to its caller. Used by the journal to make changes
+ * durable; an exception thrown here fails the operation.
+ */
+public interface BankEventListener {
+    BankEventListener NONE = new BankEventListener() { };
+
+    default void customerRegistered(Customer customer) {
+    }
+
+    default void customerBlocked(String customerId) {
+    }
+
+    default void customerUnblocked(String customerId) {
+    }
+
+    /**
+     * A customer's count of consecutive failed logins changed, by a wrong
+     * PIN or a correct one after wrong ones. A failure that blocks the
+     * customer is reported as {@link #customerBlocked} instead.
+     */
+    default void failedLoginsChanged(String customerId, int attempts) {
+    }
+
+    default void accountOpened(BankAccount account, long initialBalance) {
+    }
+
+    default void accountStatusChanged(BankAccount account) {
+    }
+
+    /**
+     * A single-account posting: deposit, withdrawal or interest, or a
+     * failed posting of any kind, which only adds to the history.
+     */
+    default void posted(BankAccount account, Transaction transaction) {
+    }
+
+    /**
+     * A step of a {@link PostingPipeline} starts on the calling thread.
+     * Until the thread's next postedTogether call, a listener may hold back
+     * the thread's other calls, such as failed postings, billing cycle
+     * starts and ID leases, and make them durable with the step, so the
+     * thread waits once per step.
+     */
+    default void stepStarted() {
+    }
+
+    /**
+     * Postings applied together by one step of a {@link PostingPipeline},
+     * in order, possibly none. A null account marks a completed transfer:
+     * its TRANSFER_OUT posting, followed by the TRANSFER_IN posting of the
+     * destination. By default each is reported on its own.
+     */
+    default void postedTogether(BankAccount[] accounts, Transaction[] postings, int count) {
+        for (int i = 0; i < count; i++) {
+            if (accounts[i] == null) {
+                transferred(postings[i], postings[++i]);
+            } else {
+                posted(accounts[i], postings[i]);
+            }
+        }
+    }
+
+    /**
+     * Interest credited to a group of accounts, one posting each, in the
+     * same order.
+     */
+    default void interestPosted(BankAccount[] accounts, Transaction[] postings) {
+    }
+
+    /**
+     * Accrued interest settled on a group of savings accounts, one posting
+     * each, in the same order. Unlike {@link #interestPosted} the postings
+     * pay out closed interest periods, so replay does not count them as
+     * balance changes within the open one.
+     */
+    default void accrualSettled(BankAccount[] accounts, Transaction[] postings) {
+    }
+
+    /**
+     * The bank's open interest period ends at the given time, in seconds.
+     * Comes before any settlement of that period.
+     */
+    default void interestPeriodClosed(int period, long end) {
+    }
+
+    /**
+     * A transfer batch applied as one net settlement per account.
+     */
+    default void batchSettled(BatchResult result) {
+    }
+
+    /**
+     * The first posting of a checking account's billing cycle is about to
+     * be counted. Comes before that posting.
+     */
+    default void billingCycleStarted(BankAccount account, int cycle) {
+    }
+
+    /**
+     * Transaction numbers below the limit may now be handed out. Recording
+     * the limit lets a restart continue past every number already seen.
+     */
+    default void transactionIdsLeased(long limit) {
+    }
+
+    /**
+     * A completed transfer, given by its postings on both accounts.
+     */
+    default void transferred(Transaction transferOut, Transaction transferIn) {
+    }
+
+    /**
+     * The debit of a transfer to an account on another shard of a
+     * {@link ShardedBank}. Until it is resolved the transfer is in doubt;
+     * the credit on the other shard carries the same transaction number.
+     */
+    default void transferPrepared(BankAccount source, Transaction transferOut) {
+        posted(source, transferOut);
+    }
+
+    /**
+     * A prepared transfer is settled: committed if the refund is null,
+     * otherwise undone by the refund to the source.
+     */
+    default void transferResolved(BankAccount source, Transaction transferOut, Transaction refund) {
+        if (refund != null) {
+            posted(source, refund);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package models;
+
+import enums.MeteredOperation;
+import enums.TransactionStatus;
+import exceptions.AccountBlockedException;
+import exceptions.InsufficientFundsException;
+import exceptions.InvalidAccountException;
+import exceptions.MinimumBalanceException;
+import exceptions.SameAccountTransferException;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome of every login, deposit, withdrawal and transfer of
+ * a bank. Each operation has a {@link LatencyHistogram} and one counter
+ * per TransactionStatus, plus a counter of errors that are not a business
+ * outcome, e.g. a journal failure. A login counts as SUCCESS,
+ * FAILED_INVALID_ACCOUNT for an unknown customer, FAILED_INVALID_PIN for a
+ * wrong PIN, or FAILED_ACCOUNT_BLOCKED; a transfer to its own source
+ * account as FAILED_SAME_ACCOUNT.
+ *
+ * Every operation is counted, but only one in {@value #SAMPLE_EVERY} is
+ * timed: reading the clock twice costs more than the counting, and the
+ * sample gives the same percentiles. Recording allocates nothing and takes
+ * no lock. When disabled nothing is counted or timed, which is how the
+ * overhead is measured ({@code benchmarks.MetricsOverhead}).
+ */
+public final class BankMetrics {
+    private static final MeteredOperation[] OPERATIONS = MeteredOperation.values();
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    static final int SAMPLE_EVERY = 16;
+    private static final long DISABLED = 0;
+    private static final long UNTIMED = 1;
+
+    // Absorbs recordings of accounts not yet in a bank
+    static final BankMetrics DETACHED = new BankMetrics();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[] outcomes = new LongAdder[OPERATIONS.length * STATUSES.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+    private volatile boolean enabled = true;
+
+    BankMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Token to pass to {@link #record}: the start time if this operation is
+     * sampled, otherwise a marker for counting only, or for nothing when
+     * disabled.
+     */
+    long start() {
+        if (!enabled) {
+            return DISABLED;
+        }
+        if ((ThreadLocalRandom.current().nextInt() & (SAMPLE_EVERY - 1)) != 0) {
+            return UNTIMED;
+        }
+        return System.nanoTime();
+    }
+
+    void record(MeteredOperation operation, long start, TransactionStatus outcome) {
+        if (start == DISABLED) {
+            return;
+        }
+        outcomes[operation.ordinal() * STATUSES.length + outcome.ordinal()].increment();
+        time(operation, start);
+    }
+
+    /** Records an operation that threw; the account is the one whose rules refused it, if known. */
+    void recordFailure(MeteredOperation operation, long start, BankAccount account, Exception failure) {
+        if (start == DISABLED) {
+            return;
+        }
+        TransactionStatus outcome = outcomeOf(account, failure);
+        if (outcome == null) {
+            errors[operation.ordinal()].increment();
+            time(operation, start);
+        } else {
+            record(operation, start, outcome);
+        }
+    }
+
+    private void time(MeteredOperation operation, long start) {
+        if (start != UNTIMED) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /** Name of the outcome an exception reports, or of the exception if it is not one. */
+    static String outcomeName(BankAccount account, Exception failure) {
+        TransactionStatus outcome = outcomeOf(account, failure);
+        return outcome != null ? outcome.name() : failure.getClass().getSimpleName();
+    }
+
+    /** The status of the failed posting an exception reports, or null if it is not one. */
+    private static TransactionStatus outcomeOf(BankAccount account, Exception failure) {
+        if (failure instanceof AccountBlockedException) {
+            return TransactionStatus.FAILED_ACCOUNT_BLOCKED;
+        }
+        if (failure instanceof MinimumBalanceException) {
+            return TransactionStatus.FAILED_MINIMUM_BALANCE_VIOLATION;
+        }
+        if (failure instanceof InsufficientFundsException) {
+            return account instanceof CheckingAccount ? TransactionStatus.FAILED_OVERDRAFT_EXCEEDED
+                                                      : TransactionStatus.FAILED_INSUFFICIENT_FUNDS;
+        }
+        if (failure instanceof InvalidAccountException) {
+            return TransactionStatus.FAILED_INVALID_ACCOUNT;
+        }
+        if (failure instanceof SameAccountTransferException) {
+            return TransactionStatus.FAILED_SAME_ACCOUNT;
+        }
+        if (failure instanceof IllegalArgumentException) {
+            return TransactionStatus.FAILED_INVALID_AMOUNT;
+        }
+        return null;
+    }
+
+    /** Latency of the sampled operations. */
+    public LatencyHistogram.Snapshot getLatency(MeteredOperation operation) {
+        return latencies[operation.ordinal()].snapshot();
+    }
+
+    public long getOutcomeCount(MeteredOperation operation, TransactionStatus status) {
+        return outcomes[operation.ordinal() * STATUSES.length + status.ordinal()].sum();
+    }
+
+    public long getErrorCount(MeteredOperation operation) {
+        return errors[operation.ordinal()].sum();
+    }
+
+    /** Operations counted, whatever their outcome. */
+    public long getCount(MeteredOperation operation) {
+        long count = getErrorCount(operation);
+        for (TransactionStatus status : STATUSES) {
+            count += getOutcomeCount(operation, status);
+        }
+        return count;
+    }
+
+    /**
+     * All metrics as text, one {@code name{labels} value} line each, in the
+     * Prometheus exposition format. Latencies are in seconds, and the
+     * summary count and sum cover the sampled operations only.
+     */
+    public String export() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# TYPE bank_operation_latency_seconds summary\n");
+        for (MeteredOperation operation : OPERATIONS) {
+            LatencyHistogram.Snapshot latency = getLatency(operation);
+            String labels = "operation=\"" + operation.name().toLowerCase(Locale.ROOT) + "\"";
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                line(out, "bank_operation_latency_seconds", labels + ",quantile=\"" + QUANTILES[i] + "\"",
+                     seconds(latency.getPercentileNanos(PERCENTILES[i])));
+            }
+            line(out, "bank_operation_latency_seconds_count", labels, Long.toString(latency.getCount()));
+            line(out, "bank_operation_latency_seconds_sum", labels,
+                 seconds(latency.getMeanNanos() * latency.getCount()));
+        }
+        out.append("# TYPE bank_operation_outcomes_total counter\n");
+        for (MeteredOperation operation : OPERATIONS) {
+            String labels = "operation=\"" + operation.name().toLowerCase(Locale.ROOT) + "\"";
+            for (TransactionStatus status : STATUSES) {
+                long count = getOutcomeCount(operation, status);
+                if (count > 0) {
+                    line(out, "bank_operation_outcomes_total", labels + ",status=\"" + status + "\"",
+                         Long.toString(count));
+                }
+            }
+            line(out, "bank_operation_errors_total", labels, Long.toString(getErrorCount(operation)));
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, String labels, String value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String seconds(double nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,77 @@
+package models;
+
+import enums.AccountStatus;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bank-wide counts and totals, kept up to date as customers register,
+ * change status and post, so reading them is O(1). Each figure is a
+ * LongAdder: concurrent postings add to separate cells instead of one
+ * contended counter. Figures are read one at a time, not as an atomic
+ * snapshot of all of them.
+ */
+public final class BankStatistics {
+    // Absorbs updates from accounts and customers not yet in a bank
+    static final BankStatistics DETACHED = new BankStatistics();
+
+    private final LongAdder customers = new LongAdder();
+    private final LongAdder blockedCustomers = new LongAdder();
+    private final LongAdder savingsAccounts = new LongAdder();
+    private final LongAdder checkingAccounts = new LongAdder();
+    private final LongAdder totalBalance = new LongAdder();
+
+    void customerRegistered(Customer customer) {
+        customers.increment();
+        if (customer.getLoginStatus() == AccountStatus.BLOCKED) {
+            blockedCustomers.increment();
+        }
+    }
+
+    void customerStatusChanged(AccountStatus from, AccountStatus to) {
+        if (from != AccountStatus.BLOCKED && to == AccountStatus.BLOCKED) {
+            blockedCustomers.increment();
+        } else if (from == AccountStatus.BLOCKED && to != AccountStatus.BLOCKED) {
+            blockedCustomers.decrement();
+        }
+    }
+
+    /** Counts an account and the balance it joins with. */
+    void accountOpened(BankAccount account) {
+        if (account instanceof SavingsAccount) {
+            savingsAccounts.increment();
+        } else if (account instanceof CheckingAccount) {
+            checkingAccounts.increment();
+        }
+        totalBalance.add(account.balance.get());
+    }
+
+    void balanceMoved(long delta) {
+        totalBalance.add(delta);
+    }
+
+    public long getCustomers() {
+        return customers.sum();
+    }
+
+    public long getBlockedCustomers() {
+        return blockedCustomers.sum();
+    }
+
+    public long getAccounts() {
+        return savingsAccounts.sum() + checkingAccounts.sum();
+    }
+
+    public long getSavingsAccounts() {
+        return savingsAccounts.sum();
+    }
+
+    public long getCheckingAccounts() {
+        return checkingAccounts.sum();
+    }
+
+    /** Sum of all account balances, in cents. */
+    public long getTotalBalance() {
+        return totalBalance.sum();
+    }
+}
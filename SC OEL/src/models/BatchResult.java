@@ -0,0 +1,117 @@
+package models;
+
+import enums.BatchMode;
+import enums.TransactionStatus;
+
+/**
+ * Outcome of {@link Bank#transferBatch}: a status and fee for every item,
+ * and the single net movement applied to each account.
+ */
+public class BatchResult {
+    private final String batchId;
+    private final BatchMode mode;
+    private final TransactionStatus[] statuses;
+    private final long[] fees;
+    private int accepted;
+
+    // One entry per settled account
+    private String[] settledAccounts = new String[0];
+    private long[] settledNet = new long[0];
+    private long[] settledFees = new long[0];
+    private int[] settledPostings = new int[0];
+    private Transaction[] settlements = new Transaction[0];
+
+    BatchResult(String batchId, BatchMode mode, int items) {
+        this.batchId = batchId;
+        this.mode = mode;
+        this.statuses = new TransactionStatus[items];
+        this.fees = new long[items];
+    }
+
+    void setItem(int item, TransactionStatus status, long fee) {
+        statuses[item] = status;
+        fees[item] = fee;
+    }
+
+    void setAccepted(int accepted) {
+        this.accepted = accepted;
+    }
+
+    void setSettlements(String[] accounts, long[] net, long[] fees, int[] postings,
+                        Transaction[] settlements) {
+        this.settledAccounts = accounts;
+        this.settledNet = net;
+        this.settledFees = fees;
+        this.settledPostings = postings;
+        this.settlements = settlements;
+    }
+
+    /**
+     * Reference recorded as the counterparty of each account's settlement posting.
+     */
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public BatchMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Whether any item was applied. An all-or-nothing batch is either fully
+     * applied or not at all.
+     */
+    public boolean isApplied() {
+        return accepted > 0;
+    }
+
+    public int getItemCount() {
+        return statuses.length;
+    }
+
+    public int getAcceptedCount() {
+        return accepted;
+    }
+
+    public TransactionStatus getStatus(int item) {
+        return statuses[item];
+    }
+
+    /** Fee charged for the item, in cents. */
+    public long getFee(int item) {
+        return fees[item];
+    }
+
+    public int getSettlementCount() {
+        return settledAccounts.length;
+    }
+
+    public String getSettledAccountNumber(int settlement) {
+        return settledAccounts[settlement];
+    }
+
+    /** Net amount moved into (positive) or out of the account, before fees. */
+    public long getSettledNet(int settlement) {
+        return settledNet[settlement];
+    }
+
+    public long getSettledFees(int settlement) {
+        return settledFees[settlement];
+    }
+
+    /** Number of accepted items that touched the account. */
+    public int getSettledPostings(int settlement) {
+        return settledPostings[settlement];
+    }
+
+    /** The settlement posting recorded on the account. */
+    public Transaction getSettlement(int settlement) {
+        return settlements[settlement];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Batch %s (%s): %d of %d items applied across %d accounts",
+                             batchId, mode, accepted, statuses.length, settledAccounts.length);
+    }
+}
@@ -0,0 +1,58 @@
+package models;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Monthly billing cycles of checking accounts. Each account's cycles start
+ * on its own day of the month, so rollovers are spread over the month
+ * instead of all falling on the 1st. A cycle is numbered by the months
+ * since January 1970 in which it starts.
+ */
+public final class BillingCycles {
+    /** Cycle of a count whose cycle is not known, e.g. replayed from an older journal. */
+    public static final int UNKNOWN = -1;
+
+    private static final int CYCLE_DAYS = 28;  // Every month has these days
+
+    private final Clock clock;
+
+    public BillingCycles() {
+        this(Clock.systemDefaultZone());
+    }
+
+    public BillingCycles(Clock clock) {
+        this.clock = clock;
+    }
+
+    /** Current time in epoch millis. */
+    public long now() {
+        return clock.millis();
+    }
+
+    /**
+     * Day of the month, 1 to 28, on which an account's cycles start.
+     */
+    static int cycleDay(String accountNumber) {
+        return 1 + Math.floorMod(accountNumber.hashCode(), CYCLE_DAYS);
+    }
+
+    /**
+     * The cycle an account with the given cycle day is in at a time.
+     */
+    int cycleAt(int cycleDay, long millis) {
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(clock.getZone()).toLocalDate();
+        int month = (date.getYear() - 1970) * 12 + date.getMonthValue() - 1;
+        return date.getDayOfMonth() < cycleDay ? month - 1 : month;
+    }
+
+    /**
+     * Epoch millis at which the given cycle ends and the next one starts.
+     */
+    long cycleEnd(int cycleDay, int cycle) {
+        int next = cycle + 1;
+        return LocalDate.of(1970 + next / 12, next % 12 + 1, cycleDay)
+            .atStartOfDay(clock.getZone()).toInstant().toEpochMilli();
+    }
+}
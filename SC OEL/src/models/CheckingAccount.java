@@ -6,25 +6,49 @@ import enums.TransactionStatus;
 import exceptions.AccountBlockedException;
 import exceptions.InsufficientFundsException;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class CheckingAccount extends BankAccount {
-    private static final double OVERDRAFT_LIMIT = 1000.0;
-    private static final double TRANSACTION_FEE = 1.50;
+    private static final long OVERDRAFT_LIMIT = Money.dollars(1000);
+    private static final long TRANSACTION_FEE = 150;  // $1.50
     private static final int FREE_TRANSACTIONS_PER_MONTH = 10;
-    private int transactionCount;
+    private static final BillingCycles UNATTACHED = new BillingCycles();
+    private static final int STARTING = Integer.MIN_VALUE;
+    
+    // Postings counted toward the fee allowance, stamped with their billing
+    // cycle as cycle << 32 | count. A count stamped with an older cycle reads
+    // as zero, so a new cycle needs no reset pass over idle accounts.
+    // STARTING holds a new cycle while its start is being journaled.
+    private final AtomicLong cycleCount = new AtomicLong(pack(BillingCycles.UNKNOWN, 0));
+    // Postings that find a cycle STARTING wait on this until it has started
+    private final Object cycleStarted = new Object();
+    private final int cycleDay;
+    private volatile BillingCycles billingCycles = UNATTACHED;
+    
+    // The clock's current cycle, recomputed once cycleEnd passes
+    private volatile int cycle;
+    private volatile long cycleEnd = Long.MIN_VALUE;
+    
+    public CheckingAccount(String accountNumber, String customerId, long initialBalance) {
+        this(accountNumber, customerId, initialBalance, new ColumnarTransactionHistory());
+    }
+    
+    public CheckingAccount(String accountNumber, String customerId, long initialBalance,
+                           TransactionHistory transactionHistory) {
+        this(accountNumber, customerId, initialBalance, transactionHistory, true);
+    }
     
-    public CheckingAccount(String accountNumber, String customerId, double initialBalance) {
-        super(accountNumber, customerId, initialBalance);
-        this.transactionCount = 0;
+    CheckingAccount(String accountNumber, String customerId, long initialBalance,
+                    TransactionHistory transactionHistory, boolean recordOpening) {
+        super(accountNumber, customerId, initialBalance, transactionHistory, recordOpening);
+        this.cycleDay = BillingCycles.cycleDay(accountNumber);
     }
     
     @Override
-    public void deposit(double amount) throws Exception {
+    protected int creditRow(long amount, TransactionType type, String counterparty, long sequence)
+            throws Exception {
         if (status != AccountStatus.ACTIVE) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.DEPOSIT, amount, accountNumber,
-                TransactionStatus.FAILED_ACCOUNT_BLOCKED, balance
-            );
-            addTransaction(failedTxn);
+            record(type, amount, counterparty, TransactionStatus.FAILED_ACCOUNT_BLOCKED);
             throw new AccountBlockedException("Account is " + status + ". Cannot deposit.");
         }
         
@@ -32,24 +56,17 @@ public class CheckingAccount extends BankAccount {
             throw new IllegalArgumentException("Deposit amount must be positive.");
         }
         
-        balance += amount;
-        transactionCount++;
+        count(currentCycle(), 1);
+        long balanceAfter = addToBalance(amount);
         
-        Transaction txn = new Transaction(
-            TransactionType.DEPOSIT, amount, accountNumber,
-            TransactionStatus.SUCCESS, balance
-        );
-        addTransaction(txn);
+        return record(sequence, type, amount, counterparty, TransactionStatus.SUCCESS, balanceAfter, 0);
     }
     
     @Override
-    public void withdraw(double amount) throws Exception {
+    protected int debitRow(long amount, TransactionType type, String counterparty)
+            throws Exception {
         if (status != AccountStatus.ACTIVE) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.WITHDRAWAL, amount, accountNumber,
-                TransactionStatus.FAILED_ACCOUNT_BLOCKED, balance
-            );
-            addTransaction(failedTxn);
+            record(type, amount, counterparty, TransactionStatus.FAILED_ACCOUNT_BLOCKED);
             throw new AccountBlockedException("Account is " + status + ". Cannot withdraw.");
         }
         
@@ -57,39 +74,190 @@ public class CheckingAccount extends BankAccount {
             throw new IllegalArgumentException("Withdrawal amount must be positive.");
         }
         
-        // Check if withdrawal would exceed overdraft limit
-        double potentialBalance = balance - amount;
-        if (potentialBalance < -OVERDRAFT_LIMIT) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.WITHDRAWAL, amount, accountNumber,
-                TransactionStatus.FAILED_OVERDRAFT_EXCEEDED, balance
-            );
-            addTransaction(failedTxn);
-            throw new InsufficientFundsException(
-                "Withdrawal denied. Overdraft limit of $" + OVERDRAFT_LIMIT + 
-                " would be exceeded. Current balance: $" + String.format("%.2f", balance) +
-                ", Requested withdrawal: $" + String.format("%.2f", amount) +
-                ", Available (including overdraft): $" + String.format("%.2f", balance + OVERDRAFT_LIMIT)
-            );
-        }
+        // Claim a slot in this cycle's count first so concurrent withdrawals agree on who pays a fee
+        int cycle = currentCycle();
+        boolean feeDue = count(cycle, 1) > FREE_TRANSACTIONS_PER_MONTH;
+        long current;
+        long balanceAfter;
+        long fee;
+        do {
+            current = balance.get();
+            balanceAfter = current - amount;
+            
+            // Check if withdrawal would exceed overdraft limit
+            if (balanceAfter < -OVERDRAFT_LIMIT) {
+                uncount(cycle, 1);
+                record(type, amount, counterparty, TransactionStatus.FAILED_OVERDRAFT_EXCEEDED, current);
+                long available = current;
+                throw new InsufficientFundsException(
+                    () -> "Withdrawal denied. Overdraft limit of $" + Money.format(OVERDRAFT_LIMIT) + 
+                    " would be exceeded. Current balance: $" + Money.format(available) +
+                    ", Requested withdrawal: $" + Money.format(amount) +
+                    ", Available (including overdraft): $" + Money.format(available + OVERDRAFT_LIMIT)
+                );
+            }
+            
+            // Apply transaction fee if free transactions exceeded
+            fee = feeDue && balanceAfter >= TRANSACTION_FEE ? TRANSACTION_FEE : 0;
+            balanceAfter -= fee;
+        } while (!balance.compareAndSet(current, balanceAfter));
+        statistics.balanceMoved(-(amount + fee));
         
-        balance -= amount;
-        transactionCount++;
-        
-        // Apply transaction fee if free transactions exceeded
-        if (transactionCount > FREE_TRANSACTIONS_PER_MONTH && balance >= TRANSACTION_FEE) {
-            balance -= TRANSACTION_FEE;
+        return record(type, amount, counterparty, TransactionStatus.SUCCESS, balanceAfter, fee);
+    }
+    
+    @Override
+    public void replayPosting(Transaction posting) {
+        super.replayPosting(posting);
+        if (posting.getStatus() == TransactionStatus.SUCCESS && posting.getType() != TransactionType.REFUND) {
+            cycleCount.incrementAndGet();
         }
-        
-        Transaction txn = new Transaction(
-            TransactionType.WITHDRAWAL, amount, accountNumber,
-            TransactionStatus.SUCCESS, balance
-        );
-        addTransaction(txn);
+    }
+    
+    /**
+     * Starts a billing cycle read back from the journal. A repeat of the
+     * cycle already counting is ignored.
+     */
+    public void replayBillingCycle(int cycle) {
+        cycleCount.getAndUpdate(packed -> cycleOf(packed) == cycle ? packed : pack(cycle, 0));
+    }
+    
+    @Override
+    long balanceFloor() {
+        return -OVERDRAFT_LIMIT;
+    }
+    
+    @Override
+    TransactionStatus debitFailure(long available, long amount) {
+        return TransactionStatus.FAILED_OVERDRAFT_EXCEEDED;
+    }
+    
+    // Same rule as debit: a fee once the free postings are used, if the balance covers it
+    @Override
+    long batchDebitFee(int priorPostings, long balanceAfter) {
+        boolean feeDue = getTransactionCount() + priorPostings + 1 > FREE_TRANSACTIONS_PER_MONTH;
+        return feeDue && balanceAfter >= TRANSACTION_FEE ? TRANSACTION_FEE : 0;
+    }
+    
+    @Override
+    void countPostings(int postings) {
+        count(currentCycle(), postings);
+    }
+    
+    @Override
+    void countReplayedPostings(int postings) {
+        cycleCount.addAndGet(postings);
+    }
+    
+    @Override
+    void uncountPostings(Transaction posting, int postings) {
+        if (posting.getType() != TransactionType.REFUND) {
+            uncount(currentCycle(), postings);
+        }
+    }
+    
+    @Override
+    void setBillingCycles(BillingCycles billingCycles) {
+        this.billingCycles = billingCycles;
+        cycleEnd = Long.MIN_VALUE;
+    }
+    
+    /**
+     * The cycle the clock is in. Only the first call after a cycle boundary
+     * works out the new cycle.
+     */
+    private int currentCycle() {
+        BillingCycles cycles = billingCycles;
+        long now = cycles.now();
+        if (now >= cycleEnd) {
+            int current = cycles.cycleAt(cycleDay, now);
+            cycle = current;
+            cycleEnd = cycles.cycleEnd(cycleDay, current);
+            return current;
+        }
+        return cycle;
+    }
+    
+    /**
+     * Counts postings toward a cycle and returns its count including them.
+     * The thread whose CAS moves the count into a new cycle journals the
+     * cycle start. Until it has, the cycle is held at STARTING and other
+     * postings park, so every posting of the cycle is journaled after its
+     * start and replay counts it in the same cycle.
+     */
+    private int count(int cycle, int postings) {
+        while (true) {
+            long packed = cycleCount.get();
+            if (cycleOf(packed) != cycle) {
+                if (cycleCount.compareAndSet(packed, pack(cycle, STARTING))) {
+                    try {
+                        listener.billingCycleStarted(this, cycle);
+                    } finally {
+                        cycleCount.set(pack(cycle, postings));
+                        synchronized (cycleStarted) {
+                            cycleStarted.notifyAll();
+                        }
+                    }
+                    return postings;
+                }
+            } else if (countOf(packed) == STARTING) {
+                awaitCycleStart(packed);
+            } else {
+                int count = countOf(packed) + postings;
+                if (cycleCount.compareAndSet(packed, pack(cycle, count))) {
+                    return count;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Parks while the count is still {@code starting}. The journal write it
+     * waits for may take a whole fsync, too long to spin through.
+     */
+    private void awaitCycleStart(long starting) {
+        boolean interrupted = false;
+        synchronized (cycleStarted) {
+            while (cycleCount.get() == starting) {
+                try {
+                    cycleStarted.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        // The posting goes ahead; the interrupt is left for the caller
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void uncount(int cycle, int postings) {
+        cycleCount.getAndUpdate(packed -> cycleOf(packed) == cycle && countOf(packed) > 0
+            ? packed - Math.min(postings, countOf(packed)) : packed);
+    }
+    
+    private static long pack(int cycle, int count) {
+        return (long) cycle << 32 | (count & 0xffffffffL);
+    }
+    
+    private static int cycleOf(long packed) {
+        return (int) (packed >> 32);
+    }
+    
+    private static int countOf(long packed) {
+        return (int) packed;
+    }
+    
+    /**
+     * Sets the billing cycle and its transaction count when restoring from a snapshot.
+     */
+    public void restoreTransactionCount(int cycle, int count) {
+        cycleCount.set(pack(cycle, count));
     }
     
     public void resetTransactionCount() {
-        this.transactionCount = 0;
+        cycleCount.getAndUpdate(packed -> pack(cycleOf(packed), 0));
     }
     
     @Override
@@ -97,16 +265,20 @@ public class CheckingAccount extends BankAccount {
         return "Checking";
     }
     
-    public double getOverdraftLimit() {
+    public long getOverdraftLimit() {
         return OVERDRAFT_LIMIT;
     }
     
+    /**
+     * Postings counted in the current billing cycle.
+     */
     public int getTransactionCount() {
-        return transactionCount;
+        long packed = cycleCount.get();
+        return cycleOf(packed) == currentCycle() ? Math.max(countOf(packed), 0) : 0;
     }
     
     @Override
     public String toString() {
-        return super.toString() + String.format(", Overdraft Limit: $%.2f", OVERDRAFT_LIMIT);
+        return super.toString() + ", Overdraft Limit: $" + Money.format(OVERDRAFT_LIMIT);
     }
 }
@@ -0,0 +1,157 @@
+package models;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+
+import java.util.Arrays;
+
+/**
+ * History kept in parallel primitive arrays, one column per field, in
+ * fixed-size chunks. A row costs 58 bytes and no objects; a Transaction is
+ * only built when a row is read. The first chunk starts small and doubles,
+ * so an account with little history stays small.
+ *
+ * Appends are serialized per account; reads take no lock and see every row
+ * counted by {@link #size()}.
+ */
+class ColumnarTransactionHistory implements TransactionHistory {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int INITIAL_CAPACITY = 4;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+
+    private static final class Chunk {
+        final long[] sequence;
+        final long[] timestamp;
+        final long[] sourceAccountKey;
+        final long[] destinationAccountKey;
+        final long[] amount;
+        final long[] balanceAfter;
+        final long[] fee;
+        final byte[] type;
+        final byte[] status;
+
+        /** A chunk of the given capacity holding a copy of the rows of {@code from}, if any. */
+        Chunk(Chunk from, int capacity) {
+            sequence = grow(from == null ? null : from.sequence, capacity);
+            timestamp = grow(from == null ? null : from.timestamp, capacity);
+            sourceAccountKey = grow(from == null ? null : from.sourceAccountKey, capacity);
+            destinationAccountKey = grow(from == null ? null : from.destinationAccountKey, capacity);
+            amount = grow(from == null ? null : from.amount, capacity);
+            balanceAfter = grow(from == null ? null : from.balanceAfter, capacity);
+            fee = grow(from == null ? null : from.fee, capacity);
+            type = from == null ? new byte[capacity] : Arrays.copyOf(from.type, capacity);
+            status = from == null ? new byte[capacity] : Arrays.copyOf(from.status, capacity);
+        }
+
+        int capacity() {
+            return type.length;
+        }
+
+        private static long[] grow(long[] column, int capacity) {
+            return column == null ? new long[capacity] : Arrays.copyOf(column, capacity);
+        }
+    }
+
+    private volatile Chunk[] chunks = {new Chunk(null, INITIAL_CAPACITY)};
+    private volatile int size;
+    private long lastTimestamp = Long.MIN_VALUE;  // Guarded by the monitor
+
+    @Override
+    public synchronized int add(long sequence, long timestamp, TransactionType type, TransactionStatus status,
+                                long sourceAccountKey, long destinationAccountKey,
+                                long amount, long balanceAfter, long fee) {
+        int index = size;
+        Chunk chunk = chunkForAppend(index);
+        int row = index & (CHUNK_SIZE - 1);
+
+        chunk.sequence[row] = sequence;
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        chunk.timestamp[row] = lastTimestamp;
+        chunk.sourceAccountKey[row] = sourceAccountKey;
+        chunk.destinationAccountKey[row] = destinationAccountKey;
+        chunk.amount[row] = amount;
+        chunk.balanceAfter[row] = balanceAfter;
+        chunk.fee[row] = fee;
+        chunk.type[row] = (byte) type.ordinal();
+        chunk.status[row] = (byte) status.ordinal();
+
+        // Publishes the row to readers
+        size = index + 1;
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Transaction get(int index) {
+        checkIndex(index);
+        Chunk chunk = chunks[index >>> CHUNK_SHIFT];
+        int row = index & (CHUNK_SIZE - 1);
+        return new Transaction(chunk.sequence[row], chunk.timestamp[row],
+            TYPES[chunk.type[row]], STATUSES[chunk.status[row]],
+            chunk.sourceAccountKey[row], chunk.destinationAccountKey[row],
+            chunk.amount[row], chunk.balanceAfter[row], chunk.fee[row]);
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        checkIndex(index);
+        return chunks[index >>> CHUNK_SHIFT].timestamp[index & (CHUNK_SIZE - 1)];
+    }
+
+    @Override
+    public TransactionType typeAt(int index) {
+        checkIndex(index);
+        return TYPES[chunks[index >>> CHUNK_SHIFT].type[index & (CHUNK_SIZE - 1)]];
+    }
+
+    @Override
+    public TransactionStatus statusAt(int index) {
+        checkIndex(index);
+        return STATUSES[chunks[index >>> CHUNK_SHIFT].status[index & (CHUNK_SIZE - 1)]];
+    }
+
+    @Override
+    public long feeAt(int index) {
+        checkIndex(index);
+        return chunks[index >>> CHUNK_SHIFT].fee[index & (CHUNK_SIZE - 1)];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+
+    /**
+     * Called with the monitor held. Slots are filled before the row that
+     * needs them is published through {@code size}, so readers never see a
+     * missing chunk; a reader holding the previous first chunk still sees
+     * every row it was allowed to read.
+     */
+    private Chunk chunkForAppend(int index) {
+        Chunk[] current = chunks;
+        int chunkIndex = index >>> CHUNK_SHIFT;
+        if (chunkIndex == 0) {
+            Chunk first = current[0];
+            if (index == first.capacity()) {
+                first = new Chunk(first, Math.min(first.capacity() * 2, CHUNK_SIZE));
+                current[0] = first;
+            }
+            return first;
+        }
+        if (chunkIndex == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            chunks = current;
+        }
+        if (current[chunkIndex] == null) {
+            current[chunkIndex] = new Chunk(null, CHUNK_SIZE);
+        }
+        return current[chunkIndex];
+    }
+}
@@ -2,21 +2,25 @@ package models;
 
 import enums.AccountStatus;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 
 public class Customer {
     private String customerId;
     private String name;
-    private String pin;
+    private String pinHash;  // See PinHash
     private ArrayList<BankAccount> accounts;
-    private AccountStatus loginStatus;
+    private volatile AccountStatus loginStatus;
     private int failedLoginAttempts;
     private static final int MAX_FAILED_ATTEMPTS = 3;
+    static final String BLOCKED_MESSAGE = "Account blocked due to " + MAX_FAILED_ATTEMPTS
+        + " consecutive failed login attempts. Please contact bank administrator to unblock your account.";
+    private volatile BankStatistics statistics = BankStatistics.DETACHED;
     
-    public Customer(String customerId, String name, String pin) {
+    Customer(String customerId, String name, String pinHash) {
         this.customerId = customerId;
         this.name = name;
-        this.pin = pin;
+        this.pinHash = pinHash;
         this.accounts = new ArrayList<>();
         this.loginStatus = AccountStatus.ACTIVE;
         this.failedLoginAttempts = 0;
@@ -31,57 +35,73 @@ public class Customer {
         return name;
     }
     
-    public String getPin() {
-        return pin;
+    /**
+     * The salted hash of the PIN; the PIN itself is not kept.
+     */
+    public String getPinHash() {
+        return pinHash;
     }
     
-    public ArrayList<BankAccount> getAccounts() {
-        return accounts;
+    public synchronized ArrayList<BankAccount> getAccounts() {
+        return new ArrayList<>(accounts);
     }
     
     public AccountStatus getLoginStatus() {
         return loginStatus;
     }
     
-    public void setLoginStatus(AccountStatus status) {
+    public synchronized void setLoginStatus(AccountStatus status) {
+        statistics.customerStatusChanged(loginStatus, status);
         this.loginStatus = status;
     }
     
-    public int getFailedLoginAttempts() {
+    void setStatistics(BankStatistics statistics) {
+        this.statistics = statistics;
+        statistics.customerRegistered(this);
+    }
+    
+    public synchronized int getFailedLoginAttempts() {
         return failedLoginAttempts;
     }
     
-    public void addAccount(BankAccount account) {
+    public synchronized void addAccount(BankAccount account) {
         accounts.add(account);
     }
     
-    public boolean validatePin(String inputPin) {
+    public synchronized boolean validatePin(String inputPin) {
         if (loginStatus == AccountStatus.BLOCKED) {
             return false;
         }
         
-        if (pin.equals(inputPin)) {
+        if (PinHash.matches(inputPin, pinHash)) {
             failedLoginAttempts = 0;
             return true;
         } else {
             failedLoginAttempts++;
             if (failedLoginAttempts >= MAX_FAILED_ATTEMPTS) {
+                statistics.customerStatusChanged(loginStatus, AccountStatus.BLOCKED);
                 loginStatus = AccountStatus.BLOCKED;
-                System.out.println("\nAccount blocked due to " + MAX_FAILED_ATTEMPTS + 
-                                 " consecutive failed login attempts.");
-                System.out.println("Please contact bank administrator to unblock your account.");
             }
             return false;
         }
     }
     
-    public void resetFailedAttempts() {
+    /**
+     * Sets the count of consecutive failed logins while recovering from the
+     * journal or a snapshot.
+     */
+    public synchronized void restoreFailedLoginAttempts(int attempts) {
+        this.failedLoginAttempts = attempts;
+    }
+    
+    public synchronized void resetFailedAttempts() {
         this.failedLoginAttempts = 0;
+        statistics.customerStatusChanged(loginStatus, AccountStatus.ACTIVE);
         this.loginStatus = AccountStatus.ACTIVE;
     }
     
     public BankAccount getAccountByNumber(String accountNumber) {
-        for (BankAccount account : accounts) {
+        for (BankAccount account : getAccounts()) {
             if (account.getAccountNumber().equals(accountNumber)) {
                 return account;
             }
@@ -89,15 +109,16 @@ public class Customer {
         return null;
     }
     
-    public void displayAccounts() {
+    public void displayAccounts(PrintStream out) {
+        ArrayList<BankAccount> accounts = getAccounts();
         if (accounts.isEmpty()) {
-            System.out.println("No accounts found for this customer.");
+            out.println("No accounts found for this customer.");
             return;
         }
         
-        System.out.println("\n===== Accounts for " + name + " (ID: " + customerId + ") =====");
+        out.println("\n===== Accounts for " + name + " (ID: " + customerId + ") =====");
         for (int i = 0; i < accounts.size(); i++) {
-            System.out.println((i + 1) + ". " + accounts.get(i));
+            out.println((i + 1) + ". " + accounts.get(i));
         }
     }
     
@@ -0,0 +1,9 @@
+package models;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("bank.Deposit")
+@Label("Deposit")
+final class DepositEvent extends PostingEvent {
+}
@@ -0,0 +1,54 @@
+package models;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.util.function.Supplier;
+
+/**
+ * Whether a Flight Recorder recording is running, kept up to date by a
+ * recorder listener. The hot paths only create their events while one is,
+ * so with no recording they allocate nothing and pay one volatile read;
+ * the JIT cannot be relied on to eliminate an unused event from a path as
+ * large as a posting.
+ */
+final class FlightRecording {
+    private static volatile boolean running;
+
+    static {
+        // Adding a listener does not start the recorder
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+        update();
+    }
+
+    private FlightRecording() {
+    }
+
+    private static void update() {
+        boolean any = false;
+        if (FlightRecorder.isInitialized()) {
+            for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                any |= recording.getState() == RecordingState.RUNNING;
+            }
+        }
+        running = any;
+    }
+
+    /** A begun event if a recording is running, otherwise null. */
+    static <E extends Event> E begin(Supplier<E> factory) {
+        if (!running) {
+            return null;
+        }
+        E event = factory.get();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,33 @@
+package models;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a {@link HistoryQuery}: the postings found and a token for
+ * the next page.
+ */
+public class HistoryPage {
+    private final List<Transaction> transactions;
+    private final String nextPageToken;
+
+    HistoryPage(List<Transaction> transactions, String nextPageToken) {
+        this.transactions = Collections.unmodifiableList(transactions);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Pass to {@link HistoryQuery#after} for the next page; null on the last page.
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasMore() {
+        return nextPageToken != null;
+    }
+}
@@ -0,0 +1,197 @@
+package models;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Selects postings from an account's history: a time range, types and
+ * statuses, a direction, a limit and a page token to continue from.
+ *
+ * History timestamps never decrease, so the time range is turned into an
+ * index range with two binary searches. Only postings in that range are
+ * looked at, and only those that match are materialized, so a query costs
+ * O(log n + k) for k postings scanned.
+ *
+ * <pre>
+ * account.queryHistory(new HistoryQuery().newestFirst().limit(10));
+ * </pre>
+ */
+public class HistoryQuery {
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    private EnumSet<TransactionType> types;
+    private EnumSet<TransactionStatus> statuses;
+    private boolean newestFirst;
+    private int limit = Integer.MAX_VALUE;
+    private String pageToken;
+
+    /**
+     * Keeps postings stamped at or after {@code fromMillis} and before
+     * {@code toMillis}, both epoch millis.
+     */
+    public HistoryQuery between(long fromMillis, long toMillis) {
+        if (fromMillis > toMillis) {
+            throw new IllegalArgumentException("Range starts after it ends");
+        }
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        return this;
+    }
+
+    public HistoryQuery ofType(TransactionType first, TransactionType... rest) {
+        this.types = EnumSet.of(first, rest);
+        return this;
+    }
+
+    public HistoryQuery withStatus(TransactionStatus first, TransactionStatus... rest) {
+        this.statuses = EnumSet.of(first, rest);
+        return this;
+    }
+
+    public HistoryQuery newestFirst() {
+        this.newestFirst = true;
+        return this;
+    }
+
+    /**
+     * Most postings returned, i.e. the page size.
+     */
+    public HistoryQuery limit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Continues after the page that returned the token. The rest of the
+     * query must be the same as for that page.
+     */
+    public HistoryQuery after(String pageToken) {
+        this.pageToken = pageToken;
+        return this;
+    }
+
+    HistoryPage page(TransactionHistory history) {
+        Cursor cursor = new Cursor(history);
+        ArrayList<Transaction> items = new ArrayList<>(Math.min(limit, 64));
+        while (items.size() < limit && cursor.hasNext()) {
+            items.add(cursor.next());
+        }
+        return new HistoryPage(items, cursor.hasNext() ? cursor.token() : null);
+    }
+
+    Stream<Transaction> stream(TransactionHistory history) {
+        Iterator<Transaction> cursor = new Cursor(history);
+        Iterator<Transaction> limited = limit == Integer.MAX_VALUE ? cursor : new Iterator<>() {
+            private int returned;
+
+            @Override
+            public boolean hasNext() {
+                return returned < limit && cursor.hasNext();
+            }
+
+            @Override
+            public Transaction next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                returned++;
+                return cursor.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(limited,
+            Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Index of the first posting stamped at or after the given time.
+     */
+    private static int lowerBound(TransactionHistory history, int size, long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (history.timestampAt(middle) < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Walks the matching postings of the range in query order. Postings
+     * appended after the cursor was made are not part of it.
+     */
+    private final class Cursor implements Iterator<Transaction> {
+        private final TransactionHistory history;
+        private final int first;  // Index range [first, end)
+        private final int end;
+        private int position;     // Next index to look at
+        private boolean matched;  // position holds a match not yet returned
+
+        Cursor(TransactionHistory history) {
+            this.history = history;
+            int size = history.size();
+            first = fromMillis == Long.MIN_VALUE ? 0 : lowerBound(history, size, fromMillis);
+            end = toMillis == Long.MAX_VALUE ? size : lowerBound(history, size, toMillis);
+            position = newestFirst ? end - 1 : first;
+            if (pageToken != null) {
+                position = newestFirst ? Math.min(position, parseToken()) : Math.max(position, parseToken());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!matched && position >= first && position < end) {
+                if ((types == null || types.contains(history.typeAt(position)))
+                        && (statuses == null || statuses.contains(history.statusAt(position)))) {
+                    matched = true;
+                } else {
+                    position += newestFirst ? -1 : 1;
+                }
+            }
+            return matched;
+        }
+
+        @Override
+        public Transaction next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Transaction transaction = history.get(position);
+            matched = false;
+            position += newestFirst ? -1 : 1;
+            return transaction;
+        }
+
+        /** Token resuming at the current position, in the current direction. */
+        String token() {
+            return (newestFirst ? "d" : "a") + Integer.toString(position, 36);
+        }
+
+        private int parseToken() {
+            char direction = pageToken.isEmpty() ? '?' : pageToken.charAt(0);
+            if (direction != (newestFirst ? 'd' : 'a')) {
+                throw new IllegalArgumentException("Invalid page token: " + pageToken);
+            }
+            try {
+                return Integer.parseInt(pageToken.substring(1), 36);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page token: " + pageToken);
+            }
+        }
+    }
+}
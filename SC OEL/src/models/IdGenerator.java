@@ -0,0 +1,121 @@
+package models;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out unique 64-bit IDs without a shared hot counter.
+ *
+ * Each thread takes a block of consecutive IDs from a shared AtomicLong and
+ * serves it from a ThreadLocal, so the shared cache line is touched once
+ * per block rather than once per ID. A single thread therefore still gets
+ * consecutive IDs; several threads get increasing IDs per thread.
+ *
+ * Blocks are carved out of leases. When leasing is on, the
+ * {@link LeaseListener} is told about each new lease before any ID in it
+ * is handed out, so a journal can make the lease durable and a restart can
+ * resume past every ID that may have been seen.
+ */
+public final class IdGenerator {
+    /**
+     * Receives the exclusive upper bound of a new lease. Throwing fails the
+     * operation that needed an ID.
+     */
+    public interface LeaseListener {
+        LeaseListener NONE = limit -> { };
+
+        void leased(long limit);
+    }
+
+    private static final class Block {
+        long next;
+        long limit;
+        int epoch = -1;
+    }
+
+    private final int blockSize;
+    private final long leaseSize;
+    private final AtomicLong nextBlock;
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    // Rarely written, so readers on the fast path share the line without contention
+    private volatile long leaseLimit;
+    private volatile int epoch;
+    private volatile LeaseListener leaseListener = LeaseListener.NONE;
+
+    /**
+     * @param first     the first ID handed out
+     * @param blockSize IDs a thread takes at a time
+     * @param leaseSize IDs covered by one lease, or 0 to not lease
+     */
+    public IdGenerator(long first, int blockSize, long leaseSize) {
+        if (blockSize < 1 || leaseSize < 0 || (leaseSize > 0 && leaseSize < blockSize)) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize + " or lease size " + leaseSize);
+        }
+        this.blockSize = blockSize;
+        this.leaseSize = leaseSize;
+        this.nextBlock = new AtomicLong(first);
+        this.leaseLimit = first;
+    }
+
+    public long next() {
+        Block block = blocks.get();
+        if (block.next == block.limit || block.epoch != epoch) {
+            refill(block);
+        }
+        return block.next++;
+    }
+
+    private void refill(Block block) {
+        int current = epoch;
+        long start = nextBlock.getAndAdd(blockSize);
+        long end = start + blockSize;
+        if (leaseSize > 0 && end > leaseLimit) {
+            extendLease(end);
+        }
+        block.next = start;
+        block.limit = end;
+        block.epoch = current;
+    }
+
+    private synchronized void extendLease(long end) {
+        long limit = leaseLimit;
+        if (end <= limit) {
+            return;
+        }
+        while (limit < end) {
+            limit += leaseSize;
+        }
+        leaseListener.leased(limit);
+        leaseLimit = limit;
+    }
+
+    /**
+     * The highest ID that may have been handed out so far.
+     */
+    public long getLastIssued() {
+        return (leaseSize > 0 ? leaseLimit : nextBlock.get()) - 1;
+    }
+
+    /**
+     * Makes every ID handed out from now on greater than {@code last}.
+     * Blocks already taken by threads are dropped. Meant for recovery, before
+     * other threads take IDs.
+     */
+    public synchronized void advance(long last) {
+        nextBlock.accumulateAndGet(last + 1, Math::max);
+        if (leaseLimit <= last) {
+            leaseLimit = last + 1;
+        }
+        epoch++;
+    }
+
+    /**
+     * Sets the lease listener and starts a new lease, so no ID is handed out
+     * under a lease the listener has not seen.
+     */
+    public synchronized void setLeaseListener(LeaseListener leaseListener) {
+        this.leaseListener = leaseListener;
+        leaseLimit = Math.min(leaseLimit, nextBlock.get());
+        epoch++;
+    }
+}
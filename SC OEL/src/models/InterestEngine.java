@@ -0,0 +1,126 @@
+package models;
+
+import enums.InterestMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Posts one period's interest to every savings account of a bank.
+ *
+ * The accounts are split fork-join style into slices of {@link #SLICE_SIZE}.
+ * Each slice credits its accounts with the same CAS as a deposit, so ATM
+ * activity can carry on during the run, and hands the whole slice to the
+ * event listener at once, so the journal writes one record per slice
+ * instead of one per account.
+ *
+ * Under {@link InterestMode#DAILY_ACCRUAL} the run first closes the bank's
+ * interest period, then sweeps the accounts to settle what they accrued.
+ * Accounts touched after the close settle themselves first, so the sweep
+ * skips them.
+ */
+public class InterestEngine {
+    static final int SLICE_SIZE = 512;
+
+    private final Bank bank;
+    private final ForkJoinPool pool;
+
+    public InterestEngine(Bank bank) {
+        this(bank, ForkJoinPool.commonPool());
+    }
+
+    public InterestEngine(Bank bank, ForkJoinPool pool) {
+        this.bank = bank;
+        this.pool = pool;
+    }
+
+    public InterestRun run() {
+        InterestRunEvent event = FlightRecording.begin(InterestRunEvent::new);
+        long start = System.nanoTime();
+        ArrayList<SavingsAccount> savings = new ArrayList<>();
+        for (BankAccount account : bank.getAllAccounts()) {
+            if (account instanceof SavingsAccount) {
+                savings.add((SavingsAccount) account);
+            }
+        }
+        SavingsAccount[] accounts = savings.toArray(new SavingsAccount[0]);
+
+        boolean accrual = bank.getInterestMode() == InterestMode.DAILY_ACCRUAL;
+        Function<SavingsAccount, Transaction> post;
+        if (accrual) {
+            bank.closeInterestPeriod();
+            post = account -> account.settleAccrual(false);
+        } else {
+            post = SavingsAccount::postInterest;
+        }
+        long totalInterest = accounts.length == 0 ? 0
+            : pool.invoke(new Slice(accrual, post, accounts, 0, accounts.length));
+        InterestRunEvent.finish(event, bank.getInterestMode().name(), accounts.length, totalInterest);
+        return new InterestRun(accounts.length, totalInterest, System.nanoTime() - start);
+    }
+
+    private final class Slice extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean accrual;
+        private final Function<SavingsAccount, Transaction> post;
+        private final SavingsAccount[] accounts;
+        private final int from;
+        private final int to;
+
+        Slice(boolean accrual, Function<SavingsAccount, Transaction> post, SavingsAccount[] accounts,
+              int from, int to) {
+            this.accrual = accrual;
+            this.post = post;
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > SLICE_SIZE) {
+                int middle = (from + to) >>> 1;
+                Slice left = new Slice(accrual, post, accounts, from, middle);
+                left.fork();
+                long right = new Slice(accrual, post, accounts, middle, to).compute();
+                return right + left.join();
+            }
+
+            BankAccount[] posted = new BankAccount[to - from];
+            Transaction[] postings = new Transaction[to - from];
+            int count = 0;
+            long total = 0;
+            for (int i = from; i < to; i++) {
+                Transaction posting = post.apply(accounts[i]);
+                if (posting != null) {
+                    posted[count] = accounts[i];
+                    postings[count++] = posting;
+                    total += posting.getAmount();
+                }
+            }
+            if (count > 0) {
+                if (count < posted.length) {
+                    posted = Arrays.copyOf(posted, count);
+                    postings = Arrays.copyOf(postings, count);
+                }
+                try {
+                    if (accrual) {
+                        bank.getEventListener().accrualSettled(posted, postings);
+                    } else {
+                        bank.getEventListener().interestPosted(posted, postings);
+                    }
+                } catch (RuntimeException e) {
+                    for (int i = 0; i < count; i++) {
+                        posted[i].revert(postings[i]);
+                    }
+                    throw e;
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package models;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * The bank-wide calendar of interest periods for daily accrual. Closing a
+ * period only records its end time; each savings account settles the
+ * periods it has missed the next time it is touched, or when the interest
+ * engine sweeps it. {@link Bank#closeInterestPeriod} closes a period and
+ * journals the close.
+ *
+ * Times are whole seconds from the clock given at construction.
+ */
+public final class InterestPeriods {
+    private final LongSupplier clock;
+
+    // ends[i] is the end of period i and the start of period i + 1; copy on write
+    private volatile long[] ends = new long[0];
+
+    public InterestPeriods() {
+        this(() -> MillisClock.now() / 1000);
+    }
+
+    /**
+     * @param clock the current time in seconds
+     */
+    public InterestPeriods(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Index of the open period. Starts at 0 and grows by one per close.
+     */
+    public int current() {
+        return ends.length;
+    }
+
+    long end(int period) {
+        return ends[period];
+    }
+
+    /**
+     * When the open period would end if it were closed now: the current
+     * time, but never before the end of the previous period.
+     */
+    long nextEnd() {
+        long[] current = ends;
+        return current.length == 0 ? now() : Math.max(now(), current[current.length - 1]);
+    }
+
+    /**
+     * Ends the open period at the given time and returns its index. Used
+     * both to close the period and to restore a close read back from the
+     * journal or a snapshot.
+     */
+    public synchronized int close(long end) {
+        long[] current = ends;
+        int period = current.length;
+        long[] grown = Arrays.copyOf(current, period + 1);
+        grown[period] = end;
+        ends = grown;
+        return period;
+    }
+}
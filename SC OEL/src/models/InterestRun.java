@@ -0,0 +1,39 @@
+package models;
+
+/**
+ * Outcome of one {@link InterestEngine} run.
+ */
+public class InterestRun {
+    private final int accounts;
+    private final long totalInterest;
+    private final long elapsedNanos;
+
+    InterestRun(int accounts, long totalInterest, long elapsedNanos) {
+        this.accounts = accounts;
+        this.totalInterest = totalInterest;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /** Interest credited across all accounts, in cents. */
+    public long getTotalInterest() {
+        return totalInterest;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getAccountsPerSecond() {
+        return elapsedNanos == 0 ? 0 : accounts * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Interest of $%s posted to %d savings accounts in %.1f ms (%.0f accounts/s)",
+                             Money.format(totalInterest), accounts, elapsedNanos / 1e6, getAccountsPerSecond());
+    }
+}
@@ -0,0 +1,32 @@
+package models;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event of one month-end interest run. */
+@Name("bank.InterestRun")
+@Label("Interest Run")
+@Category({"Banking", "Batch"})
+final class InterestRunEvent extends Event {
+    @Label("Interest Mode")
+    String mode;
+
+    @Label("Accounts")
+    int accounts;
+
+    @Label("Total Interest")
+    @Description("In cents")
+    long totalInterest;
+
+    static void finish(InterestRunEvent event, String mode, int accounts, long totalInterest) {
+        if (event != null && event.shouldCommit()) {
+            event.mode = mode;
+            event.accounts = accounts;
+            event.totalInterest = totalInterest;
+            event.commit();
+        }
+    }
+}
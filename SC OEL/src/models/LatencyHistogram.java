@@ -0,0 +1,130 @@
+package models;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets: one per
+ * value below 8, then four per power of two, so a bucket's bounds are
+ * within 25% of each other. Recording allocates nothing and takes no
+ * lock; bucket counts are striped by thread so concurrent recorders
+ * rarely update the same slot.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR = 8;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = LINEAR + (63 - 3) * SUB_BUCKETS;
+    private static final int STRIPES = 8;
+    // Threads take stripes in turn as they first record, so they spread evenly
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+    private static final ThreadLocal<Integer> STRIPE =
+        ThreadLocal.withInitial(() -> NEXT_STRIPE.getAndIncrement() & (STRIPES - 1));
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int stripe = STRIPE.get();
+        counts.getAndIncrement(stripe * BUCKETS + bucketOf(nanos));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < LINEAR) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 3) * SUB_BUCKETS + sub;
+    }
+
+    /** Smallest value that falls in the bucket. */
+    static long lowerBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = 3 + (bucket - LINEAR) / SUB_BUCKETS;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Copies the counts. Recording may go on meanwhile, so the copy can be
+     * a few recordings behind in places.
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long value = counts.get(i);
+            buckets[i % BUCKETS] += value;
+            count += value;
+        }
+        return new Snapshot(buckets, count, total.sum(), max.get());
+    }
+
+    /** Counts of a histogram at one point in time. */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] buckets, long count, long totalNanos, long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Upper estimate of the given percentile, e.g. 99.9: the top of the
+         * bucket holding it, capped at the largest value seen.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank) {
+                    long upper = bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(upper, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /** Count of values in each bucket, for export. */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        /** Smallest value counted in the bucket. */
+        public static long getBucketLowerBound(int bucket) {
+            return lowerBound(bucket);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package models;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight Recorder event of one customer login attempt. */
+@Name("bank.Login")
+@Label("Login")
+@Category({"Banking", "Sessions"})
+@StackTrace(false)
+final class LoginEvent extends Event {
+    @Label("Customer")
+    String customerId;
+
+    @Label("Outcome")
+    @Description("SUCCESS, FAILED_INVALID_ACCOUNT for an unknown customer, FAILED_INVALID_PIN for a wrong PIN, or FAILED_ACCOUNT_BLOCKED")
+    String outcome;
+
+    static void finish(LoginEvent event, String customerId, String outcome) {
+        if (event != null && event.shouldCommit()) {
+            event.customerId = customerId;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package models;
+
+/**
+ * Fixed-point money helpers. Amounts are plain {@code long} values in cents,
+ * so arithmetic is exact and never boxes; only formatting builds a String.
+ */
+public final class Money {
+    public static final long CENTS_PER_DOLLAR = 100;
+    public static final long BASIS_POINTS = 10_000;
+
+    private Money() {
+    }
+
+    /**
+     * Whole dollars to cents, e.g. {@code dollars(500)} is $500.00.
+     */
+    public static long dollars(long dollars) {
+        return Math.multiplyExact(dollars, CENTS_PER_DOLLAR);
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Applies a rate given in basis points (1/100 of a percent), rounding
+     * half away from zero to the nearest cent.
+     */
+    public static long applyRate(long cents, long basisPoints) {
+        long product = Math.multiplyExact(cents, basisPoints);
+        long half = product >= 0 ? BASIS_POINTS / 2 : -BASIS_POINTS / 2;
+        return (product + half) / BASIS_POINTS;
+    }
+
+    /**
+     * Exact sum of a run of amounts. A plain counted loop over a long[] so
+     * the JIT can unroll and vectorize it.
+     */
+    public static long sum(long[] cents, int from, int to) {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += cents[i];
+        }
+        return total;
+    }
+
+    /**
+     * Parses a decimal amount such as "12", "12.5" or "12.50" without going
+     * through double. More than two decimal places is rejected.
+     */
+    public static long parse(String text) {
+        String s = text.trim();
+        int i = 0;
+        boolean negative = false;
+        if (!s.isEmpty() && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+
+        long whole = 0;
+        int wholeDigits = 0;
+        for (; i < s.length() && s.charAt(i) != '.'; i++) {
+            whole = Math.addExact(Math.multiplyExact(whole, 10), digit(s, i));
+            wholeDigits++;
+        }
+
+        long fraction = 0;
+        int fractionDigits = 0;
+        if (i < s.length()) {
+            for (i++; i < s.length(); i++) {
+                if (++fractionDigits > 2) {
+                    throw new NumberFormatException("At most 2 decimal places allowed: " + text);
+                }
+                fraction = fraction * 10 + digit(s, i);
+            }
+        }
+
+        if (wholeDigits == 0 && fractionDigits == 0) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+
+        long cents = Math.addExact(dollars(whole), fraction);
+        return negative ? -cents : cents;
+    }
+
+    private static int digit(String s, int index) {
+        char c = s.charAt(index);
+        if (c < '0' || c > '9') {
+            throw new NumberFormatException("Not an amount: " + s);
+        }
+        return c - '0';
+    }
+
+    /**
+     * Formats cents as a plain decimal with two places, e.g. "-1234.05".
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Appends the two-place decimal form of cents without an intermediate String.
+     */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        // Long.MIN_VALUE has no positive counterpart, so split before negating
+        long whole = Math.abs(cents / CENTS_PER_DOLLAR);
+        int fraction = (int) Math.abs(cents % CENTS_PER_DOLLAR);
+        sb.append(whole).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+}
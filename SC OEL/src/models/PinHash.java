@@ -0,0 +1,59 @@
+package models;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Salted SHA-256 hashes of customer PINs, so a PIN is never kept in
+ * memory, the journal or a snapshot as entered. A hash is encoded as
+ * {@code salt$digest}, both in Base64.
+ *
+ * A short PIN can still be found from its hash by trying every value; the
+ * lockout after failed logins is what protects it at the ATM.
+ */
+public final class PinHash {
+    private static final int SALT_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PinHash() {
+    }
+
+    /**
+     * Hashes a PIN under a new random salt.
+     */
+    public static String hash(String pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return base64.encodeToString(salt) + "$" + base64.encodeToString(digest(salt, pin));
+    }
+
+    /**
+     * Whether the PIN hashes to the given hash under its salt. Takes the
+     * same time wherever the digests differ.
+     */
+    static boolean matches(String pin, String hash) {
+        int separator = hash.indexOf('$');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Not a PIN hash");
+        }
+        Base64.Decoder base64 = Base64.getDecoder();
+        byte[] salt = base64.decode(hash.substring(0, separator));
+        byte[] expected = base64.decode(hash.substring(separator + 1));
+        return MessageDigest.isEqual(expected, digest(salt, pin));
+    }
+
+    private static byte[] digest(byte[] salt, String pin) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(salt);
+            return sha256.digest(pin.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package models;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of one posting, timed from the call to its outcome.
+ * Events are only created while a recording is running (see
+ * {@link FlightRecording}) and only filled in when their settings pass.
+ */
+@Category({"Banking", "Postings"})
+@StackTrace(false)
+abstract class PostingEvent extends Event {
+    @Label("Account")
+    String account;
+
+    @Label("Counterparty")
+    @Description("The other account of a transfer")
+    String counterparty;
+
+    @Label("Amount")
+    @Description("In cents")
+    long amount;
+
+    @Label("Fee")
+    @Description("In cents")
+    long fee;
+
+    @Label("Outcome")
+    @Description("TransactionStatus of the posting, or the exception it failed with")
+    String outcome;
+
+    /** Commits the event, if there is one and it passes its settings. */
+    static void finish(PostingEvent event, String account, String counterparty, long amount, long fee,
+                       String outcome) {
+        if (event != null && event.shouldCommit()) {
+            event.account = account;
+            event.counterparty = counterparty;
+            event.amount = amount;
+            event.fee = fee;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+}
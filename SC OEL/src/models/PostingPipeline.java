@@ -0,0 +1,486 @@
+package models;
+
+import enums.AccountStatus;
+import enums.TransactionStatus;
+import enums.TransactionType;
+import exceptions.AccountBlockedException;
+import exceptions.InvalidAccountException;
+import exceptions.SameAccountTransferException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer execution of postings. Accounts are split into partitions
+ * by account number, and each partition is owned by one thread that
+ * drains a bounded queue of commands and applies them without taking
+ * account locks.
+ *
+ * The owner works in steps: it takes everything queued so far, applies
+ * each command, reports the step's postings to the bank's listener in one
+ * call, so the journal makes them durable with one write, and only then
+ * completes the callers' futures. Other records the step produces, such as
+ * failed postings and billing cycle starts, are held back into the same
+ * write, so the owner waits for the journal once per step. If that write
+ * fails, the step's balance changes are taken back before its futures
+ * fail. A full queue blocks submitters until the owner catches up.
+ *
+ * A transfer between partitions runs as legs. The source partition
+ * debits, then the destination partition credits; if the destination was
+ * blocked in between, or the step holding the credit fails to journal,
+ * the source partition refunds the amount and fee. The debit is durable
+ * by then, so a refund is never taken back: if its own journal write
+ * fails, it stays applied and the owner retries it, backing off while the
+ * journal keeps refusing, and giving up only after close.
+ * Within one partition both halves are applied in the same step and
+ * journaled as one transfer.
+ */
+public class PostingPipeline implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final int MAX_STEP = 256;
+    private static final int MAX_REFUND_RETRIES_ON_CLOSE = 10;
+    private static final long MAX_REFUND_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int DEPOSIT = 0;
+    private static final int WITHDRAW = 1;
+    private static final int TRANSFER = 2;
+    private static final int CREDIT_LEG = 3;
+    private static final int REFUND_LEG = 4;
+
+    private final Bank bank;
+    private final Partition[] partitions;
+    // Commands and legs queued or in a step, across all partitions. A step's
+    // own are only dropped once the legs it hands off are counted, so while
+    // any work could still reach a partition this stays above zero.
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean closed;
+
+    public PostingPipeline(Bank bank, int partitions) {
+        this(bank, partitions, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param partitions    number of owner threads
+     * @param queueCapacity commands each partition queues before submitters block
+     */
+    public PostingPipeline(Bank bank, int partitions, int queueCapacity) {
+        if (partitions < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid partitions " + partitions + " or capacity " + queueCapacity);
+        }
+        this.bank = bank;
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i, queueCapacity);
+        }
+        for (Partition partition : this.partitions) {
+            partition.owner.start();
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    public int partitionOf(String accountNumber) {
+        return Math.floorMod(accountNumber.hashCode(), partitions.length);
+    }
+
+    /** Commands and transfer legs applied so far, over all partitions. */
+    public long getCommandCount() {
+        long commands = 0;
+        for (Partition partition : partitions) {
+            commands += partition.applied;
+        }
+        return commands;
+    }
+
+    /** Average commands applied per step, i.e. per journal write. */
+    public double getAverageStepSize() {
+        long steps = 0;
+        for (Partition partition : partitions) {
+            steps += partition.steps;
+        }
+        return steps == 0 ? 0 : (double) getCommandCount() / steps;
+    }
+
+    public CompletableFuture<Transaction> deposit(String accountNumber, long amount) {
+        return submit(DEPOSIT, accountNumber, null, amount);
+    }
+
+    public CompletableFuture<Transaction> withdraw(String accountNumber, long amount) {
+        return submit(WITHDRAW, accountNumber, null, amount);
+    }
+
+    /**
+     * Completes with the TRANSFER_OUT posting of the source account once
+     * the destination has been credited.
+     */
+    public CompletableFuture<Transaction> transfer(String sourceAccountNumber, String destinationAccountNumber,
+                                                   long amount) {
+        return submit(TRANSFER, sourceAccountNumber, destinationAccountNumber, amount);
+    }
+
+    private CompletableFuture<Transaction> submit(int kind, String accountNumber, String counterparty,
+                                                  long amount) {
+        CompletableFuture<Transaction> future = new CompletableFuture<>();
+        BankAccount account = bank.getAccount(accountNumber);
+        if (account == null) {
+            future.completeExceptionally(new InvalidAccountException("Account not found: " + accountNumber));
+            return future;
+        }
+        // Counted before closed is read, so owners cannot stop while this command may still be queued
+        pending.incrementAndGet();
+        if (closed) {
+            pending.decrementAndGet();
+            throw new IllegalStateException("Pipeline is closed.");
+        }
+        Partition partition = partitions[partitionOf(accountNumber)];
+        Command command = new Command(kind, account, counterparty, amount, future);
+        try {
+            partition.commands.put(command);
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        partition.wake();
+        return future;
+    }
+
+    /**
+     * Refuses new commands, applies every command already accepted along
+     * with the legs it leads to, then stops the owner threads. Waits for
+     * them even if interrupted, keeping the interrupt for the caller.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Partition partition : partitions) {
+            partition.wake();
+        }
+        boolean interrupted = false;
+        for (Partition partition : partitions) {
+            while (partition.owner.isAlive()) {
+                try {
+                    partition.owner.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One queued operation, or one leg of a transfer started on another
+     * partition.
+     */
+    private static final class Command {
+        final int kind;
+        final BankAccount account;
+        final String counterparty;
+        final long amount;
+        final CompletableFuture<Transaction> future;
+        Transaction transferOut;  // Legs: the source's debit
+        Exception failure;        // Refund leg: why the credit failed
+
+        Command(int kind, BankAccount account, String counterparty, long amount,
+                CompletableFuture<Transaction> future) {
+            this.kind = kind;
+            this.account = account;
+            this.counterparty = counterparty;
+            this.amount = amount;
+            this.future = future;
+        }
+    }
+
+    private final class Partition {
+        private final ArrayBlockingQueue<Command> commands;
+        // Legs from other partitions; not bounded, so owners never block on each other
+        private final ConcurrentLinkedQueue<Command> legs = new ConcurrentLinkedQueue<>();
+        private final Thread owner;
+        private volatile boolean idle;
+
+        // Written by the owner only
+        private final ArrayList<Command> step = new ArrayList<>(MAX_STEP);
+        private final ArrayList<Command> handoffs = new ArrayList<>();
+        // Refunds applied by a step whose journal write failed
+        private final ArrayList<BankAccount> unjournaledAccounts = new ArrayList<>();
+        private final ArrayList<Transaction> unjournaledRefunds = new ArrayList<>();
+        private int refundRetries;
+        private final Transaction[] results = new Transaction[MAX_STEP];
+        private final Exception[] failures = new Exception[MAX_STEP];
+        private BankAccount[] postedAccounts = new BankAccount[MAX_STEP];
+        private Transaction[] postings = new Transaction[MAX_STEP];
+        private boolean[] refunds = new boolean[MAX_STEP];  // Postings refunding a durable debit
+        private int posted;
+        private volatile long steps;
+        private volatile long applied;
+
+        Partition(int index, int queueCapacity) {
+            this.commands = new ArrayBlockingQueue<>(queueCapacity);
+            this.owner = new Thread(this::run, "pipeline-" + index);
+            this.owner.setDaemon(true);
+        }
+
+        void wake() {
+            if (idle) {
+                LockSupport.unpark(owner);
+            }
+        }
+
+        void handOff(Command leg) {
+            pending.incrementAndGet();
+            legs.add(leg);
+            wake();
+        }
+
+        private void run() {
+            while (true) {
+                for (Command leg; step.size() < MAX_STEP && (leg = legs.poll()) != null; ) {
+                    step.add(leg);
+                }
+                commands.drainTo(step, MAX_STEP - step.size());
+                if (!step.isEmpty()) {
+                    int size = step.size();
+                    apply();
+                    pending.addAndGet(-size);
+                    continue;
+                }
+                if (!unjournaledRefunds.isEmpty()
+                        && !(closed && refundRetries >= MAX_REFUND_RETRIES_ON_CLOSE)) {
+                    idle = true;
+                    if (legs.isEmpty() && commands.isEmpty()) {
+                        long backoff = TimeUnit.MILLISECONDS.toNanos(1) << Math.min(refundRetries, 7);
+                        LockSupport.parkNanos(this, Math.min(backoff, MAX_REFUND_BACKOFF_NANOS));
+                    }
+                    idle = false;
+                    refundRetries++;
+                    apply();
+                    continue;
+                }
+                if (closed && pending.get() == 0) {
+                    return;
+                }
+                // Submitters check idle after queuing, so a command queued before this is seen below
+                idle = true;
+                if (legs.isEmpty() && commands.isEmpty()) {
+                    if (closed) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                idle = false;
+            }
+        }
+
+        private void apply() {
+            int size = step.size();
+            BankEventListener listener = bank.getEventListener();
+            listener.stepStarted();
+            for (int i = 0; i < unjournaledRefunds.size(); i++) {
+                refund(unjournaledAccounts.get(i), unjournaledRefunds.get(i));
+            }
+            unjournaledAccounts.clear();
+            unjournaledRefunds.clear();
+            for (int i = 0; i < size; i++) {
+                try {
+                    results[i] = execute(step.get(i));
+                } catch (Exception e) {
+                    failures[i] = e;
+                }
+            }
+
+            try {
+                listener.postedTogether(postedAccounts, postings, posted);
+                refundRetries = 0;
+            } catch (RuntimeException e) {
+                revert();
+                failStep(e);
+            }
+
+            for (int i = 0; i < size; i++) {
+                Command command = step.get(i);
+                if (failures[i] != null) {
+                    command.future.completeExceptionally(failures[i]);
+                } else if (results[i] != null) {
+                    command.future.complete(results[i]);
+                }
+                results[i] = null;
+                failures[i] = null;
+            }
+            // Later legs start only once the postings before them are durable
+            for (Command leg : handoffs) {
+                partitions[partitionOf(leg.account.getAccountNumber())].handOff(leg);
+            }
+            handoffs.clear();
+            Arrays.fill(postedAccounts, 0, posted, null);
+            Arrays.fill(postings, 0, posted, null);
+            Arrays.fill(refunds, 0, posted, false);
+            posted = 0;
+            step.clear();
+            applied += size;
+            steps++;
+        }
+
+        /**
+         * Takes back the balance changes of a step whose journal write
+         * failed, so no caller sees money the journal does not hold.
+         * Refunds of durable debits stay applied and are kept for the next
+         * step instead.
+         */
+        private void revert() {
+            for (int i = 0; i < posted; i++) {
+                Transaction posting = postings[i];
+                if (refunds[i]) {
+                    unjournaledAccounts.add(postedAccounts[i]);
+                    unjournaledRefunds.add(posting);
+                    continue;
+                }
+                BankAccount account = postedAccounts[i] != null ? postedAccounts[i]
+                                                                : bank.getAccount(posting.getSourceAccountNumber());
+                account.revert(posting);
+            }
+        }
+
+        /**
+         * Settles the commands of a step whose journal write failed. Credit
+         * legs were taken back, but their debits are durable on the source
+         * partition, so each is refunded there and the refund completes the
+         * caller's future. Credit legs for the step's own debits are
+         * dropped with those debits; every other command fails.
+         */
+        private void failStep(RuntimeException failure) {
+            handoffs.removeIf(leg -> leg.kind == CREDIT_LEG);
+            for (int i = 0; i < step.size(); i++) {
+                Command command = step.get(i);
+                if (command.kind != CREDIT_LEG) {
+                    failures[i] = failure;
+                } else if (results[i] != null) {
+                    // A credit that failed on its own already handed off its refund
+                    handoffs.add(refundLeg(command, failure));
+                    results[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Applies one command. Returns the posting to complete its future
+         * with, or null if a later leg completes it.
+         */
+        private Transaction execute(Command command) throws Exception {
+            BankAccount account = command.account;
+            switch (command.kind) {
+                case DEPOSIT:
+                    return post(account, account.credit(command.amount, TransactionType.DEPOSIT, null));
+                case WITHDRAW:
+                    return post(account, account.debit(command.amount, TransactionType.WITHDRAWAL, null));
+                case TRANSFER:
+                    return transfer(command);
+                case CREDIT_LEG:
+                    try {
+                        post(account, account.credit(command.amount, TransactionType.TRANSFER_IN,
+                                                     command.counterparty));
+                        return command.transferOut;
+                    } catch (Exception e) {
+                        handoffs.add(refundLeg(command, e));
+                        return null;
+                    }
+                case REFUND_LEG:
+                    refund(account, account.refund(command.transferOut.getAmount() + command.transferOut.getFee(),
+                                                   command.counterparty));
+                    throw command.failure;
+                default:
+                    throw new IllegalStateException("Unknown command " + command.kind);
+            }
+        }
+
+        private Transaction transfer(Command command) throws Exception {
+            BankAccount source = command.account;
+            String destinationAccountNumber = command.counterparty;
+            if (command.amount <= 0) {
+                throw new IllegalArgumentException("Transfer amount must be positive.");
+            }
+            BankAccount destination = bank.getAccount(destinationAccountNumber);
+            if (destination == null) {
+                source.record(TransactionType.TRANSFER_OUT, command.amount, destinationAccountNumber,
+                              TransactionStatus.FAILED_INVALID_ACCOUNT);
+                throw new InvalidAccountException("Destination account not found: " + destinationAccountNumber);
+            }
+            if (destination == source) {
+                throw new SameAccountTransferException();
+            }
+            if (destination.getStatus() != AccountStatus.ACTIVE) {
+                throw new AccountBlockedException("Destination account is not active.");
+            }
+
+            Transaction transferOut = source.debit(command.amount, TransactionType.TRANSFER_OUT,
+                                                   destinationAccountNumber);
+            if (partitions[partitionOf(destinationAccountNumber)] != this) {
+                post(source, transferOut);
+                Command credit = new Command(CREDIT_LEG, destination, source.getAccountNumber(),
+                                             command.amount, command.future);
+                credit.transferOut = transferOut;
+                handoffs.add(credit);
+                return null;
+            }
+
+            // Both halves are owned here, so they are journaled as one transfer record
+            Transaction transferIn;
+            try {
+                transferIn = destination.credit(command.amount, TransactionType.TRANSFER_IN,
+                                                source.getAccountNumber());
+            } catch (Exception e) {
+                post(source, transferOut);
+                post(source, source.refund(transferOut.getAmount() + transferOut.getFee(),
+                                           destinationAccountNumber));
+                throw e;
+            }
+            post(null, transferOut);
+            post(destination, transferIn);
+            return transferOut;
+        }
+
+        /** The leg refunding the source of a credit leg that failed. */
+        private Command refundLeg(Command credit, Exception failure) {
+            BankAccount source = bank.getAccount(credit.counterparty);
+            Command refund = new Command(REFUND_LEG, source, credit.account.getAccountNumber(),
+                                         credit.amount, credit.future);
+            refund.transferOut = credit.transferOut;
+            refund.failure = failure;
+            return refund;
+        }
+
+        /** Queues a refund of a durable debit for the step's listener call. */
+        private void refund(BankAccount account, Transaction refund) {
+            post(account, refund);
+            refunds[posted - 1] = true;
+        }
+
+        /**
+         * Queues a posting for the step's listener call; a null account
+         * marks a transfer, whose TRANSFER_IN posting is queued next.
+         */
+        private Transaction post(BankAccount account, Transaction transaction) {
+            if (posted == postings.length) {
+                postedAccounts = Arrays.copyOf(postedAccounts, posted * 2);
+                postings = Arrays.copyOf(postings, posted * 2);
+                refunds = Arrays.copyOf(refunds, posted * 2);
+            }
+            postedAccounts[posted] = account;
+            postings[posted] = transaction;
+            posted++;
+            return transaction;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package models;
+
+/**
+ * An append-only list of row references for a {@link TransactionIndex}.
+ * Appends are serialized; reads take no lock and see every reference
+ * counted by {@link #size()}.
+ */
+public interface RefList {
+    void add(long ref);
+
+    int size();
+
+    long get(int index);
+}
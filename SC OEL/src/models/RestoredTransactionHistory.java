@@ -0,0 +1,61 @@
+package models;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+
+/**
+ * History of an account restored from a snapshot: the postings the
+ * snapshot holds, read where the snapshot keeps them, followed by those
+ * recorded since in the bank's own history store. The restored part is
+ * never written to.
+ */
+final class RestoredTransactionHistory implements TransactionHistory {
+    private final TransactionHistory restored;
+    private final int restoredSize;
+    private final long restoredLastTimestamp;
+    private final TransactionHistory recent;
+
+    RestoredTransactionHistory(TransactionHistory restored, TransactionHistory recent) {
+        this.restored = restored;
+        this.restoredSize = restored.size();
+        this.restoredLastTimestamp = restoredSize > 0 ? restored.timestampAt(restoredSize - 1) : Long.MIN_VALUE;
+        this.recent = recent;
+    }
+
+    @Override
+    public int add(long sequence, long timestamp, TransactionType type, TransactionStatus status,
+                   long sourceAccountKey, long destinationAccountKey, long amount, long balanceAfter, long fee) {
+        return restoredSize + recent.add(sequence, Math.max(timestamp, restoredLastTimestamp), type, status,
+                                         sourceAccountKey, destinationAccountKey, amount, balanceAfter, fee);
+    }
+
+    @Override
+    public int size() {
+        return restoredSize + recent.size();
+    }
+
+    @Override
+    public Transaction get(int index) {
+        return index < restoredSize ? restored.get(index) : recent.get(index - restoredSize);
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return index < restoredSize ? restored.timestampAt(index) : recent.timestampAt(index - restoredSize);
+    }
+
+    @Override
+    public TransactionType typeAt(int index) {
+        return index < restoredSize ? restored.typeAt(index) : recent.typeAt(index - restoredSize);
+    }
+
+    @Override
+    public TransactionStatus statusAt(int index) {
+        return index < restoredSize ? restored.statusAt(index) : recent.statusAt(index - restoredSize);
+    }
+
+    @Override
+    public long feeAt(int index) {
+        return index < restoredSize ? restored.feeAt(index) : recent.feeAt(index - restoredSize);
+    }
+}
@@ -7,30 +7,57 @@ import exceptions.AccountBlockedException;
 import exceptions.InsufficientFundsException;
 import exceptions.MinimumBalanceException;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
 public class SavingsAccount extends BankAccount {
-    private static final double MINIMUM_BALANCE = 500.0;
-    private static final double INTEREST_RATE = 0.03; // 3% annual interest
+    private static final long MINIMUM_BALANCE = Money.dollars(500);
+    private static final long INTEREST_RATE_BPS = 300; // 3% annual interest
+    private static final InterestPeriods UNATTACHED = new InterestPeriods();
+    
+    // Daily accrual. The balance-seconds of the open period are
+    // balance * (now - accrualStart) - weightedDeltas, where weightedDeltas
+    // sums each balance change times its offset into the period. Postings
+    // add to it under the read side of accrualGuard, so they stay concurrent
+    // with each other; settling a period takes the write side. Periods
+    // closed since the last settlement are paid by the next posting or
+    // interest run, never by a read.
+    private final StampedLock accrualGuard = new StampedLock();
+    private final AtomicLong weightedDeltas = new AtomicLong();
+    private volatile InterestPeriods periods = UNATTACHED;
+    private volatile int accrualPeriod;
+    private long accrualStart;  // Seconds; guarded by accrualGuard
+    
+    public SavingsAccount(String accountNumber, String customerId, long initialBalance) 
+            throws MinimumBalanceException {
+        this(accountNumber, customerId, initialBalance, new ColumnarTransactionHistory());
+    }
     
-    public SavingsAccount(String accountNumber, String customerId, double initialBalance) 
+    public SavingsAccount(String accountNumber, String customerId, long initialBalance,
+                          TransactionHistory transactionHistory) 
             throws MinimumBalanceException {
-        super(accountNumber, customerId, initialBalance);
+        this(accountNumber, customerId, initialBalance, transactionHistory, true);
+    }
+    
+    SavingsAccount(String accountNumber, String customerId, long initialBalance,
+                   TransactionHistory transactionHistory, boolean recordOpening) 
+            throws MinimumBalanceException {
+        super(accountNumber, customerId, initialBalance, transactionHistory, recordOpening);
         
         if (initialBalance < MINIMUM_BALANCE) {
             throw new MinimumBalanceException(
-                "Initial deposit must be at least $" + MINIMUM_BALANCE + 
+                "Initial deposit must be at least $" + Money.format(MINIMUM_BALANCE) + 
                 " for a savings account."
             );
         }
+        accrualStart = periods.now();
     }
     
     @Override
-    public void deposit(double amount) throws Exception {
+    protected int creditRow(long amount, TransactionType type, String counterparty, long sequence)
+            throws Exception {
         if (status != AccountStatus.ACTIVE) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.DEPOSIT, amount, accountNumber,
-                TransactionStatus.FAILED_ACCOUNT_BLOCKED, balance
-            );
-            addTransaction(failedTxn);
+            record(type, amount, counterparty, TransactionStatus.FAILED_ACCOUNT_BLOCKED);
             throw new AccountBlockedException("Account is " + status + ". Cannot deposit.");
         }
         
@@ -38,22 +65,15 @@ public class SavingsAccount extends BankAccount {
             throw new IllegalArgumentException("Deposit amount must be positive.");
         }
         
-        balance += amount;
-        Transaction txn = new Transaction(
-            TransactionType.DEPOSIT, amount, accountNumber,
-            TransactionStatus.SUCCESS, balance
-        );
-        addTransaction(txn);
+        long balanceAfter = addToBalance(amount);
+        return record(sequence, type, amount, counterparty, TransactionStatus.SUCCESS, balanceAfter, 0);
     }
     
     @Override
-    public void withdraw(double amount) throws Exception {
+    protected int debitRow(long amount, TransactionType type, String counterparty)
+            throws Exception {
         if (status != AccountStatus.ACTIVE) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.WITHDRAWAL, amount, accountNumber,
-                TransactionStatus.FAILED_ACCOUNT_BLOCKED, balance
-            );
-            addTransaction(failedTxn);
+            record(type, amount, counterparty, TransactionStatus.FAILED_ACCOUNT_BLOCKED);
             throw new AccountBlockedException("Account is " + status + ". Cannot withdraw.");
         }
         
@@ -61,47 +81,295 @@ public class SavingsAccount extends BankAccount {
             throw new IllegalArgumentException("Withdrawal amount must be positive.");
         }
         
-        if (balance - amount < MINIMUM_BALANCE) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.WITHDRAWAL, amount, accountNumber,
-                TransactionStatus.FAILED_MINIMUM_BALANCE_VIOLATION, balance
-            );
-            addTransaction(failedTxn);
+        // The minimum balance floor also rules out overdrawing, so a single CAS covers both rules
+        long balanceAfter = tryDebit(amount, MINIMUM_BALANCE);
+        if (balanceAfter == REJECTED) {
+            long current = balance.get();
+            if (amount > current) {
+                record(type, amount, counterparty, TransactionStatus.FAILED_INSUFFICIENT_FUNDS, current);
+                throw new InsufficientFundsException(
+                    () -> "Insufficient funds. Available balance: $" + Money.format(current)
+                );
+            }
+            record(type, amount, counterparty, TransactionStatus.FAILED_MINIMUM_BALANCE_VIOLATION, current);
             throw new MinimumBalanceException(
-                "Withdrawal denied. Minimum balance of $" + MINIMUM_BALANCE + 
-                " must be maintained. Current balance: $" + String.format("%.2f", balance) +
-                ", Requested withdrawal: $" + String.format("%.2f", amount)
+                () -> "Withdrawal denied. Minimum balance of $" + Money.format(MINIMUM_BALANCE) + 
+                " must be maintained. Current balance: $" + Money.format(current) +
+                ", Requested withdrawal: $" + Money.format(amount)
             );
         }
         
-        if (amount > balance) {
-            Transaction failedTxn = new Transaction(
-                TransactionType.WITHDRAWAL, amount, accountNumber,
-                TransactionStatus.FAILED_INSUFFICIENT_FUNDS, balance
-            );
-            addTransaction(failedTxn);
-            throw new InsufficientFundsException(
-                "Insufficient funds. Available balance: $" + String.format("%.2f", balance)
-            );
+        return record(type, amount, counterparty, TransactionStatus.SUCCESS, balanceAfter);
+    }
+    
+    /**
+     * Credits one period's interest and journals it. Returns the posting.
+     */
+    public Transaction applyInterest() {
+        long current;
+        long interest;
+        long stamp = enterPosting();
+        try {
+            do {
+                current = balance.get();
+                interest = Money.applyRate(current, INTEREST_RATE_BPS);
+            } while (!balance.compareAndSet(current, current + interest));
+            statistics.balanceMoved(interest);
+            accrue(interest);
+        } finally {
+            accrualGuard.unlockRead(stamp);
+        }
+        
+        Transaction txn = transactionHistory.get(
+            record(TransactionType.DEPOSIT, interest, null, TransactionStatus.SUCCESS, current + interest));
+        try {
+            listener.posted(this, txn);
+        } catch (RuntimeException e) {
+            revert(txn);
+            throw e;
+        }
+        return txn;
+    }
+    
+    /**
+     * Credits one period's interest and records it, without notifying the
+     * listener; the caller journals interest in bulk. Returns the posting,
+     * or null if there was no interest to post.
+     */
+    Transaction postInterest() {
+        long current;
+        long interest;
+        long stamp = enterPosting();
+        try {
+            do {
+                current = balance.get();
+                interest = Money.applyRate(current, INTEREST_RATE_BPS);
+                if (interest <= 0) {
+                    return null;
+                }
+            } while (!balance.compareAndSet(current, current + interest));
+            statistics.balanceMoved(interest);
+            accrue(interest);
+        } finally {
+            accrualGuard.unlockRead(stamp);
         }
         
-        balance -= amount;
-        Transaction txn = new Transaction(
-            TransactionType.WITHDRAWAL, amount, accountNumber,
-            TransactionStatus.SUCCESS, balance
-        );
-        addTransaction(txn);
+        return transactionHistory.get(
+            record(TransactionType.DEPOSIT, interest, null, TransactionStatus.SUCCESS, current + interest));
+    }
+    
+    /**
+     * Pays interest for every period closed since the last settlement, each
+     * on the time-weighted average balance over that period, and records it
+     * as one deposit. The listener is notified only if {@code journal} is
+     * set. Returns the posting, or null if nothing was due.
+     */
+    Transaction settleAccrual(boolean journal) {
+        long interest = 0;
+        long balanceAfter;
+        long stamp = accrualGuard.writeLock();
+        try {
+            InterestPeriods periods = this.periods;
+            while (accrualPeriod < periods.current()) {
+                long end = periods.end(accrualPeriod);
+                long earned = earned(balance.get(), weightedDeltas.get(), accrualStart, end);
+                weightedDeltas.set(0);
+                accrualStart = end;
+                accrualPeriod++;
+                // Credited at the start of the next period, so it earns from there
+                balance.addAndGet(earned);
+                interest += earned;
+            }
+            balanceAfter = balance.get();
+        } finally {
+            accrualGuard.unlockWrite(stamp);
+        }
+        statistics.balanceMoved(interest);
+        
+        if (interest == 0) {
+            return null;
+        }
+        Transaction posting = transactionHistory.get(
+            record(TransactionType.DEPOSIT, interest, null, TransactionStatus.SUCCESS, balanceAfter));
+        if (journal) {
+            try {
+                listener.accrualSettled(new BankAccount[] { this }, new Transaction[] { posting });
+            } catch (RuntimeException e) {
+                revert(posting);
+                throw e;
+            }
+        }
+        return posting;
+    }
+    
+    /**
+     * Interest earned but not yet credited, in cents: what closed periods
+     * still owe, plus what the open period would pay if it closed now.
+     * Credits nothing. Reads optimistically and only takes the read side
+     * of accrualGuard if a settlement got in the way, so it never blocks
+     * postings. A posting still in flight may be counted from the start of
+     * the period.
+     */
+    public long getAccruedInterest() {
+        long stamp = accrualGuard.tryOptimisticRead();
+        long accrued = accruedInterest();
+        if (accrualGuard.validate(stamp)) {
+            return accrued;
+        }
+        stamp = accrualGuard.readLock();
+        try {
+            return accruedInterest();
+        } finally {
+            accrualGuard.unlockRead(stamp);
+        }
     }
     
-    public void applyInterest() {
-        double interest = balance * INTEREST_RATE;
-        balance += interest;
-        Transaction txn = new Transaction(
-            TransactionType.DEPOSIT, interest, accountNumber,
-            TransactionStatus.SUCCESS, balance
-        );
-        addTransaction(txn);
-        System.out.println("Interest of $" + String.format("%.2f", interest) + " applied to account.");
+    private long accruedInterest() {
+        InterestPeriods periods = this.periods;
+        // Postings move the balance before the deltas, so deltas read first are in the balance
+        long weighted = weightedDeltas.get();
+        long balance = this.balance.get();
+        long start = accrualStart;
+        long owed = 0;
+        for (int period = accrualPeriod; period < periods.current(); period++) {
+            long end = periods.end(period);
+            long earned = earned(balance, weighted, start, end);
+            balance += earned;
+            owed += earned;
+            weighted = 0;
+            start = end;
+        }
+        return owed + earned(balance, weighted, start, periods.now());
+    }
+    
+    /**
+     * Interest on the average balance between start and end, given the
+     * balance at end and the weighted deltas since start.
+     */
+    private static long earned(long balance, long weightedDeltas, long start, long end) {
+        long length = end - start;
+        if (length <= 0) {
+            return 0;
+        }
+        long balanceSeconds = balance * length - weightedDeltas;
+        return Math.max(0, Money.applyRate(balanceSeconds / length, INTEREST_RATE_BPS));
+    }
+    
+    /**
+     * Re-applies a balance change read back from the journal at the time
+     * it was recorded, first moving past any period closed since the
+     * previous one; the settlement of those periods was journaled and is
+     * replayed on its own.
+     */
+    @Override
+    void replayBalanceChange(long delta, long timestampMillis) {
+        long stamp = accrualGuard.writeLock();
+        try {
+            catchUp();
+            super.addToBalance(delta);
+            weightedDeltas.addAndGet(delta * Math.max(0, timestampMillis / 1000 - accrualStart));
+        } finally {
+            accrualGuard.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Re-applies accrued interest read back from the journal. Like a live
+     * settlement it is credited at the start of the open period.
+     */
+    public void replayAccrualSettlement(Transaction posting) {
+        long stamp = accrualGuard.writeLock();
+        try {
+            catchUp();
+            super.addToBalance(posting.getAmount());
+        } finally {
+            accrualGuard.unlockWrite(stamp);
+        }
+        restorePosting(posting);
+    }
+    
+    /**
+     * Restores the accrual of the given period as recorded in a snapshot
+     * or journal: its start in seconds, and the weighted deltas since then.
+     */
+    public void restoreAccrual(int period, long start, long weightedDeltas) {
+        long stamp = accrualGuard.writeLock();
+        try {
+            accrualPeriod = period;
+            accrualStart = start;
+            this.weightedDeltas.set(weightedDeltas);
+        } finally {
+            accrualGuard.unlockWrite(stamp);
+        }
+    }
+    
+    /** Called under the write side of accrualGuard while replaying. */
+    private void catchUp() {
+        InterestPeriods periods = this.periods;
+        int current = periods.current();
+        if (accrualPeriod < current) {
+            accrualStart = periods.end(current - 1);
+            accrualPeriod = current;
+            weightedDeltas.set(0);
+        }
+    }
+    
+    @Override
+    void setInterestPeriods(InterestPeriods periods) {
+        long stamp = accrualGuard.writeLock();
+        try {
+            this.periods = periods;
+            accrualPeriod = periods.current();
+            accrualStart = periods.now();
+            weightedDeltas.set(0);
+        } finally {
+            accrualGuard.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    protected long addToBalance(long delta) {
+        long stamp = enterPosting();
+        try {
+            long balanceAfter = super.addToBalance(delta);
+            accrue(delta);
+            return balanceAfter;
+        } finally {
+            accrualGuard.unlockRead(stamp);
+        }
+    }
+    
+    @Override
+    protected long tryDebit(long amount, long floor) {
+        long stamp = enterPosting();
+        try {
+            long balanceAfter = super.tryDebit(amount, floor);
+            if (balanceAfter != REJECTED) {
+                accrue(-amount);
+            }
+            return balanceAfter;
+        } finally {
+            accrualGuard.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Settles any closed period, then takes the read side of accrualGuard
+     * for one balance change.
+     */
+    private long enterPosting() {
+        if (accrualPeriod != periods.current()) {
+            settleAccrual(true);
+        }
+        return accrualGuard.readLock();
+    }
+    
+    /** Called under the read side of accrualGuard once the balance moved by delta. */
+    private void accrue(long delta) {
+        InterestPeriods periods = this.periods;
+        // A period that closed after enterPosting gets the change at its end, where it nets out
+        long now = accrualPeriod == periods.current() ? periods.now() : periods.end(accrualPeriod);
+        weightedDeltas.addAndGet(delta * Math.max(0, now - accrualStart));
     }
     
     @Override
@@ -109,12 +377,24 @@ public class SavingsAccount extends BankAccount {
         return "Savings";
     }
     
-    public double getMinimumBalance() {
+    @Override
+    long balanceFloor() {
+        return MINIMUM_BALANCE;
+    }
+    
+    @Override
+    TransactionStatus debitFailure(long available, long amount) {
+        return amount > available
+            ? TransactionStatus.FAILED_INSUFFICIENT_FUNDS
+            : TransactionStatus.FAILED_MINIMUM_BALANCE_VIOLATION;
+    }
+    
+    public long getMinimumBalance() {
         return MINIMUM_BALANCE;
     }
     
     @Override
     public String toString() {
-        return super.toString() + String.format(", Min Balance: $%.2f", MINIMUM_BALANCE);
+        return super.toString() + ", Min Balance: $" + Money.format(MINIMUM_BALANCE);
     }
 }
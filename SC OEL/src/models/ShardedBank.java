@@ -0,0 +1,314 @@
+package models;
+
+import enums.AccountStatus;
+import enums.TransactionStatus;
+import enums.TransactionType;
+import exceptions.AccountBlockedException;
+import exceptions.InvalidAccountException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bank split into independent in-process shards. Each shard is a
+ * {@link Bank} with its own registries, its own range of account numbers
+ * and its own executor.
+ *
+ * A customer lives on the shard its ID hashes to, together with all of its
+ * accounts. Shard {@code i} only hands out account numbers {@code n} with
+ * {@code n % shards == i}, so an account number routes to its shard
+ * without a lookup.
+ *
+ * A transfer within a shard is an ordinary {@link Bank#transferFunds}. A
+ * transfer across shards never holds locks on two shards. It prepares by
+ * debiting the source under the source's lock and reporting the debit as
+ * {@link BankEventListener#transferPrepared}, then credits the destination
+ * under the same transaction number and resolves the transfer on the
+ * source. If the credit fails, or its shard's listener does, a compensating
+ * refund returns the amount and any fee to the source. After a restart
+ * {@link #recoverTransfers} settles whatever was left prepared.
+ */
+public class ShardedBank implements AutoCloseable {
+    private static final long FIRST_ACCOUNT_NUMBER = 10001;
+
+    private final String bankName;
+    private final Bank[] shards;
+    private final ExecutorService[] executors;
+
+    /**
+     * @param shards          number of shards
+     * @param threadsPerShard worker threads of each shard's executor
+     */
+    public ShardedBank(String bankName, int shards, int threadsPerShard) {
+        if (shards < 1 || threadsPerShard < 1) {
+            throw new IllegalArgumentException("Invalid shard count " + shards + " or threads " + threadsPerShard);
+        }
+        this.bankName = bankName;
+        this.shards = new Bank[shards];
+        this.executors = new ExecutorService[shards];
+        for (int i = 0; i < shards; i++) {
+            int shard = i;
+            IdGenerator localNumbers = new IdGenerator((FIRST_ACCOUNT_NUMBER + shards - 1) / shards, 16, 0);
+            this.shards[i] = new Bank(bankName + " #" + i, () -> localNumbers.next() * shards + shard);
+
+            AtomicInteger threads = new AtomicInteger();
+            this.executors[i] = Executors.newFixedThreadPool(threadsPerShard, runnable -> {
+                Thread thread = new Thread(runnable, "shard-" + shard + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public Bank getShard(int shard) {
+        return shards[shard];
+    }
+
+    public int shardOfCustomer(String customerId) {
+        return Math.floorMod(customerId.hashCode(), shards.length);
+    }
+
+    /**
+     * The shard an account number belongs to, or -1 if it is not one.
+     */
+    public int shardOfAccount(String accountNumber) {
+        try {
+            return (int) (Long.parseLong(accountNumber.substring(3)) % shards.length);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public Customer registerCustomer(String customerId, String name, String pin) {
+        return shards[shardOfCustomer(customerId)].registerCustomer(customerId, name, pin);
+    }
+
+    public Customer getCustomer(String customerId) {
+        return shards[shardOfCustomer(customerId)].getCustomer(customerId);
+    }
+
+    public SavingsAccount createSavingsAccount(String customerId, long initialBalance) throws Exception {
+        return shards[shardOfCustomer(customerId)].createSavingsAccount(customerId, initialBalance);
+    }
+
+    public CheckingAccount createCheckingAccount(String customerId, long initialBalance) throws Exception {
+        return shards[shardOfCustomer(customerId)].createCheckingAccount(customerId, initialBalance);
+    }
+
+    public BankAccount getAccount(String accountNumber) {
+        int shard = shardOfAccount(accountNumber);
+        return shard < 0 ? null : shards[shard].getAccount(accountNumber);
+    }
+
+    public List<BankAccount> getAllAccounts() {
+        ArrayList<BankAccount> all = new ArrayList<>();
+        for (Bank shard : shards) {
+            all.addAll(shard.getAllAccounts());
+        }
+        return all;
+    }
+
+    /**
+     * The transfers between two accounts in both directions, oldest first.
+     */
+    public List<Transaction> findTransfersBetween(String accountNumber, String otherAccountNumber) {
+        int shard = shardOfAccount(accountNumber);
+        return shard < 0 ? new ArrayList<>() : shards[shard].findTransfersBetween(accountNumber, otherAccountNumber);
+    }
+
+    /**
+     * Moves funds between two accounts, on one shard or across two.
+     * Returns the TRANSFER_OUT posting of the source account.
+     */
+    public Transaction transferFunds(String sourceAccountNumber, String destinationAccountNumber,
+                                     long amount) throws Exception {
+        int sourceShard = shardOfAccount(sourceAccountNumber);
+        if (sourceShard < 0) {
+            throw new InvalidAccountException("Source account not found: " + sourceAccountNumber);
+        }
+        int destinationShard = shardOfAccount(destinationAccountNumber);
+        if (destinationShard == sourceShard || destinationShard < 0) {
+            return shards[sourceShard].transferFunds(sourceAccountNumber, destinationAccountNumber, amount);
+        }
+
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Transfer amount must be positive.");
+        }
+        BankAccount source = shards[sourceShard].getAccount(sourceAccountNumber);
+        if (source == null) {
+            throw new InvalidAccountException("Source account not found: " + sourceAccountNumber);
+        }
+        BankAccount destination = shards[destinationShard].getAccount(destinationAccountNumber);
+        if (destination == null) {
+            source.record(TransactionType.TRANSFER_OUT, amount, destinationAccountNumber,
+                          TransactionStatus.FAILED_INVALID_ACCOUNT);
+            throw new InvalidAccountException("Destination account not found: " + destinationAccountNumber);
+        }
+        return transferAcrossShards(source, destination, amount);
+    }
+
+    private Transaction transferAcrossShards(BankAccount source, BankAccount destination, long amount)
+            throws Exception {
+        if (destination.getStatus() != AccountStatus.ACTIVE) {
+            throw new AccountBlockedException("Destination account is not active.");
+        }
+        Bank sourceShard = shards[shardOfAccount(source.getAccountNumber())];
+
+        // Prepare: the debit applies the source's rules and fees and is the intent record
+        Transaction transferOut;
+        source.lock.lock();
+        try {
+            transferOut = source.debit(amount, TransactionType.TRANSFER_OUT, destination.getAccountNumber());
+        } finally {
+            source.lock.unlock();
+        }
+        sourceShard.restorePreparedTransfer(transferOut);
+        try {
+            source.listener.transferPrepared(source, transferOut);
+        } catch (RuntimeException e) {
+            sourceShard.resolvePreparedTransfer(transferOut.getSequence());
+            revert(source, transferOut);
+            throw e;
+        }
+
+        // Commit: the destination may have been blocked since the check above
+        Transaction transferIn = null;
+        Exception failure = null;
+        destination.lock.lock();
+        try {
+            transferIn = destination.receive(transferOut);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            destination.lock.unlock();
+        }
+        if (failure == null) {
+            try {
+                destination.listener.posted(destination, transferIn);
+            } catch (RuntimeException e) {
+                revert(destination, transferIn);
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            try {
+                resolve(sourceShard, source, transferOut, true);
+            } catch (RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+            throw failure;
+        }
+
+        // The credit is durable, so a commit that fails to journal is redone by recoverTransfers
+        try {
+            resolve(sourceShard, source, transferOut, false);
+        } catch (RuntimeException ignored) {
+        }
+        return transferOut;
+    }
+
+    /**
+     * Settles every transfer left in doubt, e.g. by a crash between its
+     * debit and its resolution. A transfer whose credit reached the
+     * destination is committed, any other is refunded. Call once the
+     * journals of all shards are open.
+     */
+    public void recoverTransfers() {
+        for (Bank shard : shards) {
+            for (Transaction transferOut : shard.getPreparedTransfers()) {
+                BankAccount source = shard.getAccount(transferOut.getSourceAccountNumber());
+                BankAccount destination = getAccount(transferOut.getDestinationAccountNumber());
+                boolean received = destination != null
+                                   && destination.hasPosting(transferOut.getSequence(), TransactionType.TRANSFER_IN);
+                resolve(shard, source, transferOut, !received);
+            }
+        }
+    }
+
+    /**
+     * Commits a prepared transfer, or refunds the amount and any fee to the
+     * source. If the listener fails the refund is reverted and the transfer
+     * stays prepared.
+     */
+    private static void resolve(Bank sourceShard, BankAccount source, Transaction transferOut, boolean refund) {
+        Transaction refundPosting = null;
+        if (refund) {
+            source.lock.lock();
+            try {
+                refundPosting = source.refund(transferOut.getAmount() + transferOut.getFee(),
+                                              transferOut.getDestinationAccountNumber());
+            } finally {
+                source.lock.unlock();
+            }
+        }
+        try {
+            source.listener.transferResolved(source, transferOut, refundPosting);
+        } catch (RuntimeException e) {
+            if (refundPosting != null) {
+                revert(source, refundPosting);
+            }
+            throw e;
+        }
+        sourceShard.resolvePreparedTransfer(transferOut.getSequence());
+    }
+
+    private static void revert(BankAccount account, Transaction posting) {
+        account.lock.lock();
+        try {
+            account.revert(posting);
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a task on the executor of the shard that owns the account.
+     */
+    public <T> CompletableFuture<T> submit(String accountNumber, Callable<T> task) {
+        int shard = shardOfAccount(accountNumber);
+        if (shard < 0) {
+            throw new IllegalArgumentException("Not an account number: " + accountNumber);
+        }
+        return submitToShard(shard, task);
+    }
+
+    public <T> CompletableFuture<T> submitToShard(int shard, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executors[shard].execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Transfers on the source account's shard executor.
+     */
+    public CompletableFuture<Transaction> submitTransfer(String sourceAccountNumber,
+                                                         String destinationAccountNumber, long amount) {
+        return submit(sourceAccountNumber, () -> transferFunds(sourceAccountNumber, destinationAccountNumber, amount));
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+    }
+}
@@ -3,113 +3,185 @@ package models;
 import enums.TransactionType;
 import enums.TransactionStatus;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * One posting. Fields are kept in primitive form (sequence number, epoch
+ * millis, packed account keys, cents); the ID, timestamp and account number
+ * Strings are only built when asked for, e.g. by toString or toReceipt.
+ */
 public class Transaction {
-    private static int transactionCounter = 1000;
+    // Each thread takes 64 numbers at a time; a journal records every lease of 65536
+    private static final IdGenerator transactionIds = new IdGenerator(1001, 64, 1 << 16);
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
-    private String transactionId;
+    private long sequence;
     private TransactionType type;
-    private double amount;
-    private LocalDateTime timestamp;
-    private String sourceAccountNumber;
-    private String destinationAccountNumber;
+    private long amount;  // Cents
+    private long timestamp;  // Epoch millis
+    private long sourceAccountKey;  // See AccountKeys
+    private long destinationAccountKey;
     private TransactionStatus status;
-    private double balanceAfter;
+    private long balanceAfter;  // Cents
+    private long fee;  // Cents charged on top of amount, e.g. checking transaction fee
     
-    public Transaction(TransactionType type, double amount, String accountNumber, 
-                      TransactionStatus status, double balanceAfter) {
-        this.transactionId = "TXN" + (++transactionCounter);
-        this.type = type;
-        this.amount = amount;
-        this.timestamp = LocalDateTime.now();
-        this.sourceAccountNumber = accountNumber;
-        this.destinationAccountNumber = null;
-        this.status = status;
-        this.balanceAfter = balanceAfter;
+    public Transaction(TransactionType type, long amount, String accountNumber, 
+                      TransactionStatus status, long balanceAfter) {
+        this(type, amount, accountNumber, null, status, balanceAfter, 0);
     }
     
 
-    public Transaction(TransactionType type, double amount, String sourceAccount, 
-                      String destinationAccount, TransactionStatus status, double balanceAfter) {
-        this.transactionId = "TXN" + (++transactionCounter);
+    public Transaction(TransactionType type, long amount, String sourceAccount, 
+                      String destinationAccount, TransactionStatus status, long balanceAfter) {
+        this(type, amount, sourceAccount, destinationAccount, status, balanceAfter, 0);
+    }
+    
+    public Transaction(TransactionType type, long amount, String sourceAccount, 
+                      String destinationAccount, TransactionStatus status, long balanceAfter,
+                      long fee) {
+        this(transactionIds.next(), MillisClock.now(), type, status,
+             AccountKeys.encode(sourceAccount), AccountKeys.encode(destinationAccount),
+             amount, balanceAfter, fee);
+    }
+    
+    /**
+     * Rebuilds a transaction from its primitive encoding, e.g. a history
+     * row. Does not take a new transaction number.
+     */
+    public Transaction(long sequence, long timestamp, TransactionType type, TransactionStatus status,
+                       long sourceAccountKey, long destinationAccountKey,
+                       long amount, long balanceAfter, long fee) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
         this.type = type;
-        this.amount = amount;
-        this.timestamp = LocalDateTime.now();
-        this.sourceAccountNumber = sourceAccount;
-        this.destinationAccountNumber = destinationAccount;
         this.status = status;
+        this.sourceAccountKey = sourceAccountKey;
+        this.destinationAccountKey = destinationAccountKey;
+        this.amount = amount;
         this.balanceAfter = balanceAfter;
+        this.fee = fee;
+    }
+    
+    /**
+     * The highest transaction number that may have been handed out.
+     */
+    public static long getTransactionCounter() {
+        return transactionIds.getLastIssued();
+    }
+    
+    /**
+     * Makes transaction numbers handed out from now on greater than the given value.
+     */
+    public static void advanceTransactionCounter(long value) {
+        transactionIds.advance(value);
+    }
+    
+    /**
+     * Takes a transaction number for a reference that is not itself a
+     * transaction, e.g. a transfer batch.
+     */
+    static long nextSequence() {
+        return transactionIds.next();
+    }
+    
+    static void setIdLeaseListener(IdGenerator.LeaseListener leaseListener) {
+        transactionIds.setLeaseListener(leaseListener);
     }
     
     public String getTransactionId() {
-        return transactionId;
+        return "TXN" + sequence;
+    }
+    
+    public long getSequence() {
+        return sequence;
     }
     
     public TransactionType getType() {
         return type;
     }
     
-    public double getAmount() {
+    public long getAmount() {
         return amount;
     }
     
     public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+    
+    public long getTimestampMillis() {
         return timestamp;
     }
     
     public String getSourceAccountNumber() {
-        return sourceAccountNumber;
+        return AccountKeys.decode(sourceAccountKey);
     }
     
     public String getDestinationAccountNumber() {
-        return destinationAccountNumber;
+        return AccountKeys.decode(destinationAccountKey);
+    }
+    
+    public long getSourceAccountKey() {
+        return sourceAccountKey;
+    }
+    
+    public long getDestinationAccountKey() {
+        return destinationAccountKey;
     }
     
     public TransactionStatus getStatus() {
         return status;
     }
     
-    public double getBalanceAfter() {
+    public long getBalanceAfter() {
         return balanceAfter;
     }
     
+    public long getFee() {
+        return fee;
+    }
+    
     @Override
     public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        StringBuilder sb = new StringBuilder();
-        sb.append("Transaction ID: ").append(transactionId).append("\n");
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("Transaction ID: TXN").append(sequence).append("\n");
         sb.append("Type: ").append(type).append("\n");
-        sb.append("Amount: $").append(String.format("%.2f", amount)).append("\n");
-        sb.append("Date/Time: ").append(timestamp.format(formatter)).append("\n");
-        if (destinationAccountNumber != null) {
-            sb.append("From Account: ").append(sourceAccountNumber).append("\n");
-            sb.append("To Account: ").append(destinationAccountNumber).append("\n");
+        Money.appendTo(sb.append("Amount: $"), amount).append("\n");
+        if (fee > 0) {
+            Money.appendTo(sb.append("Fee: $"), fee).append("\n");
+        }
+        sb.append("Date/Time: ").append(FORMATTER.format(getTimestamp())).append("\n");
+        if (destinationAccountKey != AccountKeys.NONE) {
+            AccountKeys.appendTo(sb.append("From Account: "), sourceAccountKey).append("\n");
+            AccountKeys.appendTo(sb.append("To Account: "), destinationAccountKey).append("\n");
         } else {
-            sb.append("Account: ").append(sourceAccountNumber).append("\n");
+            AccountKeys.appendTo(sb.append("Account: "), sourceAccountKey).append("\n");
         }
         sb.append("Status: ").append(status).append("\n");
         if (status == TransactionStatus.SUCCESS) {
-            sb.append("Balance After: $").append(String.format("%.2f", balanceAfter)).append("\n");
+            Money.appendTo(sb.append("Balance After: $"), balanceAfter).append("\n");
         }
         return sb.toString();
     }
     
     public String toReceipt() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(256);
         sb.append("\n========== RECEIPT ==========\n");
-        sb.append("Transaction ID: ").append(transactionId).append("\n");
+        sb.append("Transaction ID: TXN").append(sequence).append("\n");
         sb.append("Type: ").append(type).append("\n");
-        sb.append("Amount: $").append(String.format("%.2f", amount)).append("\n");
-        sb.append("Date/Time: ").append(timestamp.format(formatter)).append("\n");
-        if (destinationAccountNumber != null) {
-            sb.append("To Account: ").append(destinationAccountNumber).append("\n");
+        Money.appendTo(sb.append("Amount: $"), amount).append("\n");
+        if (fee > 0) {
+            Money.appendTo(sb.append("Fee: $"), fee).append("\n");
+        }
+        sb.append("Date/Time: ").append(FORMATTER.format(getTimestamp())).append("\n");
+        if (destinationAccountKey != AccountKeys.NONE) {
+            AccountKeys.appendTo(sb.append("To Account: "), destinationAccountKey).append("\n");
         }
         sb.append("Status: ").append(status).append("\n");
         if (status == TransactionStatus.SUCCESS) {
-            sb.append("New Balance: $").append(String.format("%.2f", balanceAfter)).append("\n");
+            Money.appendTo(sb.append("New Balance: $"), balanceAfter).append("\n");
         }
         sb.append("=============================\n");
         return sb.toString();
@@ -0,0 +1,97 @@
+package models;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Append-only posting history of one account, oldest first.
+ *
+ * Implementations may keep postings in any encoding and only build a
+ * {@link Transaction} when one is asked for, so callers that render the
+ * history should walk it by index instead of copying it.
+ *
+ * Stored timestamps never decrease along the history, so a time range maps
+ * to an index range found by binary search (see {@link HistoryQuery}).
+ */
+public interface TransactionHistory {
+    /**
+     * Appends a posting. A posting stamped earlier than the previous one,
+     * which concurrent postings on one account can cause, is stored with the
+     * previous timestamp. Returns the index of the new posting.
+     */
+    default int add(Transaction transaction) {
+        return add(transaction.getSequence(), transaction.getTimestampMillis(), transaction.getType(),
+                   transaction.getStatus(), transaction.getSourceAccountKey(),
+                   transaction.getDestinationAccountKey(), transaction.getAmount(),
+                   transaction.getBalanceAfter(), transaction.getFee());
+    }
+
+    /**
+     * Appends a posting given in its primitive encoding (see
+     * {@link Transaction}), so that recording one needs no Transaction.
+     */
+    int add(long sequence, long timestamp, TransactionType type, TransactionStatus status,
+            long sourceAccountKey, long destinationAccountKey, long amount, long balanceAfter, long fee);
+
+    int size();
+
+    /**
+     * Materializes the posting at the given index.
+     */
+    Transaction get(int index);
+
+    /**
+     * Epoch millis of the posting at the given index, without materializing it.
+     */
+    default long timestampAt(int index) {
+        return get(index).getTimestampMillis();
+    }
+
+    default TransactionType typeAt(int index) {
+        return get(index).getType();
+    }
+
+    default TransactionStatus statusAt(int index) {
+        return get(index).getStatus();
+    }
+
+    default long feeAt(int index) {
+        return get(index).getFee();
+    }
+
+    /**
+     * A read-only view of the postings recorded so far. Elements are
+     * materialized on access; postings added later are not part of it.
+     */
+    default List<Transaction> view() {
+        int size = size();
+        return new ListView(this, size);
+    }
+
+    final class ListView extends AbstractList<Transaction> implements RandomAccess {
+        private final TransactionHistory history;
+        private final int size;
+
+        ListView(TransactionHistory history, int size) {
+            this.history = history;
+            this.size = size;
+        }
+
+        @Override
+        public Transaction get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+            return history.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
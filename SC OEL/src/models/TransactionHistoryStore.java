@@ -0,0 +1,16 @@
+package models;
+
+/**
+ * Creates the history of each account a {@link Bank} opens, and the lists
+ * its {@link TransactionIndex} keeps beside them. The default keeps both on
+ * the heap; the persistence package provides an off-heap store.
+ */
+public interface TransactionHistoryStore {
+    TransactionHistoryStore HEAP = accountNumber -> new ColumnarTransactionHistory();
+
+    TransactionHistory historyFor(String accountNumber);
+
+    default RefList newRefList() {
+        return new TransactionIndex.Refs();
+    }
+}
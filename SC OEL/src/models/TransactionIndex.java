@@ -0,0 +1,281 @@
+package models;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Bank-wide secondary indexes over the postings of every account, updated
+ * as each posting is recorded:
+ * <ul>
+ *   <li>by account and counterparty, e.g. the transfers between two accounts</li>
+ *   <li>by status and day, e.g. today's FAILED_OVERDRAFT_EXCEEDED postings</li>
+ *   <li>by type and day</li>
+ * </ul>
+ * An entry is a reference to a history row, packed as the account's
+ * ordinal in the high 32 bits and the row index in the low 32, so the
+ * indexes hold no Transaction objects. The references live in
+ * {@link RefList}s from the bank's {@link TransactionHistoryStore}, so an
+ * off-heap history store keeps them off-heap too. Days are in the system
+ * time zone.
+ *
+ * Every posting lands in the day indexes, so the list of each day key is
+ * striped by account to keep concurrent postings off a shared lock.
+ */
+public final class TransactionIndex {
+    private static final int STRIPES = 16;
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final Comparator<Transaction> BY_TIME =
+        Comparator.comparingLong(Transaction::getTimestampMillis).thenComparingLong(Transaction::getSequence);
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Supplier<RefList> lists;
+    private final AtomicInteger accountCount = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, BankAccount> accounts = new ConcurrentHashMap<>();  // By ordinal
+    // Ordinal and row count of each account whose rows at registration are not indexed yet
+    private final ConcurrentLinkedQueue<long[]> unindexed = new ConcurrentLinkedQueue<>();
+
+    // Account key -> counterparty key -> rows of that account
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, RefList>> byCounterparty =
+        new ConcurrentHashMap<>();
+    // (epoch day << 8 | ordinal) -> rows of every account
+    private final ConcurrentHashMap<Long, RefList[]> byStatusDay = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, RefList[]> byTypeDay = new ConcurrentHashMap<>();
+
+    // The day postings are being stamped with, so the common case skips the time zone rules
+    private volatile Day today = new Day(Long.MIN_VALUE, Long.MIN_VALUE, 0);
+
+    public TransactionIndex() {
+        this(Refs::new);
+    }
+
+    /**
+     * @param lists creates each list of row references
+     */
+    TransactionIndex(Supplier<RefList> lists) {
+        this.lists = lists;
+    }
+
+    /**
+     * Adds an account and returns its ordinal. The rows it already has, such
+     * as those restored from a snapshot, are indexed by the first query
+     * after, so a restart does not walk every history.
+     */
+    int register(BankAccount account) {
+        int ordinal = accountCount.getAndIncrement();
+        accounts.put(ordinal, account);
+        int rows = account.transactionHistory.size();
+        if (rows > 0) {
+            unindexed.add(new long[] {ordinal, rows});
+        }
+        return ordinal;
+    }
+
+    /** Indexes the rows accounts had when they were registered. */
+    private void indexRegistered() {
+        if (unindexed.isEmpty()) {
+            return;
+        }
+        synchronized (unindexed) {
+            long[] pending;
+            while ((pending = unindexed.poll()) != null) {
+                int ordinal = (int) pending[0];
+                TransactionHistory history = accounts.get(ordinal).transactionHistory;
+                for (int row = 0; row < pending[1]; row++) {
+                    add(ordinal, row, history.get(row));
+                }
+            }
+        }
+    }
+
+    void add(int ordinal, int row, Transaction transaction) {
+        add(ordinal, row, transaction.getType(), transaction.getStatus(), transaction.getSourceAccountKey(),
+            transaction.getDestinationAccountKey(), transaction.getTimestampMillis());
+    }
+
+    void add(int ordinal, int row, TransactionType type, TransactionStatus status,
+             long sourceAccountKey, long destinationAccountKey, long millis) {
+        long ref = (long) ordinal << 32 | row;
+
+        long own = sourceAccountKey;
+        long counterparty = destinationAccountKey;
+        if (type.isFromCounterparty()) {
+            own = counterparty;
+            counterparty = sourceAccountKey;
+        }
+        if (counterparty != AccountKeys.NONE) {
+            byCounterparty.computeIfAbsent(own, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(counterparty, key -> lists.get())
+                .add(ref);
+        }
+
+        Day day = today;
+        if (millis < day.start || millis >= day.end) {
+            day = dayOf(millis);
+        }
+        day.stripes(byStatusDay, day.byStatus, status.ordinal(), lists)[ordinal & (STRIPES - 1)].add(ref);
+        day.stripes(byTypeDay, day.byType, type.ordinal(), lists)[ordinal & (STRIPES - 1)].add(ref);
+    }
+
+    /**
+     * Postings of an account whose counterparty is the other account or
+     * batch, oldest first. For two accounts these are the transfers
+     * between them in both directions, as seen from the first.
+     */
+    public List<Transaction> findByCounterparty(String accountNumber, String counterparty) {
+        indexRegistered();
+        ConcurrentHashMap<Long, RefList> counterparties = byCounterparty.get(AccountKeys.encodeOrNone(accountNumber));
+        RefList refs = counterparties == null ? null : counterparties.get(AccountKeys.encodeOrNone(counterparty));
+        ArrayList<Transaction> found = new ArrayList<>();
+        if (refs != null) {
+            materialize(refs, found);
+            // Rows indexed after registration come after later ones
+            found.sort(BY_TIME);
+        }
+        return found;
+    }
+
+    /**
+     * Postings of every account with the status on the day, oldest first.
+     */
+    public List<Transaction> findByStatus(TransactionStatus status, LocalDate day) {
+        indexRegistered();
+        return find(byStatusDay.get(day.toEpochDay() << 8 | status.ordinal()));
+    }
+
+    /**
+     * Postings of every account of the type on the day, oldest first.
+     */
+    public List<Transaction> findByType(TransactionType type, LocalDate day) {
+        indexRegistered();
+        return find(byTypeDay.get(day.toEpochDay() << 8 | type.ordinal()));
+    }
+
+    private List<Transaction> find(RefList[] stripes) {
+        ArrayList<Transaction> found = new ArrayList<>();
+        if (stripes != null) {
+            for (RefList refs : stripes) {
+                materialize(refs, found);
+            }
+            found.sort(BY_TIME);
+        }
+        return found;
+    }
+
+    private void materialize(RefList refs, List<Transaction> into) {
+        int count = refs.size();
+        for (int i = 0; i < count; i++) {
+            into.add(resolve(refs.get(i)));
+        }
+    }
+
+    private Transaction resolve(long ref) {
+        return accounts.get((int) (ref >>> 32)).transactionHistory.get((int) ref);
+    }
+
+    private Day dayOf(long millis) {
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+        Day day = new Day(date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                          date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                          date.toEpochDay());
+        if (day.start > today.start) {
+            today = day;
+        }
+        return day;
+    }
+
+    /** A day's time bounds and the stripes its postings go to so far. */
+    private static final class Day {
+        final long start;
+        final long end;
+        final long epochDay;
+        final AtomicReferenceArray<RefList[]> byStatus = new AtomicReferenceArray<>(STATUSES.length);
+        final AtomicReferenceArray<RefList[]> byType = new AtomicReferenceArray<>(TYPES.length);
+
+        Day(long start, long end, long epochDay) {
+            this.start = start;
+            this.end = end;
+            this.epochDay = epochDay;
+        }
+
+        RefList[] stripes(ConcurrentHashMap<Long, RefList[]> index, AtomicReferenceArray<RefList[]> cache,
+                          int ordinal, Supplier<RefList> lists) {
+            RefList[] stripes = cache.get(ordinal);
+            if (stripes == null) {
+                // Racing threads get the same array from the map
+                stripes = index.computeIfAbsent(epochDay << 8 | ordinal, key -> newStripes(lists));
+                cache.set(ordinal, stripes);
+            }
+            return stripes;
+        }
+
+        private static RefList[] newStripes(Supplier<RefList> lists) {
+            RefList[] stripes = new RefList[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = lists.get();
+            }
+            return stripes;
+        }
+    }
+
+    /**
+     * Row references on the heap in fixed-size chunks, so that growing the
+     * list only ever copies the small first chunk.
+     */
+    static final class Refs implements RefList {
+        private static final int CHUNK_SHIFT = 10;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+        private volatile long[][] chunks = {new long[4]};
+        private volatile int size;
+
+        @Override
+        public synchronized void add(long ref) {
+            int index = size;
+            long[][] current = chunks;
+            int chunk = index >>> CHUNK_SHIFT;
+            if (chunk == 0) {
+                if (index == current[0].length) {
+                    current[0] = Arrays.copyOf(current[0], index * 2);
+                }
+            } else {
+                if (chunk == current.length) {
+                    current = Arrays.copyOf(current, chunk * 2);
+                    chunks = current;
+                }
+                if (current[chunk] == null) {
+                    current[chunk] = new long[CHUNK_SIZE];
+                }
+            }
+            current[chunk][index & (CHUNK_SIZE - 1)] = ref;
+            // Publishes the reference, and any new chunk, to readers
+            size = index + 1;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+            return chunks[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+        }
+    }
+}
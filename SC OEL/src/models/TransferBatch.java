@@ -0,0 +1,44 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * A list of transfers to be applied together by {@link Bank#transferBatch},
+ * e.g. the lines of a payroll or settlement file. Amounts are in cents.
+ */
+public class TransferBatch {
+    private String[] sources = new String[16];
+    private String[] destinations = new String[16];
+    private long[] amounts = new long[16];
+    private int size;
+
+    public TransferBatch add(String sourceAccountNumber, String destinationAccountNumber, long amount) {
+        if (size == amounts.length) {
+            int capacity = size * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            destinations = Arrays.copyOf(destinations, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+        }
+        sources[size] = sourceAccountNumber;
+        destinations[size] = destinationAccountNumber;
+        amounts[size] = amount;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getSourceAccountNumber(int item) {
+        return sources[item];
+    }
+
+    public String getDestinationAccountNumber(int item) {
+        return destinations[item];
+    }
+
+    public long getAmount(int item) {
+        return amounts[item];
+    }
+}
@@ -0,0 +1,9 @@
+package models;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("bank.Transfer")
+@Label("Transfer")
+final class TransferEvent extends PostingEvent {
+}
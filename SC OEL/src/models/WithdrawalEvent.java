@@ -0,0 +1,9 @@
+package models;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("bank.Withdrawal")
+@Label("Withdrawal")
+final class WithdrawalEvent extends PostingEvent {
+}
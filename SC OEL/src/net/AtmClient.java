@@ -0,0 +1,136 @@
+package net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blocking client of the ATM line protocol, for tests and load drivers.
+ * One request at a time; not thread-safe.
+ *
+ * <pre>
+ * try (AtmClient atm = AtmClient.loopback(server.getPort())) {
+ *     atm.login("C001", "1234");
+ *     long balance = atm.balance("SAV10001");
+ * }
+ * </pre>
+ */
+public class AtmClient implements AutoCloseable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final OutputStream out;
+
+    public AtmClient(InetSocketAddress address) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = socket.getOutputStream();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** Connects to a server on this machine. */
+    public static AtmClient loopback(int port) throws IOException {
+        return new AtmClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Sends one request line and returns the reply line as is.
+     */
+    public String send(String request) throws IOException {
+        out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null) {
+            throw new IOException("Connection closed by server");
+        }
+        return reply;
+    }
+
+    /**
+     * Sends a request and returns the words after OK, or throws
+     * ErrorReply with the server's message.
+     */
+    public String[] call(String request) throws IOException {
+        String reply = send(request);
+        if (reply.equals("OK")) {
+            return new String[0];
+        }
+        if (reply.startsWith("OK ")) {
+            return reply.substring(3).split(" ");
+        }
+        throw new ErrorReply(reply.startsWith("ERR ") ? reply.substring(4) : reply);
+    }
+
+    /** Returns the customer's name. */
+    public String login(String customerId, String pin) throws IOException {
+        return call("LOGIN " + customerId + " " + pin)[0].replace('_', ' ');
+    }
+
+    public void logout() throws IOException {
+        call("LOGOUT");
+    }
+
+    /** Returns {@code number:type:balance} for each of the customer's accounts. */
+    public String[] accounts() throws IOException {
+        return call("ACCOUNTS");
+    }
+
+    public long balance(String accountNumber) throws IOException {
+        return Long.parseLong(call("BALANCE " + accountNumber)[0]);
+    }
+
+    /** Returns the balance after the deposit. */
+    public long deposit(String accountNumber, long amount) throws IOException {
+        return Long.parseLong(call("DEPOSIT " + accountNumber + " " + amount)[1]);
+    }
+
+    /** Returns the balance after the withdrawal. */
+    public long withdraw(String accountNumber, long amount) throws IOException {
+        return Long.parseLong(call("WITHDRAW " + accountNumber + " " + amount)[1]);
+    }
+
+    /** Returns the source balance after the transfer. */
+    public long transfer(String sourceAccountNumber, String destinationAccountNumber, long amount)
+            throws IOException {
+        return Long.parseLong(call("TRANSFER " + sourceAccountNumber + " " + destinationAccountNumber
+                                   + " " + amount)[1]);
+    }
+
+    /**
+     * Returns the next page token, or "-" on the last page, followed by
+     * {@code id:type:status:amount:fee:millis} for each posting.
+     */
+    public String[] history(String accountNumber, int limit, String pageToken) throws IOException {
+        return call("HISTORY " + accountNumber + " " + limit + (pageToken != null ? " " + pageToken : ""));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send("QUIT");
+        } catch (IOException e) {
+            // Closing anyway
+        } finally {
+            socket.close();
+        }
+    }
+
+    /** An ERR reply. The connection stays usable. */
+    public static class ErrorReply extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ErrorReply(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package net;
+
+import models.Bank;
+import models.PostingPipeline;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the {@link AtmSession} line protocol to many terminals at once.
+ *
+ * One selector thread accepts connections, reads request lines and writes
+ * replies; it never touches the bank. Requests run on a small worker pool,
+ * because a posting waits for the journal. Each connection has at most one
+ * request running, so its replies come back in request order; further
+ * lines are buffered, and a connection that queues too many stops being
+ * read until it catches up. If accepting fails, e.g. when out of file
+ * descriptors, new connections are left pending for a while, doubling up to
+ * a second, while the open ones are still served.
+ */
+public class AtmServer implements AutoCloseable {
+    public static final int MAX_LINE_BYTES = 1024;
+    private static final int MAX_QUEUED_LINES = 64;
+    private static final long MIN_ACCEPT_PAUSE_MILLIS = 10;
+    private static final long MAX_ACCEPT_PAUSE_MILLIS = 1000;
+    private static final System.Logger LOG = System.getLogger(AtmServer.class.getName());
+
+    private final Bank bank;
+    private final PostingPipeline pipeline;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SelectionKey acceptKey;
+    private final Thread loop;
+    // Connections whose running request has replied, for the selector thread to pick up
+    private final ConcurrentLinkedQueue<Connection> replied = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean running = true;
+    // Accept backoff; selector thread only
+    private long acceptPauseMillis;
+    private boolean acceptPaused;
+    private long acceptResumeNanos;
+
+    /**
+     * Binds the address and starts serving. Port 0 picks a free port; see
+     * {@link #getPort}.
+     *
+     * @param pipeline postings go through it when not null
+     * @param workers  threads running requests
+     */
+    public AtmServer(Bank bank, PostingPipeline pipeline, InetSocketAddress address, int workers)
+            throws IOException {
+        this.bank = bank;
+        this.pipeline = pipeline;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address, 1024);
+            server.configureBlocking(false);
+            this.acceptKey = server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "atm-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loop = new Thread(this::run, "atm-server");
+        this.loop.setDaemon(true);
+        this.loop.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (acceptPaused) {
+                    selector.select(Math.max(1, (acceptResumeNanos - System.nanoTime()) / 1_000_000));
+                    if (System.nanoTime() - acceptResumeNanos >= 0) {
+                        acceptPaused = false;
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                } else {
+                    selector.select();
+                }
+                for (Connection connection; (connection = replied.poll()) != null; ) {
+                    connection.replied();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(System.Logger.Level.WARNING, "ATM server error", e);
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                // The connection stays pending, so selecting again at once would spin
+                acceptPauseMillis = Math.min(Math.max(2 * acceptPauseMillis, MIN_ACCEPT_PAUSE_MILLIS),
+                                             MAX_ACCEPT_PAUSE_MILLIS);
+                LOG.log(System.Logger.Level.WARNING,
+                        "ATM server cannot accept, pausing " + acceptPauseMillis + " ms", e);
+                acceptKey.interestOps(0);
+                acceptPaused = true;
+                acceptResumeNanos = System.nanoTime() + acceptPauseMillis * 1_000_000;
+                return;
+            }
+            if (channel == null) {
+                acceptPauseMillis = 0;
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                openConnections.incrementAndGet();
+            } catch (IOException e) {
+                LOG.log(System.Logger.Level.WARNING, "ATM server cannot set up a connection", e);
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    // Already failed
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting, closes every connection and waits for running
+     * requests to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One terminal. Touched only by the selector thread, except that a
+     * worker sets {@code reply} before queuing the connection on
+     * {@code replied}.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final AtmSession session = new AtmSession(bank, pipeline);
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE_BYTES);
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private SelectionKey key;
+        private boolean running;         // A request is on the worker pool
+        private volatile String reply;   // Its reply, once done
+        private boolean closing;         // Close once the replies so far are written
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                // The terminal is done sending; answer what it sent, then close
+                closing = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                dispatch();
+                return;
+            }
+
+            in.flip();
+            int start = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                    lines.add(new String(in.array(), start, end - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining()) {
+                send("ERR Line too long");
+                closing = true;
+                lines.clear();
+            }
+            dispatch();
+        }
+
+        /** Starts the next buffered line if no request is running. */
+        private void dispatch() {
+            if (!running && !lines.isEmpty() && !session.isFinished()) {
+                String line = lines.poll();
+                running = true;
+                requests.incrementAndGet();
+                workers.execute(() -> {
+                    String result;
+                    try {
+                        result = session.handle(line);
+                    } catch (RuntimeException e) {
+                        result = "ERR " + e;
+                    }
+                    reply = result;
+                    replied.add(this);
+                    selector.wakeup();
+                });
+            }
+            if (!running && (closing || session.isFinished()) && out.isEmpty()) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        void replied() {
+            running = false;
+            send(reply);
+            if (session.isFinished()) {
+                closing = true;
+                lines.clear();
+            }
+            try {
+                write();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (key.isValid()) {
+                dispatch();
+            }
+        }
+
+        private void send(String line) {
+            out.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        void write() throws IOException {
+            try {
+                while (!out.isEmpty()) {
+                    ByteBuffer head = out.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    out.poll();
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (out.isEmpty() && closing && !running) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (!closing && !session.isFinished() && lines.size() < MAX_QUEUED_LINES) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!out.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            openConnections.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package net;
+
+import exceptions.InvalidAccountException;
+import models.Bank;
+import models.BankAccount;
+import models.Customer;
+import models.HistoryPage;
+import models.HistoryQuery;
+import models.PostingPipeline;
+import models.Transaction;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * One terminal's conversation with the bank over the ATM line protocol.
+ * Each request is one line of words separated by spaces and gets exactly
+ * one reply line, {@code OK ...} or {@code ERR message}. Amounts are in
+ * cents.
+ *
+ * <pre>
+ * LOGIN customerId pin             OK name
+ * ACCOUNTS                         OK number:type:balance ...
+ * BALANCE account                  OK balance
+ * DEPOSIT account amount           OK transactionId balanceAfter
+ * WITHDRAW account amount          OK transactionId balanceAfter
+ * TRANSFER from to amount          OK transactionId balanceAfter
+ * HISTORY account limit [token]    OK nextToken|- id:type:status:amount:fee:millis ...
+ * LOGOUT                           OK
+ * QUIT                             OK, then the server closes the connection
+ * </pre>
+ *
+ * Everything but LOGIN and QUIT needs a login, and only the customer's own
+ * accounts may be used, except as a transfer destination. History is
+ * newest first, one page per request.
+ */
+public class AtmSession {
+    private final Bank bank;
+    private final PostingPipeline pipeline;  // Null to post in the calling thread
+    private Customer customer;
+    private boolean finished;
+
+    public AtmSession(Bank bank, PostingPipeline pipeline) {
+        this.bank = bank;
+        this.pipeline = pipeline;
+    }
+
+    /** True once the terminal has sent QUIT. */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Handles one request line and returns the reply line, without the
+     * line terminator.
+     */
+    public String handle(String request) {
+        String[] words = request.trim().split(" +");
+        try {
+            return "OK" + execute(words);
+        } catch (NumberFormatException e) {
+            return "ERR Invalid number";
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return "ERR " + message.replace('\n', ' ').replace('\r', ' ');
+        }
+    }
+
+    private String execute(String[] words) throws Exception {
+        String command = words[0].toUpperCase();
+        switch (command) {
+            case "LOGIN":
+                arguments(words, 2);
+                customer = bank.authenticateCustomer(words[1], words[2]);
+                if (customer == null) {
+                    throw new IllegalArgumentException("Invalid customer ID or PIN");
+                }
+                return " " + customer.getName().replace(' ', '_');
+            case "QUIT":
+                finished = true;
+                customer = null;
+                return "";
+            case "":
+                throw new IllegalArgumentException("Empty request");
+            default:
+                break;
+        }
+
+        if (customer == null) {
+            throw new IllegalStateException("Not logged in");
+        }
+        switch (command) {
+            case "LOGOUT":
+                customer = null;
+                return "";
+            case "ACCOUNTS": {
+                StringBuilder reply = new StringBuilder();
+                for (BankAccount account : customer.getAccounts()) {
+                    reply.append(' ').append(account.getAccountNumber()).append(':')
+                         .append(account.getAccountType()).append(':').append(account.getBalance());
+                }
+                return reply.toString();
+            }
+            case "BALANCE":
+                arguments(words, 1);
+                return " " + own(words[1]).getBalance();
+            case "DEPOSIT": {
+                arguments(words, 2);
+                BankAccount account = own(words[1]);
+                long amount = Long.parseLong(words[2]);
+                return posted(pipeline != null ? await(pipeline.deposit(account.getAccountNumber(), amount))
+                                               : account.deposit(amount));
+            }
+            case "WITHDRAW": {
+                arguments(words, 2);
+                BankAccount account = own(words[1]);
+                long amount = Long.parseLong(words[2]);
+                return posted(pipeline != null ? await(pipeline.withdraw(account.getAccountNumber(), amount))
+                                               : account.withdraw(amount));
+            }
+            case "TRANSFER": {
+                arguments(words, 3);
+                BankAccount source = own(words[1]);
+                long amount = Long.parseLong(words[3]);
+                return posted(pipeline != null
+                    ? await(pipeline.transfer(source.getAccountNumber(), words[2], amount))
+                    : bank.transferFunds(source.getAccountNumber(), words[2], amount));
+            }
+            case "HISTORY":
+                return history(words);
+            default:
+                throw new IllegalArgumentException("Unknown command " + words[0]);
+        }
+    }
+
+    private String history(String[] words) throws Exception {
+        if (words.length != 3 && words.length != 4) {
+            throw new IllegalArgumentException("Usage: HISTORY account limit [token]");
+        }
+        HistoryQuery query = new HistoryQuery().newestFirst().limit(Integer.parseInt(words[2]));
+        if (words.length == 4) {
+            query.after(words[3]);
+        }
+        HistoryPage page = own(words[1]).queryHistory(query);
+
+        StringBuilder reply = new StringBuilder(" ");
+        reply.append(page.hasMore() ? page.getNextPageToken() : "-");
+        for (Transaction txn : page.getTransactions()) {
+            reply.append(' ').append(txn.getTransactionId()).append(':').append(txn.getType())
+                 .append(':').append(txn.getStatus()).append(':').append(txn.getAmount())
+                 .append(':').append(txn.getFee()).append(':').append(txn.getTimestampMillis());
+        }
+        return reply.toString();
+    }
+
+    private BankAccount own(String accountNumber) throws InvalidAccountException {
+        BankAccount account = customer.getAccountByNumber(accountNumber);
+        if (account == null) {
+            throw new InvalidAccountException("Not your account: " + accountNumber);
+        }
+        return account;
+    }
+
+    private static void arguments(String[] words, int count) {
+        if (words.length != count + 1) {
+            throw new IllegalArgumentException(words[0] + " takes " + count + " argument(s)");
+        }
+    }
+
+    private static String posted(Transaction txn) {
+        return " " + txn.getTransactionId() + " " + txn.getBalanceAfter();
+    }
+
+    private static Transaction await(CompletableFuture<Transaction> posting) throws Exception {
+        try {
+            return posting.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package net;
+
+import models.Bank;
+import models.PostingPipeline;
+import ui.ATM;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the interactive {@link ATM} dialog, unchanged, for each terminal
+ * that connects: the same prompts and menus as the console, one session
+ * per connection, each on its own thread with plain blocking I/O.
+ *
+ * Sessions run on virtual threads when the runtime has them (Java 21 and
+ * later), so tens of thousands of idle terminals cost little. On older
+ * runtimes each session gets a platform thread with a small stack.
+ *
+ * If accepting fails, e.g. when out of file descriptors, the acceptor
+ * waits before trying again, doubling the wait up to a second.
+ */
+public class AtmTerminalServer implements AutoCloseable {
+    private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+    private static final long MIN_ACCEPT_PAUSE_MILLIS = 10;
+    private static final long MAX_ACCEPT_PAUSE_MILLIS = 1000;
+    private static final System.Logger LOG = System.getLogger(AtmTerminalServer.class.getName());
+
+    private final Bank bank;
+    private final PostingPipeline pipeline;
+    private final ServerSocket server;
+    private final ExecutorService sessions;
+    private final boolean virtualThreads;
+    private final Thread acceptor;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * Binds the address and starts accepting. Port 0 picks a free port;
+     * see {@link #getPort}.
+     *
+     * @param pipeline postings go through it when not null
+     */
+    public AtmTerminalServer(Bank bank, PostingPipeline pipeline, InetSocketAddress address) throws IOException {
+        this.bank = bank;
+        this.pipeline = pipeline;
+        this.server = new ServerSocket();
+        try {
+            server.bind(address, 1024);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.sessions = virtual != null ? virtual : platformThreadExecutor();
+        this.acceptor = new Thread(this::acceptLoop, "atm-terminal-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** True if sessions run on virtual threads. */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** Sessions currently connected. */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    private void acceptLoop() {
+        long pauseMillis = 0;
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+                pauseMillis = 0;
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                // A failure that persists would otherwise spin this thread
+                pauseMillis = Math.min(Math.max(2 * pauseMillis, MIN_ACCEPT_PAUSE_MILLIS), MAX_ACCEPT_PAUSE_MILLIS);
+                LOG.log(System.Logger.Level.WARNING,
+                        "ATM terminal server cannot accept, pausing " + pauseMillis + " ms", e);
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            open.add(socket);
+            sessionCount.incrementAndGet();
+            sessions.execute(() -> serve(socket));
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false,
+                                              StandardCharsets.UTF_8);
+            // A prompt is flushed once the session waits for the answer, so each screen is one write
+            InputStream in = new FlushingInputStream(socket.getInputStream(), out);
+            new ATM(bank, pipeline, in, out).start();
+            out.flush();
+        } catch (SocketException | NoSuchElementException e) {
+            // The terminal hung up mid-dialog
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.WARNING, "ATM terminal session error", e);
+        } finally {
+            open.remove(socket);
+            sessionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting and disconnects every session.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        acceptor.interrupt();
+        for (Socket socket : open) {
+            socket.close();
+        }
+        sessions.shutdown();
+        try {
+            sessions.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} when this runtime
+     * has it, found reflectively so the source still builds for Java 17.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService platformThreadExecutor() {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(null, runnable, "atm-terminal-" + threads.incrementAndGet(),
+                                       PLATFORM_STACK_BYTES);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Flushes the session's output before blocking for input. */
+    private static final class FlushingInputStream extends FilterInputStream {
+        private final OutputStream out;
+
+        FlushingInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            out.flush();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            out.flush();
+            return super.read(buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package persistence;
+
+import java.util.Arrays;
+
+/**
+ * The blocks of one growing list of fixed-width records in the shared
+ * segments of a {@link MappedHistoryStore}. The first block holds 16
+ * records, and each later one twice as many as the one before, up to 4096,
+ * so a short list takes little space and a long one few blocks. The heap
+ * holds one store address per block.
+ *
+ * Appends must be serialized by the owner; lookups take no lock.
+ */
+final class BlockChain {
+    static final int FIRST_BLOCK_SHIFT = 4;  // 16 records
+    static final int LAST_BLOCK_SHIFT = 12;  // 4096 records
+    // Blocks before the first full-size one, and the records they hold
+    private static final int GROWING_BLOCKS = LAST_BLOCK_SHIFT - FIRST_BLOCK_SHIFT;
+    private static final int GROWING_RECORDS = ((1 << GROWING_BLOCKS) - 1) << FIRST_BLOCK_SHIFT;
+
+    private final MappedHistoryStore store;
+    private final int recordBytes;
+    private volatile long[] blocks = new long[0];  // Store addresses, copy on write
+
+    BlockChain(MappedHistoryStore store, int recordBytes) {
+        this(store, recordBytes, new long[0]);
+    }
+
+    /** A chain over blocks already in the store. */
+    BlockChain(MappedHistoryStore store, int recordBytes, long[] blocks) {
+        this.store = store;
+        this.recordBytes = recordBytes;
+        this.blocks = blocks.clone();
+    }
+
+    /** Store addresses of the blocks taken so far. */
+    long[] blocks() {
+        return blocks.clone();
+    }
+
+    /** Store address of a record the owner has published. */
+    long address(int index) {
+        int block = block(index);
+        return blocks[block] + (long) (index - firstRecord(block)) * recordBytes;
+    }
+
+    /** Store address of the next record, taking a new block if needed. */
+    long addressForAppend(int index) {
+        int block = block(index);
+        long[] current = blocks;
+        if (block == current.length) {
+            long[] grown = Arrays.copyOf(current, block + 1);
+            grown[block] = store.allocate((1 << blockShift(block)) * recordBytes);
+            blocks = grown;
+            current = grown;
+        }
+        return current[block] + (long) (index - firstRecord(block)) * recordBytes;
+    }
+
+    /** The block holding a record. */
+    private static int block(int index) {
+        if (index < GROWING_RECORDS) {
+            // Block k of the growing ones starts at record 16 * (2^k - 1)
+            return 31 - Integer.numberOfLeadingZeros((index >>> FIRST_BLOCK_SHIFT) + 1);
+        }
+        return GROWING_BLOCKS + ((index - GROWING_RECORDS) >>> LAST_BLOCK_SHIFT);
+    }
+
+    private static int firstRecord(int block) {
+        return block < GROWING_BLOCKS ? ((1 << block) - 1) << FIRST_BLOCK_SHIFT
+                                      : GROWING_RECORDS + ((block - GROWING_BLOCKS) << LAST_BLOCK_SHIFT);
+    }
+
+    /** Log2 of the records a block holds. */
+    private static int blockShift(int block) {
+        return Math.min(FIRST_BLOCK_SHIFT + block, LAST_BLOCK_SHIFT);
+    }
+}
@@ -0,0 +1,263 @@
+package persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Batches journal writes from many threads into a single force().
+ *
+ * Callers hand in an encoded record and park. A dedicated flusher thread
+ * takes the first waiting record, keeps collecting until either the batch
+ * is full or the batch delay has passed, writes the whole batch with one
+ * gathering write, forces the channel once and then releases every caller
+ * in the batch. Metrics are only written by the flusher thread.
+ */
+public class GroupCommitter implements AutoCloseable {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_MAX_BATCH_DELAY_MICROS = 200;
+
+    private static final Pending SHUTDOWN = new Pending(null);
+
+    private final FileChannel channel;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    // Written by the flusher thread only
+    private volatile long batchCount;
+    private volatile long recordCount;
+    private volatile int maxObservedBatch;
+    private volatile long totalLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long durableOffset;
+
+    private static final class Pending {
+        final ByteBuffer record;
+        final Thread waiter;
+        final long submittedAt;
+        volatile boolean done;
+        volatile boolean written;
+
+        Pending(ByteBuffer record) {
+            this.record = record;
+            this.waiter = Thread.currentThread();
+            this.submittedAt = System.nanoTime();
+        }
+    }
+
+    public GroupCommitter(FileChannel channel, int maxBatchSize, long maxBatchDelayMicros)
+            throws IOException {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        if (maxBatchDelayMicros < 0) {
+            throw new IllegalArgumentException("Batch delay cannot be negative.");
+        }
+        this.channel = channel;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros);
+        this.durableOffset = channel.position();
+        this.flusher = new Thread(this::run, "journal-group-commit");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues a complete record and parks until it is durable, even if the
+     * caller is interrupted meanwhile; the interrupt is kept for the caller.
+     * Throws UncheckedIOException if the batch could not be written.
+     */
+    public void commit(ByteBuffer record) {
+        checkUsable();
+        Pending pending = new Pending(record);
+        queue.add(pending);
+        // park() returns at once while the interrupt flag is set, so clear it until released
+        boolean interrupted = false;
+        while (!pending.done) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!pending.written) {
+            checkUsable();
+            throw new IllegalStateException("Journal closed before the record was written.");
+        }
+    }
+
+    private void checkUsable() {
+        IOException error = failure;
+        if (error != null) {
+            throw new UncheckedIOException("Journal write failed: " + error.getMessage(), error);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed.");
+        }
+    }
+
+    private void run() {
+        ArrayList<Pending> batch = new ArrayList<>(maxBatchSize);
+        ByteBuffer[] buffers = new ByteBuffer[maxBatchSize];
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                long deadline = System.nanoTime() + maxBatchDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopping = true;
+            }
+
+            if (batch.remove(SHUTDOWN)) {
+                stopping = true;
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                flush(batch, buffers);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(ArrayList<Pending> batch, ByteBuffer[] buffers) {
+        if (failure == null) {
+            try {
+                int count = 0;
+                for (Pending pending : batch) {
+                    if (count == buffers.length) {
+                        write(buffers, count);
+                        count = 0;
+                    }
+                    buffers[count++] = pending.record;
+                }
+                write(buffers, count);
+                channel.force(false);
+                durableOffset = channel.position();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        boolean written = failure == null;
+        long now = System.nanoTime();
+        long latencySum = 0;
+        long latencyMax = maxLatencyNanos;
+        for (Pending pending : batch) {
+            long latency = now - pending.submittedAt;
+            latencySum += latency;
+            latencyMax = Math.max(latencyMax, latency);
+            pending.written = written;
+            release(pending);
+        }
+
+        batchCount++;
+        recordCount += batch.size();
+        maxObservedBatch = Math.max(maxObservedBatch, batch.size());
+        totalLatencyNanos += latencySum;
+        maxLatencyNanos = latencyMax;
+    }
+
+    private static void release(Pending pending) {
+        pending.done = true;
+        LockSupport.unpark(pending.waiter);
+    }
+
+    private void write(ByteBuffer[] buffers, int count) throws IOException {
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += buffers[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers, 0, count);
+        }
+    }
+
+    /**
+     * File offset up to which every record is complete and forced to disk.
+     */
+    public long getDurableOffset() {
+        return durableOffset;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxBatchDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxBatchDelayNanos);
+    }
+
+    /** Number of force() calls issued so far. */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount;
+        return batches == 0 ? 0 : (double) recordCount / batches;
+    }
+
+    public int getLargestBatchSize() {
+        return maxObservedBatch;
+    }
+
+    /** Mean time from a caller submitting a record to being released. */
+    public double getAverageCommitLatencyMicros() {
+        long records = recordCount;
+        return records == 0 ? 0 : totalLatencyNanos / 1000.0 / records;
+    }
+
+    public double getMaxCommitLatencyMicros() {
+        return maxLatencyNanos / 1000.0;
+    }
+
+    /**
+     * Flushes everything already queued and stops the flusher thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        // Callers that raced with close are released unwritten
+        Pending straggler;
+        while ((straggler = queue.poll()) != null) {
+            release(straggler);
+        }
+    }
+}
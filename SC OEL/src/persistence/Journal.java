@@ -0,0 +1,671 @@
+package persistence;
+
+import enums.AccountStatus;
+import models.Bank;
+import models.BankAccount;
+import models.BatchResult;
+import models.BankEventListener;
+import models.CheckingAccount;
+import models.Customer;
+import models.InterestPeriods;
+import models.SavingsAccount;
+import models.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, checksummed binary journal of every state change of a Bank.
+ *
+ * Each record is {@code [int length][int crc32][body]}, where the body is a
+ * one-byte record type followed by its fields. A record is forced to disk
+ * before the operation that produced it returns; concurrent records share a
+ * single force() through the {@link GroupCommitter}. Postings, failed ones
+ * included, are stored as the history row they made: transaction number,
+ * time, status, amount, fee and balance after. Replay restores the row as
+ * it was and applies amount and fee as a delta, so balances do not depend
+ * on the order in which concurrent postings on one account reached the
+ * journal.
+ *
+ * If a batch fails to write the journal refuses all further writes: nothing past the
+ * last durable record can be acknowledged, and a restart recovers exactly
+ * the durable state.
+ */
+public class Journal implements BankEventListener, AutoCloseable {
+    // Type 1 held this record with the PIN as entered
+    static final byte CUSTOMER_REGISTERED = 21;
+    static final byte CUSTOMER_BLOCKED = 2;
+    static final byte CUSTOMER_UNBLOCKED = 3;
+    static final byte ACCOUNT_STATUS = 7;
+    static final byte ID_LEASE = 8;
+    static final byte BILLING_CYCLE = 11;
+    // Types 4, 5, 6, 9 and 10 held these records without transaction numbers and times
+    static final byte ACCOUNT_OPENED = 12;
+    static final byte POSTED = 13;
+    static final byte TRANSFERRED = 14;
+    // Types 15 and 16 held these records unsplit, however large
+    static final byte BATCH_SETTLED = 17;
+    static final byte INTEREST_POSTED = 18;
+    static final byte INTEREST_PERIOD_CLOSED = 19;
+    static final byte ACCRUAL_SETTLED = 20;
+    static final byte TRANSFER_PREPARED = 22;
+    static final byte TRANSFER_RESOLVED = 23;
+    static final byte FAILED_LOGINS = 24;
+
+    static final int HEADER_BYTES = 8;  // length + crc
+    static final int MAX_RECORD_BYTES = 1 << 16;
+    static final int POSTING_BYTES = 58;
+    // UTF account number of at most 18 characters, posting, posting count
+    private static final int SETTLEMENT_BYTES = 2 + 18 + POSTING_BYTES + Integer.BYTES;
+    // Type, "more parts follow" flag and entry count
+    private static final int PART_HEADER_BYTES = 2 + Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private Bank bank;
+    private GroupCommitter committer;
+    // Records of a pipeline step held back until its postedTogether call
+    private final ThreadLocal<ArrayList<ByteBuffer>> heldRecords = new ThreadLocal<>();
+
+    // Directory of the history rows that snapshots refer to, next to the journal
+    static final String SNAPSHOT_ROWS = "snapshot-rows";
+    private MappedHistoryStore snapshotRows;
+    private long snapshotOffset;
+    private long recoveredRecords;
+    private long recoveredBytes;
+    private long recoveryNanos;
+
+    private Journal(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Loads the newest snapshot next to the journal into an empty bank,
+     * replays the journal tail after it, drops any torn record at the end,
+     * and attaches the journal to the bank so new changes are appended.
+     * A missing file starts an empty journal.
+     */
+    public static Journal open(Path path, Bank bank) throws IOException {
+        return open(path, bank, GroupCommitter.DEFAULT_MAX_BATCH_SIZE,
+                    GroupCommitter.DEFAULT_MAX_BATCH_DELAY_MICROS);
+    }
+
+    /**
+     * Same as {@link #open(Path, Bank)} with an explicit group commit batch
+     * size and the longest time a batch waits for more records.
+     */
+    public static Journal open(Path path, Bank bank, int maxBatchSize, long maxBatchDelayMicros)
+            throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Journal journal = new Journal(path, channel);
+        try {
+            long start = System.nanoTime();
+            journal.snapshotRows = MappedHistoryStore.open(journal.getDirectory().resolve(SNAPSHOT_ROWS));
+            journal.snapshotOffset = Snapshotter.loadLatest(journal.getDirectory(), bank, channel.size(),
+                                                            journal.snapshotRows);
+            journal.recover(bank, journal.snapshotOffset);
+            journal.recoveryNanos = System.nanoTime() - start;
+            journal.committer = new GroupCommitter(channel, maxBatchSize, maxBatchDelayMicros);
+        } catch (IOException | RuntimeException e) {
+            if (journal.snapshotRows != null) {
+                journal.snapshotRows.close();
+            }
+            channel.close();
+            throw e;
+        }
+        bank.setEventListener(journal);
+        journal.bank = bank;
+        return journal;
+    }
+
+    /** Journal offset covered by the snapshot loaded at startup, or 0. */
+    public long getSnapshotOffset() {
+        return snapshotOffset;
+    }
+
+    /** Records replayed from the journal tail after the snapshot. */
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    /** Total size of the valid journal, including the part a snapshot covers. */
+    public long getRecoveredBytes() {
+        return recoveredBytes;
+    }
+
+    /** Time spent loading the snapshot and replaying the tail. */
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** Directory holding the journal and its snapshots. */
+    public Path getDirectory() {
+        Path parent = path.toAbsolutePath().getParent();
+        return parent != null ? parent : path.toAbsolutePath();
+    }
+
+    /**
+     * Batch size and commit latency metrics of the group commit stage.
+     */
+    public GroupCommitter getCommitter() {
+        return committer;
+    }
+
+    /** Store of the history rows the snapshots refer to; restored histories read from it. */
+    MappedHistoryStore getSnapshotRows() {
+        return snapshotRows;
+    }
+
+    private void recover(Bank bank, long from) throws IOException {
+        JournalReader reader = new JournalReader(channel);
+        BankReplayer replayer = new BankReplayer(bank);
+        reader.read(from, Long.MAX_VALUE, replayer);
+        // A lease held back with a pipeline step may be missing; the postings still count
+        Transaction.advanceTransactionCounter(replayer.lastSequence);
+
+        // Anything after the last good record was never acknowledged
+        long validEnd = reader.getValidEnd();
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+        recoveredRecords = reader.getRecords();
+        recoveredBytes = validEnd;
+    }
+
+    /**
+     * Applies journal records to a live bank without re-running business rules.
+     */
+    private static final class BankReplayer implements JournalVisitor {
+        private final Bank bank;
+        private long lastSequence;
+
+        BankReplayer(Bank bank) {
+            this.bank = bank;
+        }
+
+        @Override
+        public void customerRegistered(String customerId, String name, String pinHash) {
+            bank.restoreCustomer(customerId, name, pinHash);
+        }
+
+        @Override
+        public void customerBlocked(String customerId) throws IOException {
+            customer(customerId).setLoginStatus(AccountStatus.BLOCKED);
+        }
+
+        @Override
+        public void customerUnblocked(String customerId) throws IOException {
+            customer(customerId).resetFailedAttempts();
+        }
+
+        @Override
+        public void failedLoginsChanged(String customerId, int attempts) throws IOException {
+            customer(customerId).restoreFailedLoginAttempts(attempts);
+        }
+
+        @Override
+        public void accountOpened(String accountNumber, String customerId, long initialBalance,
+                                  Transaction opening) throws Exception {
+            BankAccount account = bank.restoreAccount(accountNumber, customerId, initialBalance);
+            if (opening != null) {
+                if (account instanceof SavingsAccount) {
+                    ((SavingsAccount) account).restoreAccrual(
+                        bank.getInterestPeriods().current(), opening.getTimestampMillis() / 1000, 0);
+                }
+                account.restorePosting(opening);
+                lastSequence = Math.max(lastSequence, opening.getSequence());
+            }
+        }
+
+        @Override
+        public void accountStatusChanged(String accountNumber, AccountStatus status) throws IOException {
+            account(accountNumber).setStatus(status);
+        }
+
+        @Override
+        public void posted(String accountNumber, Transaction posting) throws IOException {
+            account(accountNumber).replayPosting(posting);
+            lastSequence = Math.max(lastSequence, posting.getSequence());
+        }
+
+        @Override
+        public void transferred(Transaction transferOut, Transaction transferIn) throws IOException {
+            account(transferOut.getSourceAccountNumber()).replayPosting(transferOut);
+            account(transferIn.getDestinationAccountNumber()).replayPosting(transferIn);
+            lastSequence = Math.max(lastSequence, Math.max(transferOut.getSequence(), transferIn.getSequence()));
+        }
+
+        @Override
+        public void transferPrepared(Transaction transferOut) throws IOException {
+            posted(transferOut.getSourceAccountNumber(), transferOut);
+            bank.restorePreparedTransfer(transferOut);
+        }
+
+        @Override
+        public void transferResolved(long sequence, Transaction refund) throws IOException {
+            if (refund != null) {
+                posted(refund.getDestinationAccountNumber(), refund);
+            }
+            bank.resolvePreparedTransfer(sequence);
+        }
+
+        @Override
+        public void batchSettled(String batchId, String accountNumber, Transaction settlement, int postings)
+                throws IOException {
+            account(accountNumber).replaySettlement(settlement, postings);
+            lastSequence = Math.max(lastSequence, settlement.getSequence());
+        }
+
+        @Override
+        public void accrualSettled(String accountNumber, Transaction posting) throws IOException {
+            BankAccount account = account(accountNumber);
+            if (!(account instanceof SavingsAccount)) {
+                throw new IOException("Accrued interest for non-savings account " + accountNumber);
+            }
+            ((SavingsAccount) account).replayAccrualSettlement(posting);
+            lastSequence = Math.max(lastSequence, posting.getSequence());
+        }
+
+        @Override
+        public void interestPeriodClosed(int period, long end) throws IOException {
+            InterestPeriods periods = bank.getInterestPeriods();
+            if (period != periods.current()) {
+                throw new IOException("Interest period " + period + " closed while period "
+                                      + periods.current() + " is open");
+            }
+            periods.close(end);
+        }
+
+        @Override
+        public void transactionIdsLeased(long limit) {
+            Transaction.advanceTransactionCounter(limit - 1);
+        }
+
+        @Override
+        public void billingCycleStarted(String accountNumber, int cycle) throws IOException {
+            BankAccount account = account(accountNumber);
+            if (!(account instanceof CheckingAccount)) {
+                throw new IOException("Billing cycle for non-checking account " + accountNumber);
+            }
+            ((CheckingAccount) account).replayBillingCycle(cycle);
+        }
+
+        private Customer customer(String customerId) throws IOException {
+            Customer customer = bank.getCustomer(customerId);
+            if (customer == null) {
+                throw new IOException("Unknown customer " + customerId);
+            }
+            return customer;
+        }
+
+        private BankAccount account(String accountNumber) throws IOException {
+            BankAccount account = bank.getAccount(accountNumber);
+            if (account == null) {
+                throw new IOException("Unknown account " + accountNumber);
+            }
+            return account;
+        }
+    }
+
+    @Override
+    public void customerRegistered(Customer customer) {
+        Record record = new Record(CUSTOMER_REGISTERED);
+        record.writeUTF(customer.getCustomerId());
+        record.writeUTF(customer.getName());
+        record.writeUTF(customer.getPinHash());
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void customerBlocked(String customerId) {
+        Record record = new Record(CUSTOMER_BLOCKED);
+        record.writeUTF(customerId);
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void customerUnblocked(String customerId) {
+        Record record = new Record(CUSTOMER_UNBLOCKED);
+        record.writeUTF(customerId);
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void failedLoginsChanged(String customerId, int attempts) {
+        Record record = new Record(FAILED_LOGINS);
+        record.writeUTF(customerId);
+        record.writeInt(attempts);
+        commit(record.toBuffer());
+    }
+
+    /**
+     * Carries the opening deposit, if any, so replay restores it as made.
+     */
+    @Override
+    public void accountOpened(BankAccount account, long initialBalance) {
+        Record record = new Record(ACCOUNT_OPENED);
+        record.writeUTF(account.getAccountNumber());
+        record.writeUTF(account.getCustomerId());
+        record.writeLong(initialBalance);
+        List<Transaction> history = account.getTransactionHistory();
+        record.writeByte(history.isEmpty() ? 0 : 1);
+        if (!history.isEmpty()) {
+            record.writePosting(history.get(0));
+        }
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void accountStatusChanged(BankAccount account) {
+        Record record = new Record(ACCOUNT_STATUS);
+        record.writeUTF(account.getAccountNumber());
+        record.writeByte(account.getStatus().ordinal());
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void posted(BankAccount account, Transaction transaction) {
+        commit(postedRecord(transaction));
+    }
+
+    @Override
+    public void transferred(Transaction transferOut, Transaction transferIn) {
+        commit(transferredRecord(transferOut, transferIn));
+    }
+
+    @Override
+    public void transferPrepared(BankAccount source, Transaction transferOut) {
+        Record record = new Record(TRANSFER_PREPARED);
+        record.writePosting(transferOut);
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void transferResolved(BankAccount source, Transaction transferOut, Transaction refund) {
+        Record record = new Record(TRANSFER_RESOLVED);
+        record.writeLong(transferOut.getSequence());
+        record.writeByte(refund != null ? 1 : 0);
+        if (refund != null) {
+            record.writePosting(refund);
+        }
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void stepStarted() {
+        heldRecords.set(new ArrayList<>());
+    }
+
+    /**
+     * The records held back since stepStarted, then the usual POSTED and
+     * TRANSFERRED records, written back to back and committed as one unit,
+     * so the whole step costs one wait for the flusher.
+     */
+    @Override
+    public void postedTogether(BankAccount[] accounts, Transaction[] postings, int count) {
+        ArrayList<ByteBuffer> records = heldRecords.get();
+        heldRecords.remove();
+        if (records == null) {
+            records = new ArrayList<>(count);
+        }
+        for (int i = 0; i < count; i++) {
+            records.add(accounts[i] == null ? transferredRecord(postings[i], postings[++i])
+                                            : postedRecord(postings[i]));
+        }
+        if (!records.isEmpty()) {
+            committer.commit(join(records.toArray(new ByteBuffer[0])));
+        }
+    }
+
+    // Holds the record back if the calling thread is in a pipeline step
+    private void commit(ByteBuffer record) {
+        ArrayList<ByteBuffer> held = heldRecords.get();
+        if (held != null) {
+            held.add(record);
+        } else {
+            committer.commit(record);
+        }
+    }
+
+    // The posting names its own account, see Record.writePosting
+    private static ByteBuffer postedRecord(Transaction posting) {
+        Record record = new Record(POSTED);
+        record.writePosting(posting);
+        return record.toBuffer();
+    }
+
+    private static ByteBuffer transferredRecord(Transaction transferOut, Transaction transferIn) {
+        Record record = new Record(TRANSFERRED);
+        record.writePosting(transferOut);
+        record.writePosting(transferIn);
+        return record.toBuffer();
+    }
+
+    /**
+     * One unit per slice of an interest run; replayed as deposits.
+     */
+    @Override
+    public void interestPosted(BankAccount[] accounts, Transaction[] postings) {
+        commit(interest(INTEREST_POSTED, postings));
+    }
+
+    /**
+     * One unit per settled account or slice of an accrual sweep; replayed
+     * as credits at the start of the open interest period.
+     */
+    @Override
+    public void accrualSettled(BankAccount[] accounts, Transaction[] postings) {
+        commit(interest(ACCRUAL_SETTLED, postings));
+    }
+
+    @Override
+    public void interestPeriodClosed(int period, long end) {
+        Record record = new Record(INTEREST_PERIOD_CLOSED);
+        record.writeInt(period);
+        record.writeLong(end);
+        commit(record.toBuffer());
+    }
+
+    private static ByteBuffer interest(byte type, Transaction[] postings) {
+        int perPart = (MAX_RECORD_BYTES - PART_HEADER_BYTES) / POSTING_BYTES;
+        ByteBuffer[] parts = new ByteBuffer[partCount(postings.length, perPart)];
+        for (int part = 0, from = 0; part < parts.length; part++, from += perPart) {
+            int to = Math.min(postings.length, from + perPart);
+            Record record = new Record(type);
+            record.writeByte(part < parts.length - 1 ? 1 : 0);
+            record.writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                record.writePosting(postings[i]);
+            }
+            parts[part] = record.toBuffer();
+        }
+        return join(parts);
+    }
+
+    /**
+     * The whole batch as one unit, so it is durable all at once. Large
+     * batches are split over several records that each flag whether
+     * another part follows; replay applies none of them until the last
+     * one is read.
+     */
+    @Override
+    public void batchSettled(BatchResult result) {
+        String batchId = result.getBatchId();
+        int count = result.getSettlementCount();
+        int perPart = (MAX_RECORD_BYTES - PART_HEADER_BYTES - 2 - 3 * batchId.length()) / SETTLEMENT_BYTES;
+        ByteBuffer[] parts = new ByteBuffer[partCount(count, perPart)];
+        for (int part = 0, from = 0; part < parts.length; part++, from += perPart) {
+            int to = Math.min(count, from + perPart);
+            Record record = new Record(BATCH_SETTLED);
+            record.writeByte(part < parts.length - 1 ? 1 : 0);
+            record.writeUTF(batchId);
+            record.writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                record.writeUTF(result.getSettledAccountNumber(i));
+                record.writePosting(result.getSettlement(i));
+                record.writeInt(result.getSettledPostings(i));
+            }
+            parts[part] = record.toBuffer();
+        }
+        commit(join(parts));
+    }
+
+    private static int partCount(int entries, int perPart) {
+        return Math.max(1, (entries + perPart - 1) / perPart);
+    }
+
+    private static ByteBuffer join(ByteBuffer[] records) {
+        if (records.length == 1) {
+            return records[0];
+        }
+        int bytes = 0;
+        for (ByteBuffer record : records) {
+            bytes += record.remaining();
+        }
+        ByteBuffer unit = ByteBuffer.allocate(bytes);
+        for (ByteBuffer record : records) {
+            unit.put(record);
+        }
+        return unit.flip();
+    }
+
+    @Override
+    public void billingCycleStarted(BankAccount account, int cycle) {
+        Record record = new Record(BILLING_CYCLE);
+        record.writeUTF(account.getAccountNumber());
+        record.writeInt(cycle);
+        commit(record.toBuffer());
+    }
+
+    @Override
+    public void transactionIdsLeased(long limit) {
+        Record record = new Record(ID_LEASE);
+        record.writeLong(limit);
+        commit(record.toBuffer());
+    }
+
+    /**
+     * Writes a posting as its history row, {@value #POSTING_BYTES} bytes.
+     * The account it belongs to is the destination of a TRANSFER_IN or
+     * REFUND and the source of anything else. Read back by
+     * {@code JournalReader.readPosting}.
+     */
+    static void writePosting(DataOutput out, Transaction posting) throws IOException {
+        out.writeLong(posting.getSequence());
+        out.writeLong(posting.getTimestampMillis());
+        out.writeByte(posting.getType().ordinal());
+        out.writeByte(posting.getStatus().ordinal());
+        out.writeLong(posting.getSourceAccountKey());
+        out.writeLong(posting.getDestinationAccountKey());
+        out.writeLong(posting.getAmount());
+        out.writeLong(posting.getBalanceAfter());
+        out.writeLong(posting.getFee());
+    }
+
+    /**
+     * Encodes one record. Each caller builds its own so encoding needs no
+     * lock; only the group commit stage serializes writes.
+     */
+    private static final class Record {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(body);
+
+        Record(byte type) {
+            writeByte(type);
+        }
+
+        void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeUTF(String value) {
+            try {
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writePosting(Transaction posting) {
+            try {
+                Journal.writePosting(out, posting);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Frames the body. Throws IllegalStateException for a body over
+         * MAX_RECORD_BYTES, which the reader would not accept.
+         */
+        ByteBuffer toBuffer() {
+            if (body.size() > MAX_RECORD_BYTES) {
+                throw new IllegalStateException("Journal record of " + body.size()
+                                                + " bytes exceeds " + MAX_RECORD_BYTES);
+            }
+            byte[] bytes = body.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bytes.length);
+            record.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+            return record;
+        }
+    }
+
+    /**
+     * Detaches from the bank, flushes pending records and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (bank != null) {
+            bank.setEventListener(BankEventListener.NONE);
+            bank = null;
+        }
+        if (committer != null) {
+            committer.close();
+        }
+        channel.close();
+        // Restored histories stay readable, the segments remain mapped
+        snapshotRows.close();
+    }
+}
@@ -0,0 +1,237 @@
+package persistence;
+
+import enums.AccountStatus;
+import enums.TransactionStatus;
+import enums.TransactionType;
+import models.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Streams journal records from a channel into a {@link JournalVisitor},
+ * stopping at the limit, at end of file, or at the first torn or corrupt
+ * record. A record split into parts counts as torn until its last part is
+ * read. A record that passes its CRC but is longer than MAX_RECORD_BYTES
+ * fails the read rather than being taken for a torn tail and truncated.
+ * Reading moves the channel position.
+ */
+class JournalReader {
+    private final FileChannel channel;
+    private long validEnd;
+    private long records;
+
+    JournalReader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Offset just past the last record that was read and applied. */
+    long getValidEnd() {
+        return validEnd;
+    }
+
+    long getRecords() {
+        return records;
+    }
+
+    void read(long from, long limit, JournalVisitor visitor) throws IOException {
+        validEnd = from;
+        records = 0;
+        channel.position(from);
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        byte[] buffer = new byte[512];
+        CRC32 check = new CRC32();
+        // Leading parts of a split record, applied once its last part is read
+        ArrayList<byte[]> parts = new ArrayList<>();
+        long position = from;
+
+        while (position + Journal.HEADER_BYTES <= limit) {
+            int length;
+            int checksum;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length <= 0 || position + Journal.HEADER_BYTES + length > limit) {
+                break;  // Torn or garbage tail
+            }
+            if (length > Journal.MAX_RECORD_BYTES) {
+                if (matches(in, length, checksum, check)) {
+                    throw new IOException("Journal record at offset " + position + " is " + length
+                                          + " bytes, more than the " + Journal.MAX_RECORD_BYTES
+                                          + " this reader accepts");
+                }
+                break;
+            }
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            try {
+                in.readFully(buffer, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            check.reset();
+            check.update(buffer, 0, length);
+            if ((int) check.getValue() != checksum) {
+                break;
+            }
+            position += Journal.HEADER_BYTES + length;
+
+            if (!parts.isEmpty() && buffer[0] != parts.get(0)[0]) {
+                throw new IOException("Journal record at offset " + validEnd
+                                      + " is split and its last part is missing");
+            }
+            if (continues(buffer)) {
+                parts.add(Arrays.copyOf(buffer, length));
+                continue;
+            }
+            try {
+                for (byte[] part : parts) {
+                    dispatch(new DataInputStream(new ByteArrayInputStream(part)), visitor);
+                }
+                dispatch(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)), visitor);
+            } catch (Exception e) {
+                throw new IOException("Journal record at offset " + validEnd + " cannot be applied: "
+                                      + e.getMessage(), e);
+            }
+            records += parts.size() + 1;
+            parts.clear();
+            validEnd = position;
+        }
+    }
+
+    // Batch and interest records start with a flag saying whether another part follows
+    private static boolean continues(byte[] record) {
+        return (record[0] == Journal.BATCH_SETTLED || record[0] == Journal.INTEREST_POSTED
+                || record[0] == Journal.ACCRUAL_SETTLED) && record[1] != 0;
+    }
+
+    /**
+     * Checks the CRC of a record too long to buffer, streaming its body.
+     */
+    private static boolean matches(DataInputStream in, int length, int checksum, CRC32 check)
+            throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        check.reset();
+        for (int left = length; left > 0; ) {
+            int read = in.read(chunk, 0, Math.min(chunk.length, left));
+            if (read < 0) {
+                return false;
+            }
+            check.update(chunk, 0, read);
+            left -= read;
+        }
+        return (int) check.getValue() == checksum;
+    }
+
+    private static void dispatch(DataInputStream in, JournalVisitor visitor) throws Exception {
+        byte type = in.readByte();
+        switch (type) {
+            case Journal.CUSTOMER_REGISTERED:
+                visitor.customerRegistered(in.readUTF(), in.readUTF(), in.readUTF());
+                break;
+            case Journal.CUSTOMER_BLOCKED:
+                visitor.customerBlocked(in.readUTF());
+                break;
+            case Journal.CUSTOMER_UNBLOCKED:
+                visitor.customerUnblocked(in.readUTF());
+                break;
+            case Journal.FAILED_LOGINS:
+                visitor.failedLoginsChanged(in.readUTF(), in.readInt());
+                break;
+            case Journal.ACCOUNT_OPENED: {
+                String accountNumber = in.readUTF();
+                String customerId = in.readUTF();
+                long initialBalance = in.readLong();
+                Transaction opening = in.readByte() != 0 ? readPosting(in) : null;
+                visitor.accountOpened(accountNumber, customerId, initialBalance, opening);
+                break;
+            }
+            case Journal.ACCOUNT_STATUS:
+                visitor.accountStatusChanged(in.readUTF(), AccountStatus.values()[in.readByte()]);
+                break;
+            case Journal.POSTED: {
+                Transaction posting = readPosting(in);
+                visitor.posted(owner(posting), posting);
+                break;
+            }
+            case Journal.TRANSFERRED:
+                visitor.transferred(readPosting(in), readPosting(in));
+                break;
+            case Journal.BATCH_SETTLED: {
+                in.readByte();  // More parts follow
+                String batchId = in.readUTF();
+                int settlements = in.readInt();
+                for (int i = 0; i < settlements; i++) {
+                    visitor.batchSettled(batchId, in.readUTF(), readPosting(in), in.readInt());
+                }
+                break;
+            }
+            case Journal.INTEREST_POSTED: {
+                in.readByte();
+                int accounts = in.readInt();
+                for (int i = 0; i < accounts; i++) {
+                    Transaction posting = readPosting(in);
+                    visitor.posted(owner(posting), posting);
+                }
+                break;
+            }
+            case Journal.ACCRUAL_SETTLED: {
+                in.readByte();
+                int accounts = in.readInt();
+                for (int i = 0; i < accounts; i++) {
+                    Transaction posting = readPosting(in);
+                    visitor.accrualSettled(owner(posting), posting);
+                }
+                break;
+            }
+            case Journal.INTEREST_PERIOD_CLOSED:
+                visitor.interestPeriodClosed(in.readInt(), in.readLong());
+                break;
+            case Journal.ID_LEASE:
+                visitor.transactionIdsLeased(in.readLong());
+                break;
+            case Journal.BILLING_CYCLE:
+                visitor.billingCycleStarted(in.readUTF(), in.readInt());
+                break;
+            case Journal.TRANSFER_PREPARED:
+                visitor.transferPrepared(readPosting(in));
+                break;
+            case Journal.TRANSFER_RESOLVED: {
+                long sequence = in.readLong();
+                visitor.transferResolved(sequence, in.readByte() != 0 ? readPosting(in) : null);
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /** Reads a posting written by {@link Journal#writePosting}. */
+    static Transaction readPosting(DataInput in) throws IOException {
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        TransactionType type = TransactionType.values()[in.readByte()];
+        TransactionStatus status = TransactionStatus.values()[in.readByte()];
+        return new Transaction(sequence, timestamp, type, status, in.readLong(), in.readLong(),
+                               in.readLong(), in.readLong(), in.readLong());
+    }
+
+    private static String owner(Transaction posting) {
+        return posting.getType().isFromCounterparty() ? posting.getDestinationAccountNumber()
+                                                      : posting.getSourceAccountNumber();
+    }
+}
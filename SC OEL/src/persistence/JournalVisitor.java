@@ -0,0 +1,63 @@
+package persistence;
+
+import enums.AccountStatus;
+import models.Transaction;
+
+/**
+ * Callbacks for the records of a journal, in file order.
+ */
+interface JournalVisitor {
+    /**
+     * The PIN is given as its salted hash.
+     */
+    void customerRegistered(String customerId, String name, String pinHash) throws Exception;
+
+    void customerBlocked(String customerId) throws Exception;
+
+    void customerUnblocked(String customerId) throws Exception;
+
+    void failedLoginsChanged(String customerId, int attempts) throws Exception;
+
+    /**
+     * The opening deposit is null for an account opened without funds.
+     */
+    void accountOpened(String accountNumber, String customerId, long initialBalance, Transaction opening)
+            throws Exception;
+
+    void accountStatusChanged(String accountNumber, AccountStatus status) throws Exception;
+
+    /**
+     * A single-account posting, successful or failed, as it was recorded.
+     */
+    void posted(String accountNumber, Transaction posting) throws Exception;
+
+    void transferred(Transaction transferOut, Transaction transferIn) throws Exception;
+
+    /**
+     * The debit of a cross-shard transfer, which stays in doubt until a
+     * matching {@link #transferResolved}.
+     */
+    void transferPrepared(Transaction transferOut) throws Exception;
+
+    /**
+     * The refund is null for a committed transfer.
+     */
+    void transferResolved(long sequence, Transaction refund) throws Exception;
+
+    /**
+     * Called once per settled account of a batch record.
+     */
+    void batchSettled(String batchId, String accountNumber, Transaction settlement, int postings)
+            throws Exception;
+
+    /**
+     * Called once per account of an accrued interest record.
+     */
+    void accrualSettled(String accountNumber, Transaction posting) throws Exception;
+
+    void interestPeriodClosed(int period, long end) throws Exception;
+
+    void transactionIdsLeased(long limit) throws Exception;
+
+    void billingCycleStarted(String accountNumber, int cycle) throws Exception;
+}
@@ -0,0 +1,181 @@
+package persistence;
+
+import models.RefList;
+import models.TransactionHistory;
+import models.TransactionHistoryStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the transaction history of every account in a few shared
+ * memory-mapped segment files, so heap usage does not grow with history
+ * length, and neither open files nor mappings grow with the number of
+ * accounts.
+ *
+ * Each segment file is opened and mapped once. Histories, and the row
+ * references of the bank's transaction index, take blocks of fixed-width
+ * records from the segments with a bump allocator and chain them (see
+ * {@link BlockChain}); a block never straddles two segments.
+ *
+ * Segment files are kept across opens and reused. A store starts filling
+ * them from the beginning, overwriting what they held, unless told where
+ * its records end with {@link #resume}. The bank's own histories are a
+ * working store that the journal rebuilds; the {@link Snapshotter} keeps the
+ * rows of its snapshots in a store of its own and resumes it.
+ */
+public class MappedHistoryStore implements TransactionHistoryStore, AutoCloseable {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".hist";
+    static final int SEGMENT_SHIFT = 26;  // 64 MiB per segment file
+    static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private final Path directory;
+    private final ConcurrentHashMap<String, MappedTransactionHistory> histories = new ConcurrentHashMap<>();
+    private final ArrayList<FileChannel> channels = new ArrayList<>();  // Guarded by this
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long next;  // Address of the first free byte; guarded by this
+    private boolean closed;  // Guarded by this
+
+    private MappedHistoryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public static MappedHistoryStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new MappedHistoryStore(directory);
+    }
+
+    @Override
+    public TransactionHistory historyFor(String accountNumber) {
+        return histories.computeIfAbsent(accountNumber, number -> new MappedTransactionHistory(this));
+    }
+
+    /**
+     * Keeps the row references of the bank's transaction index in the
+     * segments too.
+     */
+    @Override
+    public RefList newRefList() {
+        return new MappedRefList(this);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * A history whose records are already in the segments, in the given
+     * blocks, e.g. one saved by a snapshot. Its blocks must lie before the
+     * end the store was resumed at.
+     */
+    MappedTransactionHistory history(long[] blocks, int size) {
+        return new MappedTransactionHistory(this, blocks, size);
+    }
+
+    /**
+     * Continues after records that end at the given address, mapping the
+     * segments that hold them. Never moves the end back.
+     */
+    synchronized void resume(long end) {
+        if (end <= next) {
+            return;
+        }
+        int last = (int) ((end - 1) >>> SEGMENT_SHIFT);
+        while (segments.length <= last) {
+            map(segments.length);
+        }
+        next = end;
+    }
+
+    /** Address just past the last block handed out. */
+    synchronized long end() {
+        return next;
+    }
+
+    /**
+     * Forces every record written so far to the segment files.
+     */
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Reserves a block of at most {@link #SEGMENT_BYTES} and returns its
+     * address: the segment index in the high bits and the byte offset
+     * within the segment in the low {@link #SEGMENT_SHIFT} bits. The segment
+     * is mapped by the time this returns.
+     */
+    synchronized long allocate(int bytes) {
+        if (closed) {
+            throw new IllegalStateException("History store is closed");
+        }
+        long address = next;
+        if ((address & (SEGMENT_BYTES - 1)) + bytes > SEGMENT_BYTES) {
+            // The tail of the segment is too short; start the next one
+            address = ((address >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+        }
+        int segment = (int) (address >>> SEGMENT_SHIFT);
+        if (segment == segments.length) {
+            map(segment);
+        }
+        next = address + bytes;
+        return address;
+    }
+
+    /** The mapped segment holding an allocated address. */
+    MappedByteBuffer segment(long address) {
+        return segments[(int) (address >>> SEGMENT_SHIFT)];
+    }
+
+    /** Byte offset of an allocated address within its segment. */
+    static int offset(long address) {
+        return (int) (address & (SEGMENT_BYTES - 1));
+    }
+
+    /** Called with the monitor held. */
+    private void map(int segment) {
+        Path file = directory.resolve(String.format("%s%05d%s", PREFIX, segment, SUFFIX));
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            channels.add(channel);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+            grown[segment] = mapped;
+            segments = grown;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map history segment " + file, e);
+        }
+    }
+
+    /**
+     * Closes the segment files and refuses further blocks. Mapped segments
+     * stay readable until they are garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
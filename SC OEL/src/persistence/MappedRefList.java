@@ -0,0 +1,44 @@
+package persistence;
+
+import models.RefList;
+
+/**
+ * Row references of a {@link models.TransactionIndex}, 8 bytes each, in a
+ * chain of blocks inside the shared segments of a
+ * {@link MappedHistoryStore}, beside the histories they point into.
+ */
+final class MappedRefList implements RefList {
+    private static final int REF_BYTES = 8;
+
+    private final MappedHistoryStore store;
+    private final BlockChain chain;
+    private volatile int size;
+
+    MappedRefList(MappedHistoryStore store) {
+        this.store = store;
+        this.chain = new BlockChain(store, REF_BYTES);
+    }
+
+    @Override
+    public synchronized void add(long ref) {
+        int index = size;
+        long address = chain.addressForAppend(index);
+        store.segment(address).putLong(MappedHistoryStore.offset(address), ref);
+        // Publishes the reference to readers
+        size = index + 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        long address = chain.address(index);
+        return store.segment(address).getLong(MappedHistoryStore.offset(address));
+    }
+}
@@ -0,0 +1,137 @@
+package persistence;
+
+import enums.TransactionStatus;
+import enums.TransactionType;
+import models.Transaction;
+import models.TransactionHistory;
+
+import java.nio.MappedByteBuffer;
+
+/**
+ * History of one account in fixed-width records inside the shared segments
+ * of a {@link MappedHistoryStore}, in a {@link BlockChain}, so a quiet
+ * account takes 1 KiB and a busy one few blocks. A record is decoded into
+ * a Transaction only when it is read.
+ *
+ * Record layout, 64 bytes:
+ * <pre>
+ *  0 long  transaction number      8 long  timestamp, epoch millis
+ * 16 long  amount                 24 long  fee
+ * 32 long  balance after          40 long  source account key
+ * 48 long  destination account key
+ * 56 byte  type                   57 byte  status
+ * </pre>
+ * Appends are serialized per account; reads take no lock and see every
+ * record counted by {@link #size()}.
+ */
+class MappedTransactionHistory implements TransactionHistory {
+    static final int RECORD_BYTES = 64;
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+
+    private final MappedHistoryStore store;
+    private final BlockChain chain;
+    private volatile int size;
+    private long lastTimestamp = Long.MIN_VALUE;  // Guarded by the monitor
+
+    MappedTransactionHistory(MappedHistoryStore store) {
+        this.store = store;
+        this.chain = new BlockChain(store, RECORD_BYTES);
+    }
+
+    /** A history of records already in the given blocks. */
+    MappedTransactionHistory(MappedHistoryStore store, long[] blocks, int size) {
+        this.store = store;
+        this.chain = new BlockChain(store, RECORD_BYTES, blocks);
+        this.size = size;
+        if (size > 0) {
+            lastTimestamp = timestampAt(size - 1);
+        }
+    }
+
+    /** Store addresses of the blocks holding the records. */
+    long[] blocks() {
+        return chain.blocks();
+    }
+
+    @Override
+    public synchronized int add(long sequence, long timestamp, TransactionType type, TransactionStatus status,
+                                long sourceAccountKey, long destinationAccountKey,
+                                long amount, long balanceAfter, long fee) {
+        int index = size;
+        long address = chain.addressForAppend(index);
+        MappedByteBuffer segment = store.segment(address);
+        int base = MappedHistoryStore.offset(address);
+
+        segment.putLong(base, sequence);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        segment.putLong(base + 8, lastTimestamp);
+        segment.putLong(base + 16, amount);
+        segment.putLong(base + 24, fee);
+        segment.putLong(base + 32, balanceAfter);
+        segment.putLong(base + 40, sourceAccountKey);
+        segment.putLong(base + 48, destinationAccountKey);
+        segment.put(base + 56, (byte) type.ordinal());
+        segment.put(base + 57, (byte) status.ordinal());
+
+        // Publishes the record to readers
+        size = index + 1;
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Transaction get(int index) {
+        long address = address(index);
+        MappedByteBuffer segment = store.segment(address);
+        int base = MappedHistoryStore.offset(address);
+        return new Transaction(
+            segment.getLong(base),
+            segment.getLong(base + 8),
+            TYPES[segment.get(base + 56)],
+            STATUSES[segment.get(base + 57)],
+            segment.getLong(base + 40),
+            segment.getLong(base + 48),
+            segment.getLong(base + 16),
+            segment.getLong(base + 32),
+            segment.getLong(base + 24)
+        );
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        long address = address(index);
+        return store.segment(address).getLong(MappedHistoryStore.offset(address) + 8);
+    }
+
+    @Override
+    public TransactionType typeAt(int index) {
+        long address = address(index);
+        return TYPES[store.segment(address).get(MappedHistoryStore.offset(address) + 56)];
+    }
+
+    @Override
+    public TransactionStatus statusAt(int index) {
+        long address = address(index);
+        return STATUSES[store.segment(address).get(MappedHistoryStore.offset(address) + 57)];
+    }
+
+    @Override
+    public long feeAt(int index) {
+        long address = address(index);
+        return store.segment(address).getLong(MappedHistoryStore.offset(address) + 24);
+    }
+
+    /** Store address of a published record. */
+    private long address(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return chain.address(index);
+    }
+}
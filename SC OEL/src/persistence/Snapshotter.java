@@ -0,0 +1,583 @@
+package persistence;
+
+import enums.AccountStatus;
+import enums.TransactionStatus;
+import enums.TransactionType;
+import models.Bank;
+import models.BankAccount;
+import models.BillingCycles;
+import models.CheckingAccount;
+import models.Customer;
+import models.SavingsAccount;
+import models.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes compact point-in-time snapshots of the bank next to its journal.
+ *
+ * A snapshot is never read from the live Bank. Instead the previous
+ * snapshot is loaded into a small in-memory state and the durable part of
+ * the journal after it is folded in. The durable journal prefix is an
+ * immutable, consistent view, so ATM traffic keeps running while a
+ * snapshot is built. Startup loads the newest valid snapshot and replays
+ * only the journal tail after its offset.
+ *
+ * File layout: magic, version, journal offset, both ID counters, the ends
+ * of the closed interest periods, the customers with their failed logins,
+ * the accounts with their interest accrual and history watermark, the
+ * cross-shard transfers still in doubt, the end of the snapshot row store,
+ * and a trailing CRC32 of everything before it.
+ *
+ * History rows are not in the file. They live in the journal's snapshot
+ * row store, a {@link MappedHistoryStore} appended to in journal order and
+ * never rewritten; an account's watermark is its row count and the blocks
+ * holding them. A new snapshot appends only the rows of the journal tail,
+ * and startup maps the stored rows back as each account's history instead
+ * of reading them, so neither is proportional to the total history.
+ */
+public class Snapshotter implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(Snapshotter.class.getName());
+    private static final int MAGIC = 0x53434f53;  // "SCOS"
+    private static final int VERSION = 9;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int SNAPSHOTS_KEPT = 2;
+
+    private final Journal journal;
+    private final Path directory;
+    private ScheduledExecutorService scheduler;
+
+    public Snapshotter(Journal journal) {
+        this.journal = journal;
+        this.directory = journal.getDirectory();
+    }
+
+    /**
+     * Builds a snapshot covering every record that is durable right now.
+     * Returns the snapshot file, or null if nothing changed since the last one.
+     */
+    public synchronized Path takeSnapshot() throws IOException {
+        long durable = journal.getCommitter().getDurableOffset();
+        State state = null;
+        for (Path file : listSnapshots(directory)) {
+            state = State.read(file);
+            if (state != null && state.offset <= durable) {
+                break;
+            }
+            state = null;
+        }
+        if (state == null) {
+            state = new State();
+        }
+        if (state.offset == durable) {
+            return null;
+        }
+
+        // Rows of the tail go after every row a snapshot on disk refers to
+        MappedHistoryStore rows = journal.getSnapshotRows();
+        state.attach(rows);
+        // A separate read channel leaves the appending channel untouched
+        try (FileChannel channel = FileChannel.open(journal.getPath(), StandardOpenOption.READ)) {
+            JournalReader reader = new JournalReader(channel);
+            reader.read(state.offset, durable, state);
+            state.offset = reader.getValidEnd();
+        }
+        // Counters only move forward, so the live values cover every record folded in
+        state.accountNumberCounter = Math.max(state.accountNumberCounter, Bank.getAccountNumberCounter());
+        state.transactionCounter = Math.max(state.transactionCounter, Transaction.getTransactionCounter());
+        // The rows must be on disk before a snapshot refers to them
+        rows.force();
+        state.rowsEnd = rows.end();
+
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, state.offset, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        state.write(temp);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        ArrayList<Path> snapshots = listSnapshots(directory);
+        for (int i = SNAPSHOTS_KEPT; i < snapshots.size(); i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+        return target;
+    }
+
+    /**
+     * Takes a snapshot on a background thread at a fixed interval.
+     */
+    public synchronized void start(long intervalSeconds) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bank-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                // The next interval tries again; the journal still has everything
+                LOG.log(System.Logger.Level.WARNING, "Snapshot failed", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Loads the newest readable snapshot that does not reach past the end of
+     * the journal into an empty bank, with histories read from {@code rows}.
+     * Returns the journal offset it covers, or 0 when there is none.
+     */
+    static long loadLatest(Path directory, Bank bank, long journalSize, MappedHistoryStore rows)
+            throws IOException {
+        for (Path file : listSnapshots(directory)) {
+            State state = State.read(file);
+            if (state != null && state.offset <= journalSize) {
+                try {
+                    state.restore(bank, rows);
+                } catch (Exception e) {
+                    throw new IOException("Snapshot " + file + " cannot be applied: " + e.getMessage(), e);
+                }
+                return state.offset;
+            }
+        }
+        return 0;
+    }
+
+    /** Snapshot files, newest first. */
+    private static ArrayList<Path> listSnapshots(Path directory) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // Zero-padded offsets sort lexicographically
+        files.sort(Collections.reverseOrder());
+        return files;
+    }
+
+    private static final class CustomerState {
+        String customerId;
+        String name;
+        String pinHash;
+        AccountStatus loginStatus = AccountStatus.ACTIVE;
+        int failedAttempts;
+    }
+
+    private static final class AccountState {
+        String accountNumber;
+        String customerId;
+        long balance;
+        AccountStatus status = AccountStatus.ACTIVE;
+        int billingCycle = BillingCycles.UNKNOWN;
+        int transactionCount;
+        // Savings accrual of the open interest period, as in SavingsAccount
+        int accrualPeriod;
+        long accrualStart;
+        long weightedDeltas;
+        // Watermark: the account's rows in the snapshot row store
+        int rowCount;
+        long[] blocks = new long[0];
+        // The rows, appended to while the journal tail is folded in
+        MappedTransactionHistory rows;
+    }
+
+    /**
+     * The bank reduced to what a snapshot needs, folded from journal records.
+     */
+    private static final class State implements JournalVisitor {
+        long offset;
+        long accountNumberCounter;
+        long transactionCounter;
+        long[] periodEnds = new long[0];
+        final LinkedHashMap<String, CustomerState> customers = new LinkedHashMap<>();
+        final LinkedHashMap<String, AccountState> accounts = new LinkedHashMap<>();
+        // Cross-shard transfers still in doubt, by transaction number
+        final LinkedHashMap<Long, Transaction> preparedTransfers = new LinkedHashMap<>();
+
+        // End of the snapshot row store when the file was written
+        long rowsEnd;
+        MappedHistoryStore rowStore;
+
+        @Override
+        public void customerRegistered(String customerId, String name, String pinHash) {
+            CustomerState customer = new CustomerState();
+            customer.customerId = customerId;
+            customer.name = name;
+            customer.pinHash = pinHash;
+            customers.putIfAbsent(customerId, customer);
+        }
+
+        @Override
+        public void customerBlocked(String customerId) throws IOException {
+            customer(customerId).loginStatus = AccountStatus.BLOCKED;
+        }
+
+        @Override
+        public void customerUnblocked(String customerId) throws IOException {
+            CustomerState customer = customer(customerId);
+            customer.loginStatus = AccountStatus.ACTIVE;
+            customer.failedAttempts = 0;
+        }
+
+        @Override
+        public void failedLoginsChanged(String customerId, int attempts) throws IOException {
+            customer(customerId).failedAttempts = attempts;
+        }
+
+        @Override
+        public void accountOpened(String accountNumber, String customerId, long initialBalance,
+                                  Transaction opening) throws IOException {
+            AccountState account = new AccountState();
+            account.accountNumber = accountNumber;
+            account.customerId = customerId;
+            account.balance = initialBalance;
+            account.rows = rowStore.history(account.blocks, 0);
+            accounts.put(accountNumber, account);
+            if (opening != null) {
+                // Mirrors Journal.BankReplayer.accountOpened
+                account.accrualPeriod = periodEnds.length;
+                account.accrualStart = opening.getTimestampMillis() / 1000;
+                addRow(account, opening);
+            }
+        }
+
+        @Override
+        public void accountStatusChanged(String accountNumber, AccountStatus status) throws IOException {
+            account(accountNumber).status = status;
+        }
+
+        @Override
+        public void posted(String accountNumber, Transaction posting) throws IOException {
+            apply(account(accountNumber), posting);
+        }
+
+        @Override
+        public void transferred(Transaction transferOut, Transaction transferIn) throws IOException {
+            apply(account(transferOut.getSourceAccountNumber()), transferOut);
+            apply(account(transferIn.getDestinationAccountNumber()), transferIn);
+        }
+
+        @Override
+        public void transferPrepared(Transaction transferOut) throws IOException {
+            apply(account(transferOut.getSourceAccountNumber()), transferOut);
+            preparedTransfers.put(transferOut.getSequence(), transferOut);
+        }
+
+        @Override
+        public void transferResolved(long sequence, Transaction refund) throws IOException {
+            if (refund != null) {
+                apply(account(refund.getDestinationAccountNumber()), refund);
+            }
+            preparedTransfers.remove(sequence);
+        }
+
+        @Override
+        public void batchSettled(String batchId, String accountNumber, Transaction settlement, int postings)
+                throws IOException {
+            AccountState account = account(accountNumber);
+            long net = settlement.getType() == TransactionType.TRANSFER_IN ? settlement.getAmount()
+                                                                           : -settlement.getAmount();
+            changeBalance(account, net - settlement.getFee(), settlement);
+            if (account.accountNumber.startsWith("CHK")) {
+                account.transactionCount += postings;
+            }
+            addRow(account, settlement);
+        }
+
+        // Mirrors SavingsAccount.replayAccrualSettlement
+        @Override
+        public void accrualSettled(String accountNumber, Transaction posting) throws IOException {
+            AccountState account = account(accountNumber);
+            catchUp(account);
+            account.balance += posting.getAmount();
+            addRow(account, posting);
+        }
+
+        @Override
+        public void interestPeriodClosed(int period, long end) throws IOException {
+            if (period != periodEnds.length) {
+                throw new IOException("Interest period " + period + " closed while period "
+                                      + periodEnds.length + " is open");
+            }
+            periodEnds = Arrays.copyOf(periodEnds, period + 1);
+            periodEnds[period] = end;
+        }
+
+        @Override
+        public void transactionIdsLeased(long limit) {
+            transactionCounter = Math.max(transactionCounter, limit - 1);
+        }
+
+        // Mirrors CheckingAccount.replayBillingCycle
+        @Override
+        public void billingCycleStarted(String accountNumber, int cycle) throws IOException {
+            AccountState account = account(accountNumber);
+            if (account.billingCycle != cycle) {
+                account.billingCycle = cycle;
+                account.transactionCount = 0;
+            }
+        }
+
+        // Mirrors BankAccount.replayPosting and CheckingAccount.replayPosting
+        private void apply(AccountState account, Transaction posting) throws IOException {
+            addRow(account, posting);
+            if (posting.getStatus() != TransactionStatus.SUCCESS) {
+                return;
+            }
+            TransactionType type = posting.getType();
+            changeBalance(account, type.isCredit() ? posting.getAmount() : -(posting.getAmount() + posting.getFee()),
+                          posting);
+            if (account.accountNumber.startsWith("CHK") && type != TransactionType.REFUND) {
+                account.transactionCount++;
+            }
+        }
+
+        // Mirrors SavingsAccount.replayBalanceChange
+        private void changeBalance(AccountState account, long delta, Transaction posting) {
+            account.balance += delta;
+            if (account.accountNumber.startsWith("SAV")) {
+                catchUp(account);
+                account.weightedDeltas += delta * Math.max(0, posting.getTimestampMillis() / 1000
+                                                              - account.accrualStart);
+            }
+        }
+
+        private void catchUp(AccountState account) {
+            if (account.accrualPeriod < periodEnds.length) {
+                account.accrualStart = periodEnds[periodEnds.length - 1];
+                account.accrualPeriod = periodEnds.length;
+                account.weightedDeltas = 0;
+            }
+        }
+
+        private void addRow(AccountState account, Transaction posting) {
+            account.rows.add(posting);
+        }
+
+        /**
+         * Reopens every account's rows in {@code store} so that the journal
+         * tail can be folded in, appending after the rows this state covers.
+         */
+        void attach(MappedHistoryStore store) {
+            store.resume(rowsEnd);
+            rowStore = store;
+            for (AccountState account : accounts.values()) {
+                account.rows = store.history(account.blocks, account.rowCount);
+            }
+        }
+
+        private CustomerState customer(String customerId) throws IOException {
+            CustomerState customer = customers.get(customerId);
+            if (customer == null) {
+                throw new IOException("Unknown customer " + customerId);
+            }
+            return customer;
+        }
+
+        private AccountState account(String accountNumber) throws IOException {
+            AccountState account = accounts.get(accountNumber);
+            if (account == null) {
+                throw new IOException("Unknown account " + accountNumber);
+            }
+            return account;
+        }
+
+        /**
+         * Registers the customers and accounts, each account's history
+         * starting with its rows in {@code rows}. The file's checksum was
+         * verified by read.
+         */
+        void restore(Bank bank, MappedHistoryStore rows) throws Exception {
+            rows.resume(rowsEnd);
+            for (long end : periodEnds) {
+                bank.getInterestPeriods().close(end);
+            }
+            for (CustomerState state : customers.values()) {
+                Customer customer = bank.restoreCustomer(state.customerId, state.name, state.pinHash);
+                customer.setLoginStatus(state.loginStatus);
+                customer.restoreFailedLoginAttempts(state.failedAttempts);
+            }
+            for (AccountState state : accounts.values()) {
+                BankAccount account = bank.restoreAccount(state.accountNumber, state.customerId, state.balance,
+                                                          rows.history(state.blocks, state.rowCount));
+                if (state.status != AccountStatus.ACTIVE) {
+                    account.setStatus(state.status);
+                }
+                if (account instanceof CheckingAccount) {
+                    ((CheckingAccount) account).restoreTransactionCount(state.billingCycle, state.transactionCount);
+                } else if (account instanceof SavingsAccount) {
+                    ((SavingsAccount) account).restoreAccrual(state.accrualPeriod, state.accrualStart,
+                                                              state.weightedDeltas);
+                }
+            }
+            for (Transaction transferOut : preparedTransfers.values()) {
+                bank.restorePreparedTransfer(transferOut);
+            }
+            Bank.advanceAccountNumberCounter(accountNumberCounter);
+            Transaction.advanceTransactionCounter(transactionCounter);
+        }
+
+        /** Writes this state; its rows must already be forced to disk. */
+        void write(Path target) throws IOException {
+            CRC32 crc = new CRC32();
+            try (CheckedOutputStream checked = new CheckedOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(target), 1 << 16), crc);
+                 DataOutputStream out = new DataOutputStream(checked)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(offset);
+                out.writeLong(accountNumberCounter);
+                out.writeLong(transactionCounter);
+                out.writeInt(periodEnds.length);
+                for (long end : periodEnds) {
+                    out.writeLong(end);
+                }
+
+                out.writeInt(customers.size());
+                for (CustomerState customer : customers.values()) {
+                    out.writeUTF(customer.customerId);
+                    out.writeUTF(customer.name);
+                    out.writeUTF(customer.pinHash);
+                    out.writeByte(customer.loginStatus.ordinal());
+                    out.writeInt(customer.failedAttempts);
+                }
+
+                out.writeInt(accounts.size());
+                for (AccountState account : accounts.values()) {
+                    out.writeUTF(account.accountNumber);
+                    out.writeUTF(account.customerId);
+                    out.writeLong(account.balance);
+                    out.writeByte(account.status.ordinal());
+                    out.writeInt(account.billingCycle);
+                    out.writeInt(account.transactionCount);
+                    out.writeInt(account.accrualPeriod);
+                    out.writeLong(account.accrualStart);
+                    out.writeLong(account.weightedDeltas);
+                    if (account.rows != null) {
+                        account.rowCount = account.rows.size();
+                        account.blocks = account.rows.blocks();
+                    }
+                    out.writeInt(account.rowCount);
+                    out.writeInt(account.blocks.length);
+                    for (long block : account.blocks) {
+                        out.writeLong(block);
+                    }
+                }
+
+                out.writeInt(preparedTransfers.size());
+                for (Transaction transferOut : preparedTransfers.values()) {
+                    Journal.writePosting(out, transferOut);
+                }
+
+                out.writeLong(rowsEnd);
+
+                out.flush();
+                out.writeInt((int) crc.getValue());
+            }
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+
+        /** Returns null if the file is unreadable or fails its checksum. */
+        static State read(Path file) {
+            CRC32 crc = new CRC32();
+            try (CheckedInputStream checked = new CheckedInputStream(
+                     new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc);
+                 DataInputStream in = new DataInputStream(checked)) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                State state = new State();
+                state.offset = in.readLong();
+                state.accountNumberCounter = in.readLong();
+                state.transactionCounter = in.readLong();
+                state.periodEnds = new long[in.readInt()];
+                for (int i = 0; i < state.periodEnds.length; i++) {
+                    state.periodEnds[i] = in.readLong();
+                }
+
+                int customerCount = in.readInt();
+                for (int i = 0; i < customerCount; i++) {
+                    CustomerState customer = new CustomerState();
+                    customer.customerId = in.readUTF();
+                    customer.name = in.readUTF();
+                    customer.pinHash = in.readUTF();
+                    customer.loginStatus = AccountStatus.values()[in.readByte()];
+                    customer.failedAttempts = in.readInt();
+                    state.customers.put(customer.customerId, customer);
+                }
+
+                int accountCount = in.readInt();
+                for (int i = 0; i < accountCount; i++) {
+                    AccountState account = new AccountState();
+                    account.accountNumber = in.readUTF();
+                    account.customerId = in.readUTF();
+                    account.balance = in.readLong();
+                    account.status = AccountStatus.values()[in.readByte()];
+                    account.billingCycle = in.readInt();
+                    account.transactionCount = in.readInt();
+                    account.accrualPeriod = in.readInt();
+                    account.accrualStart = in.readLong();
+                    account.weightedDeltas = in.readLong();
+                    account.rowCount = in.readInt();
+                    account.blocks = new long[in.readInt()];
+                    for (int b = 0; b < account.blocks.length; b++) {
+                        account.blocks[b] = in.readLong();
+                    }
+                    state.accounts.put(account.accountNumber, account);
+                }
+
+                int prepared = in.readInt();
+                for (int i = 0; i < prepared; i++) {
+                    Transaction transferOut = JournalReader.readPosting(in);
+                    state.preparedTransfers.put(transferOut.getSequence(), transferOut);
+                }
+
+                state.rowsEnd = in.readLong();
+
+                int expected = (int) crc.getValue();
+                if (in.readInt() != expected) {
+                    return null;
+                }
+                return state;
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -6,28 +6,49 @@ import exceptions.AccountBlockedException;
 import exceptions.InsufficientFundsException;
 import exceptions.MinimumBalanceException;
 
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Scanner;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 public class ATM {
+    private static final int HISTORY_PAGE_SIZE = 10;
+    
     private Bank bank;
+    private PostingPipeline pipeline;  // Null when postings are applied in the session's thread
     private Scanner scanner;
+    private PrintStream out;
     private Customer currentCustomer;
     private BankAccount selectedAccount;
     
 
     public ATM(Bank bank) {
+        this(bank, null);
+    }
+    
+    public ATM(Bank bank, PostingPipeline pipeline) {
+        this(bank, pipeline, System.in, System.out);
+    }
+    
+    /**
+     * An ATM whose terminal is the given streams, e.g. a network socket.
+     */
+    public ATM(Bank bank, PostingPipeline pipeline, InputStream in, PrintStream out) {
         this.bank = bank;
-        this.scanner = new Scanner(System.in);
+        this.pipeline = pipeline;
+        this.scanner = new Scanner(in);
+        this.out = out;
         this.currentCustomer = null;
         this.selectedAccount = null;
     }
     
     public void start() {
-        System.out.println("\n========================================");
-        System.out.println("   Welcome to " + bank.getBankName() + " ATM");
-        System.out.println("========================================\n");
+        out.println("\n========================================");
+        out.println("   Welcome to " + bank.getBankName() + " ATM");
+        out.println("========================================\n");
         
         if (login()) {
             showMainMenu();
@@ -35,32 +56,32 @@ public class ATM {
     }
     
     private boolean login() {
-        System.out.print("Enter Customer ID: ");
+        out.print("Enter Customer ID: ");
         String customerId = scanner.nextLine().trim();
         
-        System.out.print("Enter PIN: ");
+        out.print("Enter PIN: ");
         String pin = scanner.nextLine().trim();
         
         try {
             currentCustomer = bank.authenticateCustomer(customerId, pin);
             
             if (currentCustomer == null) {
-                System.out.println("\n❌ Invalid Customer ID or PIN.");
+                out.println("\n❌ Invalid Customer ID or PIN.");
                 Customer customer = bank.getCustomer(customerId);
                 if (customer != null && customer.getLoginStatus() != AccountStatus.BLOCKED) {
                     int attemptsLeft = 3 - customer.getFailedLoginAttempts();
                     if (attemptsLeft > 0) {
-                        System.out.println("Attempts remaining: " + attemptsLeft);
+                        out.println("Attempts remaining: " + attemptsLeft);
                     }
                 }
                 return false;
             }
             
-            System.out.println("\n✓ Login successful! Welcome, " + currentCustomer.getName());
+            out.println("\n✓ Login successful! Welcome, " + currentCustomer.getName());
             return true;
             
         } catch (AccountBlockedException e) {
-            System.out.println("\n❌ " + e.getMessage());
+            out.println("\n❌ " + e.getMessage());
             return false;
         }
     }
@@ -72,18 +93,18 @@ public class ATM {
                 break;
             }
             
-            System.out.println("\n========== ATM Main Menu ==========");
-            System.out.println("Selected Account: " + selectedAccount.getAccountNumber() + 
+            out.println("\n========== ATM Main Menu ==========");
+            out.println("Selected Account: " + selectedAccount.getAccountNumber() + 
                              " (" + selectedAccount.getAccountType() + ")");
-            System.out.println("1. Check Balance");
-            System.out.println("2. Deposit Funds");
-            System.out.println("3. Withdraw Funds");
-            System.out.println("4. Transfer Funds");
-            System.out.println("5. View Transaction History");
-            System.out.println("6. Change Account");
-            System.out.println("7. Logout");
-            System.out.println("===================================");
-            System.out.print("Select an option: ");
+            out.println("1. Check Balance");
+            out.println("2. Deposit Funds");
+            out.println("3. Withdraw Funds");
+            out.println("4. Transfer Funds");
+            out.println("5. View Transaction History");
+            out.println("6. Change Account");
+            out.println("7. Logout");
+            out.println("===================================");
+            out.print("Select an option: ");
             
             String choice = scanner.nextLine().trim();
             
@@ -110,7 +131,7 @@ public class ATM {
                     logout();
                     return;
                 default:
-                    System.out.println("Invalid option. Please try again.");
+                    out.println("Invalid option. Please try again.");
             }
         }
     }
@@ -123,7 +144,7 @@ public class ATM {
         ArrayList<BankAccount> accounts = currentCustomer.getAccounts();
         
         if (accounts.isEmpty()) {
-            System.out.println("\nNo accounts found. Please contact your bank.");
+            out.println("\nNo accounts found. Please contact your bank.");
             return false;
         }
         
@@ -133,11 +154,11 @@ public class ATM {
         }
         
         // Multiple accounts - let customer choose
-        System.out.println("\n===== Select Account =====");
+        out.println("\n===== Select Account =====");
         for (int i = 0; i < accounts.size(); i++) {
-            System.out.println((i + 1) + ". " + accounts.get(i));
+            out.println((i + 1) + ". " + accounts.get(i));
         }
-        System.out.print("Select account number: ");
+        out.print("Select account number: ");
         
         try {
             int choice = Integer.parseInt(scanner.nextLine().trim());
@@ -145,83 +166,106 @@ public class ATM {
                 selectedAccount = accounts.get(choice - 1);
                 return true;
             } else {
-                System.out.println("Invalid selection.");
+                out.println("Invalid selection.");
                 return false;
             }
         } catch (NumberFormatException e) {
-            System.out.println("Invalid input.");
+            out.println("Invalid input.");
             return false;
         }
     }
     
     private void checkBalance() {
-        System.out.println("\n===== Balance Inquiry =====");
-        System.out.println("Account: " + selectedAccount.getAccountNumber());
-        System.out.println("Type: " + selectedAccount.getAccountType());
-        System.out.println("Current Balance: $" + String.format("%.2f", selectedAccount.getBalance()));
+        out.println("\n===== Balance Inquiry =====");
+        out.println("Account: " + selectedAccount.getAccountNumber());
+        out.println("Type: " + selectedAccount.getAccountType());
+        out.println("Current Balance: $" + Money.format(selectedAccount.getBalance()));
         
         if (selectedAccount instanceof SavingsAccount) {
             SavingsAccount savings = (SavingsAccount) selectedAccount;
-            System.out.println("Minimum Balance Required: $" + String.format("%.2f", savings.getMinimumBalance()));
+            out.println("Minimum Balance Required: $" + Money.format(savings.getMinimumBalance()));
         } else if (selectedAccount instanceof CheckingAccount) {
             CheckingAccount checking = (CheckingAccount) selectedAccount;
-            System.out.println("Overdraft Limit: $" + String.format("%.2f", checking.getOverdraftLimit()));
-            double available = selectedAccount.getBalance() + checking.getOverdraftLimit();
-            System.out.println("Available Balance (including overdraft): $" + String.format("%.2f", available));
+            out.println("Overdraft Limit: $" + Money.format(checking.getOverdraftLimit()));
+            long available = selectedAccount.getBalance() + checking.getOverdraftLimit();
+            out.println("Available Balance (including overdraft): $" + Money.format(available));
         }
     }
     
     private void depositFunds() {
-        System.out.println("\n===== Deposit Funds =====");
-        System.out.print("Enter amount to deposit: $");
+        out.println("\n===== Deposit Funds =====");
+        out.print("Enter amount to deposit: $");
         
         try {
-            double amount = Double.parseDouble(scanner.nextLine().trim());
-            selectedAccount.deposit(amount);
+            long amount = Money.parse(scanner.nextLine());
+            Transaction txn = pipeline != null
+                ? await(pipeline.deposit(selectedAccount.getAccountNumber(), amount))
+                : selectedAccount.deposit(amount);
             
-            System.out.println("\n✓ Deposit successful!");
-            System.out.println("Amount Deposited: $" + String.format("%.2f", amount));
-            System.out.println("New Balance: $" + String.format("%.2f", selectedAccount.getBalance()));
+            out.println("\n✓ Deposit successful!");
+            out.println("Amount Deposited: $" + Money.format(amount));
+            out.println("New Balance: $" + Money.format(selectedAccount.getBalance()));
             
-            printReceipt(selectedAccount.getTransactionHistory().get(
-                selectedAccount.getTransactionHistory().size() - 1));
+            printReceipt(txn);
             
         } catch (NumberFormatException e) {
-            System.out.println("❌ Invalid amount. Please enter a valid number.");
+            out.println("❌ Invalid amount. Please enter a valid number.");
         } catch (Exception e) {
-            System.out.println("❌ Deposit failed: " + e.getMessage());
+            out.println("❌ Deposit failed: " + e.getMessage());
         }
     }
     
     private void withdrawFunds() {
-        System.out.println("\n===== Withdraw Funds =====");
-        System.out.print("Enter amount to withdraw: $");
+        out.println("\n===== Withdraw Funds =====");
+        out.print("Enter amount to withdraw: $");
         
         try {
-            double amount = Double.parseDouble(scanner.nextLine().trim());
-            selectedAccount.withdraw(amount);
+            long amount = Money.parse(scanner.nextLine());
+            Transaction txn = pipeline != null
+                ? await(pipeline.withdraw(selectedAccount.getAccountNumber(), amount))
+                : selectedAccount.withdraw(amount);
             
-            System.out.println("\n✓ Withdrawal successful!");
-            System.out.println("Amount Withdrawn: $" + String.format("%.2f", amount));
-            System.out.println("New Balance: $" + String.format("%.2f", selectedAccount.getBalance()));
+            out.println("\n✓ Withdrawal successful!");
+            out.println("Amount Withdrawn: $" + Money.format(amount));
+            out.println("New Balance: $" + Money.format(selectedAccount.getBalance()));
             
-            printReceipt(selectedAccount.getTransactionHistory().get(
-                selectedAccount.getTransactionHistory().size() - 1));
+            printReceipt(txn);
             
         } catch (NumberFormatException e) {
-            System.out.println("❌ Invalid amount. Please enter a valid number.");
+            out.println("❌ Invalid amount. Please enter a valid number.");
         } catch (InsufficientFundsException | MinimumBalanceException e) {
-            System.out.println("❌ Withdrawal failed: " + e.getMessage());
+            out.println("❌ Withdrawal failed: " + e.getMessage());
         } catch (Exception e) {
-            System.out.println("❌ Withdrawal failed: " + e.getMessage());
+            out.println("❌ Withdrawal failed: " + e.getMessage());
+        }
+    }
+    
+    private Transaction transfer(String destinationAccountNumber, long amount) throws Exception {
+        if (pipeline != null) {
+            return await(pipeline.transfer(selectedAccount.getAccountNumber(), destinationAccountNumber, amount));
+        }
+        return bank.transferFunds(selectedAccount.getAccountNumber(), destinationAccountNumber, amount);
+    }
+    
+    /**
+     * Waits for a queued posting and rethrows its failure as the direct call would.
+     */
+    private static Transaction await(CompletableFuture<Transaction> posting) throws Exception {
+        try {
+            return posting.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
     }
     
     private void transferFunds() {
-        System.out.println("\n===== Transfer Funds =====");
-        System.out.println("1. Transfer to my another account");
-        System.out.println("2. Transfer to another customer's account");
-        System.out.print("Select transfer type: ");
+        out.println("\n===== Transfer Funds =====");
+        out.println("1. Transfer to my another account");
+        out.println("2. Transfer to another customer's account");
+        out.print("Select transfer type: ");
         
         String choice = scanner.nextLine().trim();
         
@@ -230,7 +274,7 @@ public class ATM {
         } else if (choice.equals("2")) {
             transferToCrossCustomer();
         } else {
-            System.out.println("Invalid option.");
+            out.println("Invalid option.");
         }
     }
     
@@ -238,103 +282,122 @@ public class ATM {
         ArrayList<BankAccount> accounts = currentCustomer.getAccounts();
         
         if (accounts.size() < 2) {
-            System.out.println("You need at least 2 accounts to perform intra-account transfer.");
+            out.println("You need at least 2 accounts to perform intra-account transfer.");
             return;
         }
         
-        System.out.println("\n===== Your Accounts =====");
+        out.println("\n===== Your Accounts =====");
         for (int i = 0; i < accounts.size(); i++) {
             if (!accounts.get(i).getAccountNumber().equals(selectedAccount.getAccountNumber())) {
-                System.out.println((i + 1) + ". " + accounts.get(i));
+                out.println((i + 1) + ". " + accounts.get(i));
             }
         }
         
-        System.out.print("Select destination account number: ");
+        out.print("Select destination account number: ");
         try {
             int choice = Integer.parseInt(scanner.nextLine().trim());
             if (choice < 1 || choice > accounts.size()) {
-                System.out.println("Invalid selection.");
+                out.println("Invalid selection.");
                 return;
             }
             
             BankAccount destinationAccount = accounts.get(choice - 1);
             
             if (destinationAccount.getAccountNumber().equals(selectedAccount.getAccountNumber())) {
-                System.out.println("Cannot transfer to the same account.");
+                out.println("Cannot transfer to the same account.");
                 return;
             }
             
-            System.out.print("Enter amount to transfer: $");
-            double amount = Double.parseDouble(scanner.nextLine().trim());
+            out.print("Enter amount to transfer: $");
+            long amount = Money.parse(scanner.nextLine());
             
-            bank.transferFunds(selectedAccount.getAccountNumber(), 
-                             destinationAccount.getAccountNumber(), amount);
+            Transaction txn = transfer(destinationAccount.getAccountNumber(), amount);
             
-            System.out.println("\n✓ Transfer successful!");
-            System.out.println("Amount Transferred: $" + String.format("%.2f", amount));
-            System.out.println("From Account: " + selectedAccount.getAccountNumber());
-            System.out.println("To Account: " + destinationAccount.getAccountNumber());
-            System.out.println("New Balance: $" + String.format("%.2f", selectedAccount.getBalance()));
+            out.println("\n✓ Transfer successful!");
+            out.println("Amount Transferred: $" + Money.format(amount));
+            out.println("From Account: " + selectedAccount.getAccountNumber());
+            out.println("To Account: " + destinationAccount.getAccountNumber());
+            out.println("New Balance: $" + Money.format(selectedAccount.getBalance()));
             
-            printReceipt(selectedAccount.getTransactionHistory().get(
-                selectedAccount.getTransactionHistory().size() - 1));
+            printReceipt(txn);
             
         } catch (NumberFormatException e) {
-            System.out.println("❌ Invalid input.");
+            out.println("❌ Invalid input.");
         } catch (Exception e) {
-            System.out.println("❌ Transfer failed: " + e.getMessage());
+            out.println("❌ Transfer failed: " + e.getMessage());
         }
     }
     
     private void transferToCrossCustomer() {
-        System.out.print("Enter destination account number: ");
+        out.print("Enter destination account number: ");
         String destinationAccountNumber = scanner.nextLine().trim();
         
         // Verify destination account exists
         BankAccount destinationAccount = bank.getAccount(destinationAccountNumber);
         if (destinationAccount == null) {
-            System.out.println("❌ Destination account not found.");
+            out.println("❌ Destination account not found.");
             return;
         }
         
         if (destinationAccount.getAccountNumber().equals(selectedAccount.getAccountNumber())) {
-            System.out.println("❌ Cannot transfer to the same account.");
+            out.println("❌ Cannot transfer to the same account.");
             return;
         }
         
-        System.out.print("Enter amount to transfer: $");
+        out.print("Enter amount to transfer: $");
         try {
-            double amount = Double.parseDouble(scanner.nextLine().trim());
+            long amount = Money.parse(scanner.nextLine());
             
-            bank.transferFunds(selectedAccount.getAccountNumber(), 
-                             destinationAccountNumber, amount);
+            Transaction txn = transfer(destinationAccountNumber, amount);
             
-            System.out.println("\n✓ Transfer successful!");
-            System.out.println("Amount Transferred: $" + String.format("%.2f", amount));
-            System.out.println("To Account: " + destinationAccountNumber);
-            System.out.println("New Balance: $" + String.format("%.2f", selectedAccount.getBalance()));
+            out.println("\n✓ Transfer successful!");
+            out.println("Amount Transferred: $" + Money.format(amount));
+            out.println("To Account: " + destinationAccountNumber);
+            out.println("New Balance: $" + Money.format(selectedAccount.getBalance()));
             
-            printReceipt(selectedAccount.getTransactionHistory().get(
-                selectedAccount.getTransactionHistory().size() - 1));
+            printReceipt(txn);
             
         } catch (NumberFormatException e) {
-            System.out.println("❌ Invalid amount.");
+            out.println("❌ Invalid amount.");
         } catch (Exception e) {
-            System.out.println("❌ Transfer failed: " + e.getMessage());
+            out.println("❌ Transfer failed: " + e.getMessage());
         }
     }
 
     private void viewTransactionHistory() {
-        selectedAccount.displayTransactionHistory();
+        HistoryQuery query = new HistoryQuery().newestFirst().limit(HISTORY_PAGE_SIZE);
+        HistoryPage page = selectedAccount.queryHistory(query);
+        if (page.getTransactions().isEmpty()) {
+            out.println("No transactions found.");
+            return;
+        }
+        
+        out.println("\n===== Transaction History for Account " + selectedAccount.getAccountNumber() +
+                           " (newest first) =====");
+        while (true) {
+            for (Transaction transaction : page.getTransactions()) {
+                out.println(transaction);
+                out.println("------------------------------");
+            }
+            if (!page.hasMore()) {
+                return;
+            }
+            out.print("Show older transactions? (yes/no): ");
+            String more = scanner.nextLine().trim().toLowerCase();
+            if (!more.equals("yes") && !more.equals("y")) {
+                return;
+            }
+            page = selectedAccount.queryHistory(query.after(page.getNextPageToken()));
+        }
     }
 
     private void printReceipt(Transaction transaction) {
-        System.out.println(transaction.toReceipt());
+        out.println(transaction.toReceipt());
     }
     
     private void logout() {
-        System.out.println("\nThank you for using " + bank.getBankName() + " ATM.");
-        System.out.println("Goodbye, " + currentCustomer.getName() + "!");
+        out.println("\nThank you for using " + bank.getBankName() + " ATM.");
+        out.println("Goodbye, " + currentCustomer.getName() + "!");
         currentCustomer = null;
         selectedAccount = null;
     }
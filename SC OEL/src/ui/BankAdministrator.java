@@ -2,6 +2,8 @@ package ui;
 
 import models.*;
 import enums.AccountStatus;
+import enums.MeteredOperation;
+import enums.TransactionStatus;
 
 import java.util.Scanner;
 import java.util.ArrayList;
@@ -53,7 +55,9 @@ public class BankAdministrator {
             System.out.println("4. Create New Account");
             System.out.println("5. Unblock Customer Account");
             System.out.println("6. View Bank Statistics");
-            System.out.println("7. Logout");
+            System.out.println("7. View Operation Metrics");
+            System.out.println("8. Apply Month-End Interest");
+            System.out.println("9. Logout");
             System.out.println("================================");
             System.out.print("Select an option: ");
             
@@ -79,6 +83,12 @@ public class BankAdministrator {
                     viewBankStatistics();
                     break;
                 case "7":
+                    viewOperationMetrics();
+                    break;
+                case "8":
+                    applyMonthEndInterest();
+                    break;
+                case "9":
                     logout();
                     return;
                 default:
@@ -125,11 +135,11 @@ public class BankAdministrator {
         System.out.println("------------------------------------------------------------------------");
         
         for (BankAccount account : accounts) {
-            System.out.println(String.format("%-15s %-12s %-12s $%-11.2f %-15s",
+            System.out.println(String.format("%-15s %-12s %-12s $%-11s %-15s",
                                            account.getAccountNumber(),
                                            account.getAccountType(),
                                            account.getCustomerId(),
-                                           account.getBalance(),
+                                           Money.format(account.getBalance()),
                                            account.getStatus()));
         }
         
@@ -204,7 +214,7 @@ public class BankAdministrator {
         
         System.out.print("Enter initial deposit amount: $");
         try {
-            double initialBalance = Double.parseDouble(scanner.nextLine().trim());
+            long initialBalance = Money.parse(scanner.nextLine());
             
             BankAccount newAccount = null;
             
@@ -221,7 +231,7 @@ public class BankAdministrator {
             
             if (newAccount != null) {
                 System.out.println("Account Number: " + newAccount.getAccountNumber());
-                System.out.println("Initial Balance: $" + String.format("%.2f", initialBalance));
+                System.out.println("Initial Balance: $" + Money.format(initialBalance));
             }
             
         } catch (NumberFormatException e) {
@@ -268,38 +278,65 @@ public class BankAdministrator {
     }
     
     private void viewBankStatistics() {
-        ArrayList<Customer> customers = bank.getAllCustomers();
-        ArrayList<BankAccount> accounts = bank.getAllAccounts();
+        BankStatistics statistics = bank.getStatistics();
         
-        double totalBalance = 0;
-        int savingsCount = 0;
-        int checkingCount = 0;
-        int blockedCustomers = 0;
+        System.out.println("\n========== Bank Statistics ==========");
+        System.out.println("Bank Name: " + bank.getBankName());
+        System.out.println("Total Customers: " + statistics.getCustomers());
+        System.out.println("Blocked Customers: " + statistics.getBlockedCustomers());
+        System.out.println("Total Accounts: " + statistics.getAccounts());
+        System.out.println("  - Savings Accounts: " + statistics.getSavingsAccounts());
+        System.out.println("  - Checking Accounts: " + statistics.getCheckingAccounts());
+        System.out.println("Total Bank Balance: $" + Money.format(statistics.getTotalBalance()));
+        System.out.println("=====================================");
+    }
+    
+    private void viewOperationMetrics() {
+        BankMetrics metrics = bank.getMetrics();
         
-        for (Customer customer : customers) {
-            if (customer.getLoginStatus() == AccountStatus.BLOCKED) {
-                blockedCustomers++;
+        System.out.println("\n================== Operation Metrics (microseconds) ==================");
+        System.out.printf("%-11s %9s %9s %9s %9s %9s %9s%n", "Operation", "Count", "Mean", "p50", "p99", "p99.9", "Max");
+        for (MeteredOperation operation : MeteredOperation.values()) {
+            LatencyHistogram.Snapshot latency = metrics.getLatency(operation);
+            System.out.printf("%-11s %9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", operation, metrics.getCount(operation),
+                              latency.getMeanNanos() / 1e3, latency.getPercentileNanos(50) / 1e3,
+                              latency.getPercentileNanos(99) / 1e3, latency.getPercentileNanos(99.9) / 1e3,
+                              latency.getMaxNanos() / 1e3);
+        }
+        System.out.println("\nOutcomes:");
+        for (MeteredOperation operation : MeteredOperation.values()) {
+            StringBuilder line = new StringBuilder(String.format("%-11s", operation));
+            for (TransactionStatus status : TransactionStatus.values()) {
+                long count = metrics.getOutcomeCount(operation, status);
+                if (count > 0) {
+                    line.append(' ').append(status).append('=').append(count);
+                }
             }
+            long errors = metrics.getErrorCount(operation);
+            if (errors > 0) {
+                line.append(" ERRORS=").append(errors);
+            }
+            System.out.println(line);
         }
+        System.out.println("=====================================================================");
+    }
+    
+    private void applyMonthEndInterest() {
+        System.out.println("\n===== Apply Month-End Interest =====");
+        System.out.print("Post one period's interest to all savings accounts? (yes/no): ");
+        String confirm = scanner.nextLine().trim().toLowerCase();
         
-        for (BankAccount account : accounts) {
-            totalBalance += account.getBalance();
-            if (account instanceof SavingsAccount) {
-                savingsCount++;
-            } else if (account instanceof CheckingAccount) {
-                checkingCount++;
-            }
+        if (!confirm.equals("yes") && !confirm.equals("y")) {
+            System.out.println("Operation cancelled.");
+            return;
         }
         
-        System.out.println("\n========== Bank Statistics ==========");
-        System.out.println("Bank Name: " + bank.getBankName());
-        System.out.println("Total Customers: " + customers.size());
-        System.out.println("Blocked Customers: " + blockedCustomers);
-        System.out.println("Total Accounts: " + accounts.size());
-        System.out.println("  - Savings Accounts: " + savingsCount);
-        System.out.println("  - Checking Accounts: " + checkingCount);
-        System.out.println("Total Bank Balance: $" + String.format("%.2f", totalBalance));
-        System.out.println("=====================================");
+        try {
+            InterestRun run = new InterestEngine(bank).run();
+            System.out.println("✓ " + run);
+        } catch (RuntimeException e) {
+            System.out.println("❌ Interest run failed: " + e.getMessage());
+        }
     }
     
     private void logout() {
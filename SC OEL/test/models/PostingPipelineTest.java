@@ -0,0 +1,190 @@
+package models;
+
+import enums.TransactionStatus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that pipeline steps whose journal write fails leave no trace:
+ * cross-partition transfers whose credit could not be journaled are
+ * refunded, total money is conserved, and every balance equals what the
+ * listener accepted. Closing the pipeline while transfers are still
+ * being submitted completes every one of them, with no debit left without
+ * its credit or refund. Throws AssertionError on failure.
+ */
+public class PostingPipelineTest {
+    private static final int ACCOUNTS = 8;
+    private static final long OPENING = Money.dollars(10000);
+
+    public static void main(String[] args) throws Exception {
+        moneyIsConservedWhenJournalWritesFail();
+        closingWhileSubmittingCompletesEveryTransfer();
+        System.out.println("PostingPipelineTest passed");
+    }
+
+    private static void moneyIsConservedWhenJournalWritesFail() throws Exception {
+        Bank bank = new Bank("Test Bank");
+        FlakyJournal journal = new FlakyJournal();
+        bank.setEventListener(journal);
+        bank.registerCustomer("T001", "Test", "0000");
+        List<BankAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(bank.createSavingsAccount("T001", OPENING));
+        }
+
+        PostingPipeline pipeline = new PostingPipeline(bank, 4, 64);
+        Random random = new Random(7);
+        List<CompletableFuture<Transaction>> transfers = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            int from = random.nextInt(ACCOUNTS);
+            int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+            transfers.add(pipeline.transfer(accounts.get(from).getAccountNumber(),
+                                            accounts.get(to).getAccountNumber(), 1 + random.nextInt(5000)));
+        }
+        int failed = 0;
+        for (CompletableFuture<Transaction> transfer : transfers) {
+            try {
+                transfer.join();
+            } catch (CompletionException e) {
+                failed++;
+            }
+        }
+        pipeline.close();
+
+        check(journal.rejected.get() > 0, "the listener should have rejected some steps");
+        check(failed > 0 && failed < transfers.size(), "some transfers should fail and some succeed");
+        long total = 0;
+        for (BankAccount account : accounts) {
+            total += account.getBalance();
+            check(account.getBalance() == journal.balance(account.getAccountNumber()),
+                  "balance of " + account.getAccountNumber() + " should match what was journaled");
+        }
+        check(total == ACCOUNTS * OPENING, "total money should be conserved, was " + total);
+    }
+
+    private static void closingWhileSubmittingCompletesEveryTransfer() throws Exception {
+        Bank bank = new Bank("Test Bank");
+        FlakyJournal journal = new FlakyJournal();
+        bank.setEventListener(journal);
+        bank.registerCustomer("T002", "Test", "0000");
+        List<BankAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(bank.createSavingsAccount("T002", OPENING));
+        }
+
+        PostingPipeline pipeline = new PostingPipeline(bank, 4, 64);
+        List<CompletableFuture<Transaction>> transfers = new ArrayList<>();
+        CountDownLatch submitting = new CountDownLatch(4);
+        Thread[] submitters = new Thread[4];
+        for (int t = 0; t < submitters.length; t++) {
+            Random random = new Random(t);
+            submitters[t] = new Thread(() -> {
+                submitting.countDown();
+                // Submitting goes on until close refuses new commands
+                for (int i = 0; i < 100_000; i++) {
+                    int from = random.nextInt(ACCOUNTS);
+                    int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                    CompletableFuture<Transaction> transfer;
+                    try {
+                        transfer = pipeline.transfer(accounts.get(from).getAccountNumber(),
+                                                     accounts.get(to).getAccountNumber(), 1 + random.nextInt(5000));
+                    } catch (IllegalStateException closed) {
+                        return;
+                    }
+                    synchronized (transfers) {
+                        transfers.add(transfer);
+                    }
+                }
+            });
+            submitters[t].start();
+        }
+        submitting.await();
+        Thread.sleep(20);
+        pipeline.close();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        for (CompletableFuture<Transaction> transfer : transfers) {
+            try {
+                transfer.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                // Refused by close or by the journal
+            } catch (TimeoutException e) {
+                throw new AssertionError("a transfer submitted during close never completed");
+            }
+        }
+        long total = 0;
+        for (BankAccount account : accounts) {
+            total += account.getBalance();
+            check(account.getBalance() == journal.balance(account.getAccountNumber()),
+                  "balance of " + account.getAccountNumber() + " after close should match what was journaled");
+        }
+        check(total == ACCOUNTS * OPENING, "total money should be conserved across close, was " + total);
+    }
+
+    /**
+     * Rejects every third step and keeps the balances implied by the
+     * postings it accepted.
+     */
+    private static final class FlakyJournal implements BankEventListener {
+        final AtomicInteger rejected = new AtomicInteger();
+        private final AtomicInteger steps = new AtomicInteger();
+        private final Map<String, Long> balances = new HashMap<>();
+
+        @Override
+        public synchronized void accountOpened(BankAccount account, long initialBalance) {
+            balances.put(account.getAccountNumber(), initialBalance);
+        }
+
+        @Override
+        public void postedTogether(BankAccount[] accounts, Transaction[] postings, int count) {
+            if (count > 0 && steps.incrementAndGet() % 3 == 0) {
+                rejected.incrementAndGet();
+                throw new IllegalStateException("Injected journal failure");
+            }
+            BankEventListener.super.postedTogether(accounts, postings, count);
+        }
+
+        @Override
+        public synchronized void posted(BankAccount account, Transaction transaction) {
+            apply(account.getAccountNumber(), transaction);
+        }
+
+        @Override
+        public synchronized void transferred(Transaction transferOut, Transaction transferIn) {
+            apply(transferOut.getSourceAccountNumber(), transferOut);
+            apply(transferIn.getDestinationAccountNumber(), transferIn);
+        }
+
+        private void apply(String accountNumber, Transaction posting) {
+            if (posting.getStatus() != TransactionStatus.SUCCESS) {
+                return;
+            }
+            long delta = posting.getType().isCredit() ? posting.getAmount()
+                                                      : -(posting.getAmount() + posting.getFee());
+            balances.merge(accountNumber, delta, Long::sum);
+        }
+
+        synchronized long balance(String accountNumber) {
+            return balances.get(accountNumber);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package models;
+
+import enums.BatchMode;
+import enums.TransactionStatus;
+
+/**
+ * Checks that a transfer batch nets opposing flows, so only each account's
+ * final position is held to its floor and each account gets one posting,
+ * and that an invalid item rejects an all-or-nothing batch without a trace
+ * while a best-effort batch applies the rest. Throws AssertionError on
+ * failure.
+ */
+public class TransferBatchTest {
+    // Savings accounts keep $500; transfers between them are free
+    private static final long FLOOR = Money.dollars(500);
+
+    public static void main(String[] args) throws Exception {
+        opposingFlowsAreNetted();
+        invalidItemRejectsAllOrNothing();
+        invalidItemIsSkippedInBestEffort();
+        System.out.println("TransferBatchTest passed");
+    }
+
+    private static void opposingFlowsAreNetted() throws Exception {
+        Accounts accounts = new Accounts();
+        // Item by item the first debit would take the source below its floor
+        TransferBatch batch = new TransferBatch()
+            .add(accounts.source, accounts.destination, Money.dollars(500))
+            .add(accounts.destination, accounts.source, Money.dollars(450));
+        BatchResult result = accounts.bank.transferBatch(batch, BatchMode.ALL_OR_NOTHING);
+
+        check(result.isApplied() && result.getAcceptedCount() == 2, "both items accepted");
+        accounts.checkBalances(FLOOR + Money.dollars(50), Money.dollars(1050), "after netting");
+        check(result.getSettlementCount() == 2, "one settlement per account");
+        for (int i = 0; i < result.getSettlementCount(); i++) {
+            long expected = result.getSettledAccountNumber(i).equals(accounts.source) ? -Money.dollars(50)
+                                                                                      : Money.dollars(50);
+            check(result.getSettledNet(i) == expected, "net of " + result.getSettledAccountNumber(i));
+            check(result.getSettledPostings(i) == 2, "items settled for " + result.getSettledAccountNumber(i));
+        }
+        accounts.checkHistory(2, "one posting per account after netting");
+    }
+
+    private static void invalidItemRejectsAllOrNothing() throws Exception {
+        Accounts accounts = new Accounts();
+        TransferBatch batch = new TransferBatch()
+            .add(accounts.source, accounts.destination, Money.dollars(500))
+            .add(accounts.destination, accounts.source, Money.dollars(450))
+            .add(accounts.source, "SAV99999999", Money.dollars(10))
+            .add(accounts.destination, accounts.source, 0);
+        BatchResult result = accounts.bank.transferBatch(batch, BatchMode.ALL_OR_NOTHING);
+
+        check(!result.isApplied() && result.getAcceptedCount() == 0, "nothing accepted");
+        check(result.getStatus(0) == TransactionStatus.FAILED_BATCH_REJECTED, "valid item rejected with the batch");
+        check(result.getStatus(1) == TransactionStatus.FAILED_BATCH_REJECTED, "valid item rejected with the batch");
+        check(result.getStatus(2) == TransactionStatus.FAILED_INVALID_ACCOUNT, "unknown destination reported");
+        check(result.getStatus(3) == TransactionStatus.FAILED_INVALID_AMOUNT, "zero amount reported");
+        accounts.checkBalances(FLOOR + Money.dollars(100), Money.dollars(1000), "after a rejected batch");
+        accounts.checkHistory(1, "no posting after a rejected batch");
+    }
+
+    private static void invalidItemIsSkippedInBestEffort() throws Exception {
+        Accounts accounts = new Accounts();
+        // Best effort checks floors in file order, so the credit comes first
+        TransferBatch batch = new TransferBatch()
+            .add(accounts.destination, accounts.source, Money.dollars(450))
+            .add(accounts.source, "SAV99999999", Money.dollars(10))
+            .add(accounts.source, accounts.destination, Money.dollars(500));
+        BatchResult result = accounts.bank.transferBatch(batch, BatchMode.BEST_EFFORT);
+
+        check(result.getAcceptedCount() == 2, "valid items accepted");
+        check(result.getStatus(1) == TransactionStatus.FAILED_INVALID_ACCOUNT, "unknown destination reported");
+        accounts.checkBalances(FLOOR + Money.dollars(50), Money.dollars(1050), "after a best-effort batch");
+        accounts.checkHistory(2, "one posting per account after a best-effort batch");
+    }
+
+    /** Two savings accounts, the source $100 above its floor. */
+    private static final class Accounts {
+        final Bank bank = new Bank("Test Bank");
+        final String source;
+        final String destination;
+
+        Accounts() throws Exception {
+            bank.registerCustomer("T001", "Test", "0000");
+            source = bank.createSavingsAccount("T001", FLOOR + Money.dollars(100)).getAccountNumber();
+            destination = bank.createSavingsAccount("T001", Money.dollars(1000)).getAccountNumber();
+        }
+
+        void checkBalances(long sourceBalance, long destinationBalance, String when) {
+            check(bank.getAccount(source).getBalance() == sourceBalance, "source balance " + when);
+            check(bank.getAccount(destination).getBalance() == destinationBalance, "destination balance " + when);
+        }
+
+        // The opening deposit is the first posting of each history
+        void checkHistory(int postings, String what) {
+            check(bank.getAccount(source).getTransactionHistory().size() == postings, what);
+            check(bank.getAccount(destination).getTransactionHistory().size() == postings, what);
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package persistence;
+
+import models.Bank;
+import models.BankAccount;
+import models.Money;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the journal replays to the same balances and histories, that
+ * a record torn by a crash mid-write is dropped at startup along with
+ * anything after it, and that the journal keeps appending after the cut.
+ * Throws AssertionError on failure.
+ */
+public class JournalTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("journal-test");
+        try {
+            replaysTheSameState(dir.resolve("replay"));
+            tornTailIsDropped(dir.resolve("torn"));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("JournalTest passed");
+    }
+
+    private static void replaysTheSameState(Path dir) throws Exception {
+        Path journalPath = dir.resolve("bank.journal");
+        Bank bank = new Bank("Test Bank");
+        Journal journal = Journal.open(journalPath, bank);
+        bank.registerCustomer("T001", "Test", "0000");
+        BankAccount savings = bank.createSavingsAccount("T001", Money.dollars(2000));
+        BankAccount checking = bank.createCheckingAccount("T001", Money.dollars(100));
+        savings.deposit(Money.dollars(25));
+        checking.withdraw(Money.dollars(40));
+        bank.transferFunds(savings.getAccountNumber(), checking.getAccountNumber(), Money.dollars(300));
+        journal.close();
+
+        Bank restored = new Bank("Test Bank");
+        try (Journal reopened = Journal.open(journalPath, restored)) {
+            check(reopened.getRecoveredRecords() > 0, "records replayed");
+        }
+        for (BankAccount account : new BankAccount[] {savings, checking}) {
+            BankAccount replayed = restored.getAccount(account.getAccountNumber());
+            check(replayed.getBalance() == account.getBalance(), "balance of " + account.getAccountNumber());
+            check(replayed.getTransactionHistory().size() == account.getTransactionHistory().size(),
+                  "history size of " + account.getAccountNumber());
+            for (int i = 0; i < account.getTransactionHistory().size(); i++) {
+                check(replayed.getTransactionHistory().get(i).getSequence()
+                      == account.getTransactionHistory().get(i).getSequence(),
+                      "posting " + i + " of " + account.getAccountNumber());
+            }
+        }
+    }
+
+    private static void tornTailIsDropped(Path dir) throws Exception {
+        Path journalPath = dir.resolve("bank.journal");
+        Bank bank = new Bank("Test Bank");
+        Journal journal = Journal.open(journalPath, bank);
+        bank.registerCustomer("T001", "Test", "0000");
+        BankAccount savings = bank.createSavingsAccount("T001", Money.dollars(2000));
+        savings.deposit(Money.dollars(10));
+        long balanceBefore = savings.getBalance();
+        int historyBefore = savings.getTransactionHistory().size();
+        long validEnd = Files.size(journalPath);
+        savings.deposit(Money.dollars(20));
+        journal.close();
+
+        // A crash mid-write leaves only the start of the last record
+        long tornEnd = validEnd + (Files.size(journalPath) - validEnd) / 2;
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            channel.truncate(tornEnd);
+        }
+
+        Bank restored = new Bank("Test Bank");
+        Journal reopened = Journal.open(journalPath, restored);
+        BankAccount replayed = restored.getAccount(savings.getAccountNumber());
+        check(replayed.getBalance() == balanceBefore, "torn deposit not applied");
+        check(replayed.getTransactionHistory().size() == historyBefore, "torn deposit not in history");
+        check(reopened.getRecoveredBytes() == validEnd, "recovery stops at the last whole record");
+        check(Files.size(journalPath) == validEnd, "torn bytes cut from the file");
+
+        replayed.deposit(Money.dollars(5));
+        reopened.close();
+
+        Bank again = new Bank("Test Bank");
+        try (Journal third = Journal.open(journalPath, again)) {
+            check(third.getRecoveredBytes() == Files.size(journalPath), "whole journal valid after the cut");
+        }
+        check(again.getAccount(savings.getAccountNumber()).getBalance() == balanceBefore + Money.dollars(5),
+              "deposit after the cut replayed");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}
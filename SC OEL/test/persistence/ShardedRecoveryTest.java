@@ -0,0 +1,239 @@
+package persistence;
+
+import enums.TransactionType;
+import models.BankAccount;
+import models.BankEventListener;
+import models.Customer;
+import models.Money;
+import models.ShardedBank;
+import models.Transaction;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a cross-shard transfer whose journal writes fail part way is
+ * compensated while running and settled by recoverTransfers after a
+ * restart: committed if its credit reached the destination's journal,
+ * refunded otherwise. Throws AssertionError on failure.
+ */
+public class ShardedRecoveryTest {
+    private static final long OPENING = Money.dollars(1000);
+    private static final long AMOUNT = Money.dollars(100);
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("sharded-recovery-test");
+        try {
+            failedPrepareIsReverted(dir.resolve("prepare"));
+            lostCommitIsRolledForward(dir.resolve("commit"));
+            lostCreditIsRefunded(dir.resolve("credit"));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("ShardedRecoveryTest passed");
+    }
+
+    private static void failedPrepareIsReverted(Path dir) throws Exception {
+        Shards shards = Shards.create(dir);
+        shards.failing[shards.sourceShard].failPrepare = true;
+        expectFailure(shards);
+        check(shards.source().getBalance() == OPENING, "source balance after a failed prepare");
+        shards.close();
+
+        Shards restored = Shards.open(dir, shards);
+        check(restored.bank.getShard(restored.sourceShard).getPreparedTransfers().isEmpty(),
+              "no transfer in doubt after a failed prepare");
+        restored.bank.recoverTransfers();
+        restored.checkBalances(OPENING, OPENING, "after a failed prepare");
+        restored.close();
+    }
+
+    private static void lostCommitIsRolledForward(Path dir) throws Exception {
+        Shards shards = Shards.create(dir);
+        shards.failing[shards.sourceShard].failResolve = true;
+        shards.bank.transferFunds(shards.sourceNumber, shards.destinationNumber, AMOUNT);
+        shards.checkBalances(OPENING - AMOUNT, OPENING + AMOUNT, "with the commit not journaled");
+        shards.close();
+
+        Shards restored = Shards.open(dir, shards);
+        check(restored.bank.getShard(restored.sourceShard).getPreparedTransfers().size() == 1,
+              "the transfer is in doubt after restart");
+        restored.bank.recoverTransfers();
+        restored.checkBalances(OPENING - AMOUNT, OPENING + AMOUNT, "after rolling the transfer forward");
+        restored.close();
+
+        Shards again = Shards.open(dir, shards);
+        check(again.bank.getShard(again.sourceShard).getPreparedTransfers().isEmpty(),
+              "the commit is journaled by recovery");
+        again.checkBalances(OPENING - AMOUNT, OPENING + AMOUNT, "after a second restart");
+        again.close();
+    }
+
+    private static void lostCreditIsRefunded(Path dir) throws Exception {
+        Shards shards = Shards.create(dir);
+        shards.failing[shards.destinationShard].failCredit = true;
+        shards.failing[shards.sourceShard].failResolve = true;
+        expectFailure(shards);
+        // Neither the credit nor the refund reached a journal
+        shards.checkBalances(OPENING - AMOUNT, OPENING, "with the refund not journaled");
+        shards.close();
+
+        Shards restored = Shards.open(dir, shards);
+        restored.bank.recoverTransfers();
+        restored.checkBalances(OPENING, OPENING, "after refunding the transfer");
+        check(restored.bank.getShard(restored.sourceShard).getPreparedTransfers().isEmpty(),
+              "no transfer in doubt after recovery");
+        restored.close();
+
+        Shards again = Shards.open(dir, shards);
+        again.checkBalances(OPENING, OPENING, "after a second restart");
+        again.close();
+    }
+
+    private static void expectFailure(Shards shards) {
+        try {
+            shards.bank.transferFunds(shards.sourceNumber, shards.destinationNumber, AMOUNT);
+        } catch (Exception e) {
+            return;
+        }
+        throw new AssertionError("Failed: the transfer should report the journal failure");
+    }
+
+    /**
+     * A two-shard bank with one savings account per shard, each shard
+     * journaled in its own directory.
+     */
+    private static final class Shards {
+        final ShardedBank bank = new ShardedBank("Test Bank", 2, 1);
+        final Journal[] journals = new Journal[2];
+        final FailingListener[] failing = new FailingListener[2];
+        String sourceNumber;
+        String destinationNumber;
+        int sourceShard;
+        int destinationShard;
+
+        static Shards create(Path dir) throws Exception {
+            Shards shards = new Shards();
+            shards.openJournals(dir);
+            String[] ids = new String[2];
+            for (int i = 0; ids[0] == null || ids[1] == null; i++) {
+                String id = "T" + i;
+                int shard = shards.bank.shardOfCustomer(id);
+                if (ids[shard] == null) {
+                    ids[shard] = id;
+                    shards.bank.registerCustomer(id, "Test", "0000");
+                }
+            }
+            shards.sourceNumber = shards.bank.createSavingsAccount(ids[0], OPENING).getAccountNumber();
+            shards.destinationNumber = shards.bank.createSavingsAccount(ids[1], OPENING).getAccountNumber();
+            shards.sourceShard = shards.bank.shardOfAccount(shards.sourceNumber);
+            shards.destinationShard = shards.bank.shardOfAccount(shards.destinationNumber);
+            shards.wrapListeners();
+            return shards;
+        }
+
+        static Shards open(Path dir, Shards previous) throws Exception {
+            Shards shards = new Shards();
+            shards.openJournals(dir);
+            shards.sourceNumber = previous.sourceNumber;
+            shards.destinationNumber = previous.destinationNumber;
+            shards.sourceShard = previous.sourceShard;
+            shards.destinationShard = previous.destinationShard;
+            shards.wrapListeners();
+            return shards;
+        }
+
+        private void openJournals(Path dir) throws Exception {
+            for (int i = 0; i < journals.length; i++) {
+                journals[i] = Journal.open(dir.resolve("shard-" + i).resolve("bank.journal"), bank.getShard(i));
+            }
+        }
+
+        private void wrapListeners() {
+            for (int i = 0; i < journals.length; i++) {
+                failing[i] = new FailingListener(journals[i]);
+                bank.getShard(i).setEventListener(failing[i]);
+            }
+        }
+
+        BankAccount source() {
+            return bank.getAccount(sourceNumber);
+        }
+
+        void checkBalances(long source, long destination, String when) {
+            check(source().getBalance() == source, "source balance " + when);
+            check(bank.getAccount(destinationNumber).getBalance() == destination, "destination balance " + when);
+        }
+
+        void close() throws Exception {
+            for (Journal journal : journals) {
+                journal.close();
+            }
+            bank.close();
+        }
+    }
+
+    /**
+     * Passes calls on to a journal, refusing the chosen steps of a
+     * cross-shard transfer as a failed journal write would.
+     */
+    private static final class FailingListener implements BankEventListener {
+        private final Journal journal;
+        boolean failPrepare;
+        boolean failCredit;
+        boolean failResolve;
+
+        FailingListener(Journal journal) {
+            this.journal = journal;
+        }
+
+        @Override
+        public void customerRegistered(Customer customer) {
+            journal.customerRegistered(customer);
+        }
+
+        @Override
+        public void accountOpened(BankAccount account, long initialBalance) {
+            journal.accountOpened(account, initialBalance);
+        }
+
+        @Override
+        public void posted(BankAccount account, Transaction transaction) {
+            if (failCredit && transaction.getType() == TransactionType.TRANSFER_IN) {
+                throw new IllegalStateException("Journal write failed");
+            }
+            journal.posted(account, transaction);
+        }
+
+        @Override
+        public void transferPrepared(BankAccount source, Transaction transferOut) {
+            if (failPrepare) {
+                throw new IllegalStateException("Journal write failed");
+            }
+            journal.transferPrepared(source, transferOut);
+        }
+
+        @Override
+        public void transferResolved(BankAccount source, Transaction transferOut, Transaction refund) {
+            if (failResolve) {
+                throw new IllegalStateException("Journal write failed");
+            }
+            journal.transferResolved(source, transferOut, refund);
+        }
+
+        @Override
+        public void transactionIdsLeased(long limit) {
+            journal.transactionIdsLeased(limit);
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}
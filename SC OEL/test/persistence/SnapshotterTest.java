@@ -0,0 +1,114 @@
+package persistence;
+
+import models.Bank;
+import models.BankAccount;
+import models.CheckingAccount;
+import models.Money;
+import models.Transaction;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a snapshot folded from the journal restores the same
+ * balances and billing-cycle counts as the live bank, with TRANSFER_IN
+ * postings folded as money coming in, and that histories and failed
+ * logins survive restarts that each take another snapshot. Throws
+ * AssertionError on failure.
+ */
+public class SnapshotterTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("snapshotter-test");
+        try {
+            transfersInAreFoldedAsCredits(dir.resolve("transfers"));
+            historyAndFailedLoginsSurviveRestarts(dir.resolve("restarts"));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("SnapshotterTest passed");
+    }
+
+    private static void transfersInAreFoldedAsCredits(Path dir) throws Exception {
+        Path journalPath = dir.resolve("bank.journal");
+        Bank bank = new Bank("Test Bank");
+        Journal journal = Journal.open(journalPath, bank);
+        bank.registerCustomer("T001", "Test", "0000");
+        BankAccount savings = bank.createSavingsAccount("T001", Money.dollars(5000));
+        CheckingAccount checking = bank.createCheckingAccount("T001", Money.dollars(1000));
+
+        for (int i = 0; i < 6; i++) {
+            bank.transferFunds(savings.getAccountNumber(), checking.getAccountNumber(), Money.dollars(50));
+            bank.transferFunds(checking.getAccountNumber(), savings.getAccountNumber(), Money.dollars(20));
+        }
+        checking.deposit(Money.dollars(5));
+
+        new Snapshotter(journal).takeSnapshot();
+        long savingsBalance = savings.getBalance();
+        long checkingBalance = checking.getBalance();
+        int checkingCount = checking.getTransactionCount();
+        journal.close();
+
+        Bank restored = new Bank("Test Bank");
+        try (Journal reopened = Journal.open(journalPath, restored)) {
+            check(reopened.getRecoveredRecords() == 0, "snapshot should cover the whole journal");
+        }
+        CheckingAccount restoredChecking = (CheckingAccount) restored.getAccount(checking.getAccountNumber());
+        check(restored.getAccount(savings.getAccountNumber()).getBalance() == savingsBalance,
+              "savings balance after restore");
+        check(restoredChecking.getBalance() == checkingBalance, "checking balance after restore");
+        check(restoredChecking.getTransactionCount() == checkingCount, "checking transaction count after restore");
+    }
+
+    private static void historyAndFailedLoginsSurviveRestarts(Path dir) throws Exception {
+        Path journalPath = dir.resolve("bank.journal");
+        Bank bank = new Bank("Test Bank");
+        Journal journal = Journal.open(journalPath, bank);
+        bank.registerCustomer("T002", "Test", "0000");
+        String number = bank.createCheckingAccount("T002", Money.dollars(1000)).getAccountNumber();
+        List<Transaction> expected = null;
+
+        for (int restart = 0; restart < 3; restart++) {
+            BankAccount account = bank.getAccount(number);
+            for (int i = 0; i < 5; i++) {
+                account.deposit(Money.dollars(1 + restart));
+            }
+            new Snapshotter(journal).takeSnapshot();
+            // Left in the journal tail, after the snapshot
+            account.withdraw(Money.dollars(1));
+            try {
+                bank.authenticateCustomer("T002", "9999");
+            } catch (Exception expectedFailure) {
+                // The failed attempt is what is being journaled
+            }
+            expected = account.getTransactionHistory();
+            int failed = bank.getCustomer("T002").getFailedLoginAttempts();
+            journal.close();
+
+            bank = new Bank("Test Bank");
+            journal = Journal.open(journalPath, bank);
+            check(journal.getSnapshotOffset() > 0, "restart " + restart + " should load a snapshot");
+            List<Transaction> history = bank.getAccount(number).getTransactionHistory();
+            check(history.size() == expected.size(), "history size after restart " + restart);
+            for (int i = 0; i < history.size(); i++) {
+                check(history.get(i).getSequence() == expected.get(i).getSequence()
+                      && history.get(i).getAmount() == expected.get(i).getAmount(),
+                      "history row " + i + " after restart " + restart);
+            }
+            check(bank.getCustomer("T002").getFailedLoginAttempts() == failed,
+                  "failed logins after restart " + restart);
+        }
+        check(bank.getCustomer("T002").getFailedLoginAttempts() == 3, "failed logins add up across restarts");
+        journal.close();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}